@@ -13,9 +13,12 @@ import jcifs.context.SingletonContext
 import com.dismal.files.BuildConfig
 import com.dismal.files.coil.initializeCoil
 import com.dismal.files.filejob.fileJobNotificationTemplate
+import com.dismal.files.filelist.FileListCache
 import com.dismal.files.ftpserver.ftpServerServiceNotificationTemplate
 import com.dismal.files.hiddenapi.HiddenApi
 import com.dismal.files.provider.FileSystemProviders
+import com.dismal.files.provider.archive.ArchiveFileSystem
+import com.dismal.files.provider.root.RootFileServiceManager
 import com.dismal.files.settings.Settings
 import com.dismal.files.storage.FtpServerAuthenticator
 import com.dismal.files.storage.SftpServerAuthenticator
@@ -33,7 +36,9 @@ import com.dismal.files.provider.webdav.client.Client as WebDavClient
 val appInitializers = listOf(
     ::disableHiddenApiChecks, ::initializeThreeTen,
     ::initializeWebViewDebugging, ::initializeCoil, ::initializeFileSystemProviders, ::upgradeApp,
-    ::initializeLiveDataObjects, ::initializeCustomTheme, ::initializeNightMode,
+    ::initializeLiveDataObjects, ::initializeRootFileService, ::initializeFileListCache,
+    ::deleteStaleArchiveCacheFiles,
+    ::initializeCustomTheme, ::initializeNightMode,
     ::createNotificationChannels, ::initializeCrashlytics
 )
 
@@ -81,6 +86,18 @@ private fun initializeLiveDataObjects() {
     Settings.FILE_LIST_DEFAULT_DIRECTORY.value
 }
 
+private fun initializeRootFileService() {
+    RootFileServiceManager.initialize()
+}
+
+private fun initializeFileListCache() {
+    FileListCache.initialize()
+}
+
+private fun deleteStaleArchiveCacheFiles() {
+    AsyncTask.THREAD_POOL_EXECUTOR.execute { ArchiveFileSystem.deleteStaleCacheFiles() }
+}
+
 private fun initializeCustomTheme() {
     CustomThemeHelper.initialize(application)
 }
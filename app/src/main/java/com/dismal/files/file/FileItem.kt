@@ -5,31 +5,34 @@
 
 package com.dismal.files.file
 
+import android.os.Parcel
 import android.os.Parcelable
 import androidx.annotation.WorkerThread
 import java8.nio.file.LinkOption
 import java8.nio.file.Path
 import java8.nio.file.attribute.BasicFileAttributes
+import kotlinx.parcelize.Parceler
 import kotlinx.parcelize.Parcelize
-import kotlinx.parcelize.WriteWith
+import com.dismal.files.app.appClassLoader
+import com.dismal.files.compat.readBooleanCompat
+import com.dismal.files.compat.writeBooleanCompat
 import com.dismal.files.filelist.getCollationKeyForFileName
 import com.dismal.files.filelist.name
 import com.dismal.files.provider.common.AndroidFileTypeDetector
 import com.dismal.files.provider.common.isHidden
 import com.dismal.files.provider.common.readAttributes
 import com.dismal.files.provider.common.readSymbolicLinkByteString
-import com.dismal.files.util.ParcelableParceler
 import java.io.IOException
 import java.text.CollationKey
 import java.text.Collator
 
 @Parcelize
 data class FileItem(
-    val path: @WriteWith<ParcelableParceler> Path,
-    val nameCollationKey: @WriteWith<ParcelableParceler> CollationKey,
-    val attributesNoFollowLinks: @WriteWith<ParcelableParceler> BasicFileAttributes,
+    val path: Path,
+    val nameCollationKey: CollationKey,
+    val attributesNoFollowLinks: BasicFileAttributes,
     val symbolicLinkTarget: String?,
-    private val symbolicLinkTargetAttributes: @WriteWith<ParcelableParceler> BasicFileAttributes?,
+    private val symbolicLinkTargetAttributes: BasicFileAttributes?,
     val isHidden: Boolean,
     val mimeType: MimeType
 ) : Parcelable {
@@ -41,6 +44,37 @@ data class FileItem(
             check(attributesNoFollowLinks.isSymbolicLink) { "Not a symbolic link" }
             return symbolicLinkTargetAttributes == null
         }
+
+    // For parceling the paths of many file items together with ParcelablePathList.
+    fun writeToParcelWithoutPath(parcel: Parcel, flags: Int) {
+        parcel.writeParcelable(nameCollationKey as Parcelable, flags)
+        parcel.writeParcelable(attributesNoFollowLinks as Parcelable, flags)
+        parcel.writeString(symbolicLinkTarget)
+        parcel.writeParcelable(symbolicLinkTargetAttributes as Parcelable?, flags)
+        parcel.writeBooleanCompat(isHidden)
+        parcel.writeString(mimeType.value)
+    }
+
+    companion object : Parceler<FileItem> {
+        override fun create(parcel: Parcel): FileItem =
+            createFromParcelWithoutPath(
+                parcel.readParcelable<Parcelable>(appClassLoader) as Path, parcel
+            )
+
+        override fun FileItem.write(parcel: Parcel, flags: Int) {
+            parcel.writeParcelable(path as Parcelable, flags)
+            writeToParcelWithoutPath(parcel, flags)
+        }
+
+        fun createFromParcelWithoutPath(path: Path, parcel: Parcel): FileItem =
+            FileItem(
+                path, parcel.readParcelable<Parcelable>(appClassLoader) as CollationKey,
+                parcel.readParcelable<Parcelable>(appClassLoader) as BasicFileAttributes,
+                parcel.readString(),
+                parcel.readParcelable<Parcelable>(appClassLoader) as BasicFileAttributes?,
+                parcel.readBooleanCompat(), MimeType(parcel.readString()!!)
+            )
+    }
 }
 
 @WorkerThread
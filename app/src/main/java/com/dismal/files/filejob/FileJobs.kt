@@ -39,8 +39,11 @@ import com.dismal.files.file.fileProviderUri
 import com.dismal.files.file.loadFileItem
 import com.dismal.files.filelist.OpenFileAsDialogActivity
 import com.dismal.files.filelist.OpenFileAsDialogFragment
+import com.dismal.files.provider.archive.archiveExtractInParallel
 import com.dismal.files.provider.archive.archiveFile
+import com.dismal.files.provider.archive.archiveIsParallelExtractionSupported
 import com.dismal.files.provider.archive.archiver.ArchiveWriter
+import com.dismal.files.provider.archive.archiver.CompressionPolicy
 import com.dismal.files.provider.archive.createArchiveRootPath
 import com.dismal.files.provider.archive.isArchivePath
 import com.dismal.files.provider.common.ByteString
@@ -61,6 +64,7 @@ import com.dismal.files.provider.common.createDirectory
 import com.dismal.files.provider.common.createFile
 import com.dismal.files.provider.common.delete
 import com.dismal.files.provider.common.deleteIfExists
+import com.dismal.files.provider.common.deleteRecursivelyOnServer
 import com.dismal.files.provider.common.exists
 import com.dismal.files.provider.common.getFileStore
 import com.dismal.files.provider.common.getMode
@@ -80,6 +84,11 @@ import com.dismal.files.provider.common.setSeLinuxContext
 import com.dismal.files.provider.common.toByteString
 import com.dismal.files.provider.common.toModeString
 import com.dismal.files.provider.linux.isLinuxPath
+import com.dismal.files.provider.remote.FileAttributeChange
+import com.dismal.files.provider.remote.RecursiveFileOperations
+import com.dismal.files.provider.root.RootFileService
+import com.dismal.files.provider.root.isRootUsed
+import com.dismal.files.settings.Settings
 import com.dismal.files.util.asFileName
 import com.dismal.files.util.createInstallPackageIntent
 import com.dismal.files.util.createIntent
@@ -89,6 +98,7 @@ import com.dismal.files.util.getQuantityString
 import com.dismal.files.util.putArgs
 import com.dismal.files.util.showToast
 import com.dismal.files.util.toEnumSet
+import com.dismal.files.util.valueCompat
 import com.dismal.files.util.withChooser
 import java.io.ByteArrayInputStream
 import java.io.File
@@ -154,6 +164,15 @@ private fun FileJob.postNotification(
 
 private const val PROGRESS_INTERVAL_MILLIS = 200L
 
+// Deflate at its default level is well faster than this on current devices, so this only kicks in
+// for slow devices or for data that deflate struggles with.
+private const val ARCHIVE_MAX_COMPRESSION_NANOS_PER_BYTE = 50L
+
+private val archiveThreadCount: Int
+    get() =
+        Settings.ARCHIVE_THREAD_COUNT.valueCompat.toIntOrNull()?.takeIf { it > 0 }
+            ?: Runtime.getRuntime().availableProcessors()
+
 private const val NOTIFICATION_INTERVAL_MILLIS = 500L
 
 private fun FileJob.showToast(textRes: Int, duration: Int = Toast.LENGTH_SHORT) {
@@ -237,9 +256,14 @@ private fun FileJob.throwIfInterrupted() {
 }
 
 @Throws(IOException::class)
-private fun FileJob.scan(sources: List<Path?>, @PluralsRes notificationTitleRes: Int): ScanInfo {
+private fun FileJob.scan(
+    sources: List<Path?>,
+    @PluralsRes notificationTitleRes: Int,
+    fileCounts: MutableMap<Path, Int>? = null
+): ScanInfo {
     val scanInfo = ScanInfo()
     for (source in sources) {
+        val fileCountBefore = scanInfo.fileCount
         Files.walkFileTree(source, object : SimpleFileVisitor<Path>() {
             @Throws(IOException::class)
             override fun preVisitDirectory(
@@ -264,6 +288,9 @@ private fun FileJob.scan(sources: List<Path?>, @PluralsRes notificationTitleRes:
                 return super.visitFileFailed(file, exception)
             }
         })
+        if (fileCounts != null && source != null) {
+            fileCounts[source] = scanInfo.fileCount - fileCountBefore
+        }
     }
     postScanNotification(scanInfo, notificationTitleRes)
     return scanInfo
@@ -442,6 +469,10 @@ private class TransferInfo(scanInfo: ScanInfo, val target: Path?) {
         ++transferredFileCount
     }
 
+    fun addToTransferredFileCount(count: Int) {
+        transferredFileCount += count
+    }
+
     fun addTransferredFile(path: Path) {
         ++transferredFileCount
         try {
@@ -616,7 +647,10 @@ class ArchiveFileJob(
     private val archiveFile: Path,
     private val format: Int,
     private val filter: Int,
-    private val password: String?
+    private val password: String?,
+    private val threadCount: Int = archiveThreadCount,
+    private val compressionPolicy: CompressionPolicy =
+        CompressionPolicy(maxNanosPerByte = ARCHIVE_MAX_COMPRESSION_NANOS_PER_BYTE)
 ) : FileJob() {
     @Throws(IOException::class)
     override fun run() {
@@ -627,7 +661,9 @@ class ArchiveFileJob(
         var successful = false
         try {
             channel.use {
-                ArchiveWriter(channel, format, filter, password).use { writer ->
+                ArchiveWriter(
+                    channel, format, filter, password, threadCount, compressionPolicy
+                ).use { writer ->
                     val transferInfo = TransferInfo(scanInfo, archiveFile)
                     for (source in sources) {
                         val target = getTargetFileName(source)
@@ -752,7 +788,11 @@ class CopyFileJob(private val sources: List<Path>, private val targetDirectory:
             } else {
                 targetDirectory.resolveForeign(getTargetFileName(source))
             }
-            copyRecursively(source, target, isExtract, transferInfo, actionAllInfo)
+            if (!isExtract && isRecursiveJobInRootServiceSupported(listOf(source, target))) {
+                copyRecursivelyInRootService(source, target, false, transferInfo, actionAllInfo)
+            } else {
+                copyRecursively(source, target, isExtract, transferInfo, actionAllInfo)
+            }
             throwIfInterrupted()
         }
     }
@@ -765,6 +805,13 @@ class CopyFileJob(private val sources: List<Path>, private val targetDirectory:
         transferInfo: TransferInfo,
         actionAllInfo: ActionAllInfo
     ) {
+        // Regular files without a conflicting target are deferred and extracted in parallel after
+        // the walk, when the archive format allows it.
+        val parallelExtractFiles = if (isExtract && isParallelExtractionSupported(source)) {
+            mutableMapOf<Path, Path>()
+        } else {
+            null
+        }
         Files.walkFileTree(source, object : SimpleFileVisitor<Path>() {
             @Throws(IOException::class)
             override fun preVisitDirectory(
@@ -782,7 +829,12 @@ class CopyFileJob(private val sources: List<Path>, private val targetDirectory:
             @Throws(IOException::class)
             override fun visitFile(file: Path, attributes: BasicFileAttributes): FileVisitResult {
                 val fileInTarget = target.resolveForeign(source.relativize(file))
-                copy(file, fileInTarget, isExtract, transferInfo, actionAllInfo)
+                if (parallelExtractFiles != null && attributes.isRegularFile
+                    && !fileInTarget.exists(LinkOption.NOFOLLOW_LINKS)) {
+                    parallelExtractFiles[file] = fileInTarget
+                } else {
+                    copy(file, fileInTarget, isExtract, transferInfo, actionAllInfo)
+                }
                 throwIfInterrupted()
                 return FileVisitResult.CONTINUE
             }
@@ -793,6 +845,48 @@ class CopyFileJob(private val sources: List<Path>, private val targetDirectory:
                 return super.visitFileFailed(file, exception)
             }
         })
+        if (!parallelExtractFiles.isNullOrEmpty()) {
+            extractInParallel(source, parallelExtractFiles, transferInfo, actionAllInfo)
+        }
+    }
+
+    private fun isParallelExtractionSupported(source: Path): Boolean =
+        try {
+            source.archiveIsParallelExtractionSupported()
+        } catch (e: IOException) {
+            e.printStackTrace()
+            false
+        }
+
+    @Throws(IOException::class)
+    private fun extractInParallel(
+        source: Path,
+        files: Map<Path, Path>,
+        transferInfo: TransferInfo,
+        actionAllInfo: ActionAllInfo
+    ) {
+        val failedFiles = if (files.size > 1) {
+            source.archiveExtractInParallel(
+                files, Runtime.getRuntime().availableProcessors(), PROGRESS_INTERVAL_MILLIS, {
+                    synchronized(transferInfo) {
+                        transferInfo.addToTransferredSize(it)
+                        postCopyMoveNotification(transferInfo, source, CopyMoveType.EXTRACT)
+                    }
+                }, {
+                    synchronized(transferInfo) {
+                        transferInfo.incrementTransferredFileCount()
+                        postCopyMoveNotification(transferInfo, source, CopyMoveType.EXTRACT)
+                    }
+                }
+            ).keys
+        } else {
+            files.keys
+        }
+        // Retry failed files serially, so that the usual error handling applies.
+        for (file in failedFiles) {
+            copy(file, files[file]!!, true, transferInfo, actionAllInfo)
+            throwIfInterrupted()
+        }
     }
 
     private fun getTargetPathForDuplicate(source: Path): Path {
@@ -877,6 +971,158 @@ class CopyFileJob(private val sources: List<Path>, private val targetDirectory:
     private class DuplicateCountInfo(val countStart: Int, val countEnd: Int, val count: Int)
 }
 
+// A recursive job on paths that go through the root service anyway can run there as a whole,
+// instead of taking a few transactions for every file.
+private fun isRecursiveJobInRootServiceSupported(
+    paths: List<Path>,
+    isAttributeAccess: Boolean = false
+): Boolean = paths.all { it.isLinuxPath } && isRootUsed(paths, isAttributeAccess)
+
+@Throws(IOException::class)
+private fun FileJob.copyRecursivelyInRootService(
+    source: Path,
+    target: Path,
+    isMove: Boolean,
+    transferInfo: TransferInfo,
+    actionAllInfo: ActionAllInfo
+) {
+    val type = if (isMove) CopyMoveType.MOVE else CopyMoveType.COPY
+    RootFileService.copyRecursively(
+        source, target, isMove, PROGRESS_INTERVAL_MILLIS,
+        object : RecursiveFileOperations.Listener {
+            override fun onProgress(fileCount: Int, size: Long, currentPath: Path?) {
+                transferInfo.addToTransferredFileCount(fileCount)
+                transferInfo.addToTransferredSize(size)
+                postCopyMoveNotification(transferInfo, currentPath ?: source, type)
+            }
+
+            // Conflicts and errors are handled here as usual, including the dialogs.
+            @Throws(IOException::class)
+            override fun onFallback(
+                operation: RecursiveFileOperations.Operation,
+                source: Path,
+                target: Path?
+            ): Boolean =
+                when (operation) {
+                    RecursiveFileOperations.Operation.COPY ->
+                        copy(source, target!!, false, transferInfo, actionAllInfo)
+                    RecursiveFileOperations.Operation.COPY_FOR_MOVE ->
+                        copyForMove(source, target!!, transferInfo, actionAllInfo)
+                    RecursiveFileOperations.Operation.MOVE ->
+                        moveByCopy(source, target!!, transferInfo, actionAllInfo)
+                    RecursiveFileOperations.Operation.DELETE_FOR_MOVE -> {
+                        delete(source, null, actionAllInfo)
+                        true
+                    }
+                    RecursiveFileOperations.Operation.DELETE -> throw AssertionError(operation)
+                }
+        }
+    )
+}
+
+@Throws(IOException::class)
+private fun FileJob.deleteRecursivelyInRootService(
+    path: Path,
+    transferInfo: TransferInfo,
+    actionAllInfo: ActionAllInfo
+) {
+    RootFileService.deleteRecursively(
+        path, PROGRESS_INTERVAL_MILLIS, object : RecursiveFileOperations.Listener {
+            override fun onProgress(fileCount: Int, size: Long, currentPath: Path?) {
+                transferInfo.addToTransferredFileCount(fileCount)
+                postDeleteNotification(transferInfo, currentPath ?: path)
+            }
+
+            @Throws(IOException::class)
+            override fun onFallback(
+                operation: RecursiveFileOperations.Operation,
+                source: Path,
+                target: Path?
+            ): Boolean {
+                delete(source, transferInfo, actionAllInfo)
+                return true
+            }
+        }
+    )
+}
+
+// Files that failed in the root service are handed to the visitor of the job, which then handles
+// them as usual, including the dialogs.
+@Throws(IOException::class)
+private fun FileJob.setAttributesInRootService(
+    path: Path,
+    change: FileAttributeChange,
+    transferInfo: TransferInfo,
+    visitor: FileVisitor<in Path>,
+    postNotification: FileJob.(TransferInfo, Path) -> Unit
+) {
+    RootFileService.setAttributesRecursively(
+        path, true, change, PROGRESS_INTERVAL_MILLIS, object : RecursiveFileOperations.Listener {
+            override fun onProgress(fileCount: Int, size: Long, currentPath: Path?) {
+                transferInfo.addToTransferredFileCount(fileCount)
+                postNotification(transferInfo, currentPath ?: path)
+            }
+
+            @Throws(IOException::class)
+            override fun onFallback(
+                operation: RecursiveFileOperations.Operation,
+                source: Path,
+                target: Path?
+            ): Boolean {
+                val attributes = try {
+                    if (source == path) {
+                        try {
+                            source.readAttributes(BasicFileAttributes::class.java)
+                        } catch (ignored: IOException) {
+                            source.readAttributes(
+                                BasicFileAttributes::class.java, LinkOption.NOFOLLOW_LINKS
+                            )
+                        }
+                    } else {
+                        source.readAttributes(
+                            BasicFileAttributes::class.java, LinkOption.NOFOLLOW_LINKS
+                        )
+                    }
+                } catch (e: IOException) {
+                    visitor.visitFileFailed(source, e)
+                    return true
+                }
+                visitor.visitFile(source, attributes)
+                return true
+            }
+        }
+    )
+}
+
+// Returns false if the server can't delete the directory by itself, so that it should be walked
+// instead, which also handles whatever is left after a failure.
+@Throws(IOException::class)
+private fun FileJob.deleteRecursivelyOnServer(
+    path: Path,
+    fileCount: Int,
+    transferInfo: TransferInfo
+): Boolean {
+    var deletedFileCount = 0
+    val isDeleted = try {
+        path.deleteRecursivelyOnServer(PROGRESS_INTERVAL_MILLIS) { count ->
+            deletedFileCount += count
+            transferInfo.addToTransferredFileCount(count)
+            postDeleteNotification(transferInfo, path)
+        }
+    } catch (e: InterruptedIOException) {
+        throw e
+    } catch (e: IOException) {
+        e.printStackTrace()
+        false
+    }
+    if (isDeleted) {
+        // Servers that don't report progress are assumed to have deleted what was scanned.
+        transferInfo.addToTransferredFileCount((fileCount - deletedFileCount).coerceAtLeast(0))
+        postDeleteNotification(transferInfo, path)
+    }
+    return isDeleted
+}
+
 @Throws(IOException::class)
 private fun FileJob.copy(
     source: Path,
@@ -946,11 +1192,22 @@ private fun FileJob.create(path: Path, createDirectory: Boolean) {
 class DeleteFileJob(private val paths: List<Path>) : FileJob() {
     @Throws(IOException::class)
     override fun run() {
-        val scanInfo = scan(paths, R.plurals.file_job_delete_scan_notification_title_format)
+        val fileCounts = mutableMapOf<Path, Int>()
+        val scanInfo = scan(
+            paths, R.plurals.file_job_delete_scan_notification_title_format, fileCounts
+        )
         val transferInfo = TransferInfo(scanInfo, null)
         val actionAllInfo = ActionAllInfo()
         for (path in paths) {
-            deleteRecursively(path, transferInfo, actionAllInfo)
+            if (isRecursiveJobInRootServiceSupported(listOf(path))) {
+                deleteRecursivelyInRootService(path, transferInfo, actionAllInfo)
+            } else {
+                val isDeletedOnServer = path.isDirectory(LinkOption.NOFOLLOW_LINKS)
+                    && deleteRecursivelyOnServer(path, fileCounts[path] ?: 0, transferInfo)
+                if (!isDeletedOnServer) {
+                    deleteRecursively(path, transferInfo, actionAllInfo)
+                }
+            }
             throwIfInterrupted()
         }
     }
@@ -1088,7 +1345,11 @@ class MoveFileJob(private val sources: List<Path>, private val targetDirectory:
         val actionAllInfo = ActionAllInfo()
         for (source in sourcesToMove) {
             val target = targetDirectory.resolveForeign(source.fileName)
-            moveRecursively(source, target, transferInfo, actionAllInfo)
+            if (isRecursiveJobInRootServiceSupported(listOf(source, target))) {
+                copyRecursivelyInRootService(source, target, true, transferInfo, actionAllInfo)
+            } else {
+                moveRecursively(source, target, transferInfo, actionAllInfo)
+            }
             throwIfInterrupted()
         }
     }
@@ -1600,7 +1861,7 @@ class RestoreFileSeLinuxContextJob(
         )
         val transferInfo = TransferInfo(scanInfo, null)
         val actionAllInfo = ActionAllInfo()
-        walkFileTreeForSettingAttributes(path, recursive, object : SimpleFileVisitor<Path>() {
+        val visitor = object : SimpleFileVisitor<Path>() {
             @Throws(IOException::class)
             override fun preVisitDirectory(
                 directory: Path,
@@ -1628,7 +1889,15 @@ class RestoreFileSeLinuxContextJob(
                 // TODO: Prompt retry, skip, skip-all or abort.
                 return super.postVisitDirectory(directory, exception)
             }
-        })
+        }
+        if (recursive && isRecursiveJobInRootServiceSupported(listOf(path), true)) {
+            setAttributesInRootService(
+                path, FileAttributeChange.RestoreSeLinuxContext, transferInfo, visitor,
+                FileJob::postRestoreSeLinuxContextNotification
+            )
+        } else {
+            walkFileTreeForSettingAttributes(path, recursive, visitor)
+        }
     }
 }
 
@@ -1744,7 +2013,7 @@ class SetFileGroupJob(
         )
         val transferInfo = TransferInfo(scanInfo, null)
         val actionAllInfo = ActionAllInfo()
-        walkFileTreeForSettingAttributes(path, recursive, object : SimpleFileVisitor<Path>() {
+        val visitor = object : SimpleFileVisitor<Path>() {
             @Throws(IOException::class)
             override fun preVisitDirectory(
                 directory: Path,
@@ -1772,7 +2041,15 @@ class SetFileGroupJob(
                 // TODO: Prompt retry, skip, skip-all or abort.
                 return super.postVisitDirectory(directory, exception)
             }
-        })
+        }
+        if (recursive && isRecursiveJobInRootServiceSupported(listOf(path), true)) {
+            setAttributesInRootService(
+                path, FileAttributeChange.Group(group), transferInfo, visitor,
+                FileJob::postSetGroupNotification
+            )
+        } else {
+            walkFileTreeForSettingAttributes(path, recursive, visitor)
+        }
     }
 }
 
@@ -1865,7 +2142,7 @@ class SetFileModeJob(
         )
         val transferInfo = TransferInfo(scanInfo, null)
         val actionAllInfo = ActionAllInfo()
-        walkFileTreeForSettingAttributes(path, recursive, object : SimpleFileVisitor<Path>() {
+        val visitor = object : SimpleFileVisitor<Path>() {
             @Throws(IOException::class)
             override fun preVisitDirectory(
                 directory: Path,
@@ -1900,7 +2177,15 @@ class SetFileModeJob(
                 // TODO: Prompt retry, skip, skip-all or abort.
                 return super.postVisitDirectory(directory, exception)
             }
-        })
+        }
+        if (recursive && isRecursiveJobInRootServiceSupported(listOf(path), true)) {
+            setAttributesInRootService(
+                path, FileAttributeChange.Mode(mode, uppercaseX), transferInfo, visitor,
+                FileJob::postSetModeNotification
+            )
+        } else {
+            walkFileTreeForSettingAttributes(path, recursive, visitor)
+        }
     }
 
     @Throws(IOException::class)
@@ -2010,7 +2295,7 @@ class SetFileOwnerJob(
         )
         val transferInfo = TransferInfo(scanInfo, null)
         val actionAllInfo = ActionAllInfo()
-        walkFileTreeForSettingAttributes(path, recursive, object : SimpleFileVisitor<Path>() {
+        val visitor = object : SimpleFileVisitor<Path>() {
             @Throws(IOException::class)
             override fun preVisitDirectory(
                 directory: Path,
@@ -2038,7 +2323,15 @@ class SetFileOwnerJob(
                 // TODO: Prompt retry, skip, skip-all or abort.
                 return super.postVisitDirectory(directory, exception)
             }
-        })
+        }
+        if (recursive && isRecursiveJobInRootServiceSupported(listOf(path), true)) {
+            setAttributesInRootService(
+                path, FileAttributeChange.Owner(owner), transferInfo, visitor,
+                FileJob::postSetOwnerNotification
+            )
+        } else {
+            walkFileTreeForSettingAttributes(path, recursive, visitor)
+        }
     }
 }
 
@@ -2133,7 +2426,7 @@ class SetFileSeLinuxContextJob(
         )
         val transferInfo = TransferInfo(scanInfo, null)
         val actionAllInfo = ActionAllInfo()
-        walkFileTreeForSettingAttributes(path, recursive, object : SimpleFileVisitor<Path>() {
+        val visitor = object : SimpleFileVisitor<Path>() {
             @Throws(IOException::class)
             override fun preVisitDirectory(
                 directory: Path,
@@ -2166,7 +2459,15 @@ class SetFileSeLinuxContextJob(
                 // TODO: Prompt retry, skip, skip-all or abort.
                 return super.postVisitDirectory(directory, exception)
             }
-        })
+        }
+        if (recursive && isRecursiveJobInRootServiceSupported(listOf(path), true)) {
+            setAttributesInRootService(
+                path, FileAttributeChange.SeLinuxContext(seLinuxContext), transferInfo, visitor,
+                FileJob::postSetSeLinuxContextNotification
+            )
+        } else {
+            walkFileTreeForSettingAttributes(path, recursive, visitor)
+        }
     }
 }
 
@@ -8,18 +8,20 @@ package com.dismal.files.filelist
 import android.os.Parcel
 import android.os.Parcelable
 import java8.nio.file.Path
-import com.dismal.files.compat.writeParcelableListCompat
 import com.dismal.files.file.FileItem
+import com.dismal.files.provider.common.ParcelablePathList
 import com.dismal.files.util.LinkedMapSet
-import com.dismal.files.util.readParcelableListCompat
 
 class FileItemSet() : LinkedMapSet<Path, FileItem>(FileItem::path), Parcelable {
     constructor(parcel: Parcel) : this() {
-        addAll(parcel.readParcelableListCompat())
+        val paths = ParcelablePathList.CREATOR.createFromParcel(parcel).list
+        addAll(paths.map { FileItem.createFromParcelWithoutPath(it, parcel) })
     }
 
     override fun writeToParcel(parcel: Parcel, flags: Int) {
-        parcel.writeParcelableListCompat(toList(), flags)
+        val files = toList()
+        ParcelablePathList(files.map { it.path }).writeToParcel(parcel, flags)
+        files.forEach { it.writeToParcelWithoutPath(parcel, flags) }
     }
 
     override fun describeContents(): Int = 0
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.filelist
+
+import android.os.AsyncTask
+import android.os.Parcel
+import android.util.AtomicFile
+import androidx.annotation.WorkerThread
+import java8.nio.file.Path
+import com.dismal.files.BuildConfig
+import com.dismal.files.app.application
+import com.dismal.files.file.FileItem
+import com.dismal.files.provider.common.ParcelablePathList
+import com.dismal.files.provider.ftp.isFtpPath
+import com.dismal.files.provider.sftp.isSftpPath
+import com.dismal.files.provider.smb.isSmbPath
+import com.dismal.files.provider.webdav.isWebDavPath
+import com.dismal.files.settings.Settings
+import com.dismal.files.util.sha1Digest
+import com.dismal.files.util.toHexString
+import com.dismal.files.util.valueCompat
+import java.io.File
+import java.io.IOException
+
+/**
+ * An on-disk cache of the file lists of remote directories, so that a directory visited before can
+ * be shown at once while it's being listed again.
+ *
+ * Each server has its own directory of lists, which is bounded by [MAX_SIZE_PER_SERVER] and
+ * evicts the least recently used lists. Lists are stored as parcels, so they are dropped whenever
+ * the app is upgraded or they fail to be read. The directory of a server is deleted once no
+ * storage points to the server anymore, and the whole cache is deleted once it's turned off.
+ */
+object FileListCache {
+    private const val MAX_SIZE_PER_SERVER = 4L * 1024 * 1024
+
+    private val directory = File(application.cacheDir, "file_list_cache")
+
+    private val lock = Any()
+
+    private val Path.isCacheable: Boolean
+        get() = isRemote && Settings.CACHE_REMOTE_FILE_LISTS.valueCompat
+
+    private val Path.isRemote: Boolean
+        get() = isSmbPath || isSftpPath || isFtpPath || isWebDavPath
+
+    fun initialize() {
+        Settings.CACHE_REMOTE_FILE_LISTS.observeForever {
+            if (!it) {
+                AsyncTask.THREAD_POOL_EXECUTOR.execute { clear() }
+            }
+        }
+        Settings.STORAGES.observeForever { storages ->
+            val serverDirectoryNames = storages.mapNotNullTo(mutableSetOf()) { storage ->
+                storage.path?.takeIf { it.isRemote }?.let { getServerDirectoryName(it) }
+            }
+            AsyncTask.THREAD_POOL_EXECUTOR.execute { retainServers(serverDirectoryNames) }
+        }
+    }
+
+    @WorkerThread
+    private fun clear() {
+        synchronized(lock) { directory.deleteRecursively() }
+    }
+
+    @WorkerThread
+    private fun retainServers(serverDirectoryNames: Set<String>) {
+        synchronized(lock) {
+            val serverDirectories = directory.listFiles() ?: return
+            for (serverDirectory in serverDirectories) {
+                if (serverDirectory.name !in serverDirectoryNames) {
+                    serverDirectory.deleteRecursively()
+                }
+            }
+        }
+    }
+
+    @WorkerThread
+    fun get(path: Path): List<FileItem>? {
+        if (!path.isCacheable) {
+            return null
+        }
+        val uriString = path.toUri().toString()
+        val file = getFile(path, uriString)
+        synchronized(lock) {
+            if (!file.exists()) {
+                return null
+            }
+            val bytes = try {
+                AtomicFile(file).readFully()
+            } catch (e: IOException) {
+                e.printStackTrace()
+                return null
+            }
+            val fileItems = try {
+                readFileItems(bytes, uriString)
+            } catch (e: Exception) {
+                // A parcel written by a different build can fail in any way.
+                e.printStackTrace()
+                null
+            }
+            if (fileItems != null) {
+                file.setLastModified(System.currentTimeMillis())
+            } else {
+                file.delete()
+            }
+            return fileItems
+        }
+    }
+
+    @WorkerThread
+    fun put(path: Path, fileItems: List<FileItem>) {
+        if (!path.isCacheable) {
+            return
+        }
+        val uriString = path.toUri().toString()
+        val bytes = writeFileItems(fileItems, uriString)
+        if (bytes.size > MAX_SIZE_PER_SERVER) {
+            return
+        }
+        val file = getFile(path, uriString)
+        synchronized(lock) {
+            val serverDirectory = file.parentFile!!
+            if (!serverDirectory.exists() && !serverDirectory.mkdirs()) {
+                return
+            }
+            val atomicFile = AtomicFile(file)
+            val outputStream = try {
+                atomicFile.startWrite()
+            } catch (e: IOException) {
+                e.printStackTrace()
+                return
+            }
+            try {
+                outputStream.write(bytes)
+                atomicFile.finishWrite(outputStream)
+            } catch (e: IOException) {
+                e.printStackTrace()
+                atomicFile.failWrite(outputStream)
+                return
+            }
+            evictLeastRecentlyUsed(serverDirectory)
+        }
+    }
+
+    private fun getFile(path: Path, uriString: String): File =
+        File(
+            File(directory, getServerDirectoryName(path)),
+            uriString.toByteArray().sha1Digest().toHexString()
+        )
+
+    private fun getServerDirectoryName(path: Path): String {
+        val server = path.toUri().authority ?: ""
+        return server.toByteArray().sha1Digest().toHexString()
+    }
+
+    private fun readFileItems(bytes: ByteArray, uriString: String): List<FileItem>? {
+        val parcel = Parcel.obtain()
+        try {
+            parcel.unmarshall(bytes, 0, bytes.size)
+            parcel.setDataPosition(0)
+            if (parcel.readInt() != BuildConfig.VERSION_CODE || parcel.readString() != uriString) {
+                return null
+            }
+            val paths = ParcelablePathList.CREATOR.createFromParcel(parcel).list
+            return paths.map { FileItem.createFromParcelWithoutPath(it, parcel) }
+        } finally {
+            parcel.recycle()
+        }
+    }
+
+    private fun writeFileItems(fileItems: List<FileItem>, uriString: String): ByteArray {
+        val parcel = Parcel.obtain()
+        try {
+            parcel.writeInt(BuildConfig.VERSION_CODE)
+            parcel.writeString(uriString)
+            ParcelablePathList(fileItems.map { it.path }).writeToParcel(parcel, 0)
+            fileItems.forEach { it.writeToParcelWithoutPath(parcel, 0) }
+            return parcel.marshall()
+        } finally {
+            parcel.recycle()
+        }
+    }
+
+    private fun evictLeastRecentlyUsed(serverDirectory: File) {
+        val files = serverDirectory.listFiles()?.sortedByDescending { it.lastModified() } ?: return
+        var size = 0L
+        for (file in files) {
+            size += file.length()
+            if (size > MAX_SIZE_PER_SERVER) {
+                file.delete()
+            }
+        }
+    }
+}
@@ -10,7 +10,7 @@ import java8.nio.file.DirectoryIteratorException
 import java8.nio.file.Path
 import com.dismal.files.file.FileItem
 import com.dismal.files.file.loadFileItem
-import com.dismal.files.provider.common.newDirectoryStream
+import com.dismal.files.provider.common.newDirectoryStreamWithAttributes
 import com.dismal.files.util.CloseableLiveData
 import com.dismal.files.util.Failure
 import com.dismal.files.util.Loading
@@ -36,10 +36,16 @@ class FileListLiveData(private val path: Path) : CloseableLiveData<Stateful<List
 
     fun loadValue() {
         future?.cancel(true)
-        value = Loading(value?.value)
+        val oldFileList = value?.value
+        value = Loading(oldFileList)
         future = (AsyncTask.THREAD_POOL_EXECUTOR as ExecutorService).submit<Unit> {
+            // Show the cached list while loading, and it will be replaced with the fresh one.
+            val cachedFileList = if (oldFileList == null) FileListCache.get(path) else null
+            if (cachedFileList != null) {
+                postValue(Loading(cachedFileList))
+            }
             val value = try {
-                path.newDirectoryStream().use { directoryStream ->
+                path.newDirectoryStreamWithAttributes().use { directoryStream ->
                     val fileList = mutableListOf<FileItem>()
                     for (path in directoryStream) {
                         try {
@@ -52,10 +58,11 @@ class FileListLiveData(private val path: Path) : CloseableLiveData<Stateful<List
                             e.printStackTrace()
                         }
                     }
+                    FileListCache.put(path, fileList)
                     Success(fileList as List<FileItem>)
                 }
             } catch (e: Exception) {
-                Failure(valueCompat.value, e)
+                Failure(cachedFileList ?: valueCompat.value, e)
             }
             postValue(value)
         }
@@ -7,15 +7,16 @@ package com.dismal.files.fileproperties.checksum
 
 import androidx.annotation.StringRes
 import com.dismal.files.R
+import com.dismal.files.provider.common.HashAlgorithm
 import java.security.MessageDigest
 
 class ChecksumInfo(val checksums: Map<Algorithm, String>) {
-    enum class Algorithm(@StringRes val nameRes: Int) {
-        CRC32(R.string.file_properties_checksum_crc32),
-        MD5(R.string.file_properties_checksum_md5),
-        SHA1(R.string.file_properties_checksum_sha_1),
-        SHA256(R.string.file_properties_checksum_sha_256),
-        SHA512(R.string.file_properties_checksum_sha_512);
+    enum class Algorithm(@StringRes val nameRes: Int, val hashAlgorithm: HashAlgorithm) {
+        CRC32(R.string.file_properties_checksum_crc32, HashAlgorithm.CRC32),
+        MD5(R.string.file_properties_checksum_md5, HashAlgorithm.MD5),
+        SHA1(R.string.file_properties_checksum_sha_1, HashAlgorithm.SHA1),
+        SHA256(R.string.file_properties_checksum_sha_256, HashAlgorithm.SHA256),
+        SHA512(R.string.file_properties_checksum_sha_512, HashAlgorithm.SHA512);
 
         fun createMessageDigest(): MessageDigest =
             when (this) {
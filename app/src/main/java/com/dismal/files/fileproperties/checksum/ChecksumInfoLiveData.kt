@@ -8,6 +8,7 @@ package com.dismal.files.fileproperties.checksum
 import android.os.AsyncTask
 import java8.nio.file.Path
 import com.dismal.files.fileproperties.PathObserverLiveData
+import com.dismal.files.provider.common.hashOnServer
 import com.dismal.files.provider.common.newInputStream
 import com.dismal.files.util.Failure
 import com.dismal.files.util.Loading
@@ -15,6 +16,8 @@ import com.dismal.files.util.Stateful
 import com.dismal.files.util.Success
 import com.dismal.files.util.toHexString
 import com.dismal.files.util.valueCompat
+import java.io.IOException
+import java.io.InterruptedIOException
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Future
 
@@ -31,22 +34,7 @@ class ChecksumInfoLiveData(path: Path) : PathObserverLiveData<Stateful<ChecksumI
         value = Loading(value?.value)
         future = (AsyncTask.THREAD_POOL_EXECUTOR as ExecutorService).submit<Unit> {
             val value = try {
-                val messageDigests =
-                    ChecksumInfo.Algorithm.entries.associateWith { it.createMessageDigest() }
-                path.newInputStream().use { inputStream ->
-                    val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
-                    while (true) {
-                        val readSize = inputStream.read(buffer)
-                        if (readSize == -1) {
-                            break
-                        }
-                        messageDigests.values.forEach { it.update(buffer, 0, readSize) }
-                    }
-                }
-                val checksumInfo = ChecksumInfo(
-                    messageDigests.mapValues { it.value.digest().toHexString() }
-                )
-                Success(checksumInfo)
+                Success(computeChecksumInfo())
             } catch (e: Exception) {
                 Failure(valueCompat.value, e)
             }
@@ -54,6 +42,57 @@ class ChecksumInfoLiveData(path: Path) : PathObserverLiveData<Stateful<ChecksumI
         }
     }
 
+    // Takes the checksums that the server can compute, and only reads the file for the rest, e.g.
+    // Nextcloud usually only returns SHA-1 and SFTP has no CRC32.
+    @Throws(IOException::class)
+    private fun computeChecksumInfo(): ChecksumInfo {
+        val serverChecksums = computeChecksumsOnServer()
+        val algorithms = ChecksumInfo.Algorithm.entries.filter { it !in serverChecksums }
+        val localChecksums = if (algorithms.isNotEmpty()) {
+            computeChecksums(algorithms)
+        } else {
+            emptyMap()
+        }
+        val checksums = ChecksumInfo.Algorithm.entries.associateWith {
+            serverChecksums[it] ?: localChecksums.getValue(it)
+        }
+        return ChecksumInfo(checksums)
+    }
+
+    @Throws(InterruptedIOException::class)
+    private fun computeChecksumsOnServer(): Map<ChecksumInfo.Algorithm, String> {
+        val algorithms = ChecksumInfo.Algorithm.entries.mapTo(mutableSetOf()) { it.hashAlgorithm }
+        val hashes = try {
+            path.hashOnServer(algorithms)
+        } catch (e: InterruptedIOException) {
+            throw e
+        } catch (e: IOException) {
+            e.printStackTrace()
+            return emptyMap()
+        }
+        return ChecksumInfo.Algorithm.entries
+            .mapNotNull { algorithm -> hashes[algorithm.hashAlgorithm]?.let { algorithm to it } }
+            .toMap()
+    }
+
+    @Throws(IOException::class)
+    private fun computeChecksums(
+        algorithms: List<ChecksumInfo.Algorithm>
+    ): Map<ChecksumInfo.Algorithm, String> {
+        val messageDigests = algorithms.associateWith { it.createMessageDigest() }
+        path.newInputStream().use { inputStream ->
+            val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+            while (true) {
+                val readSize = inputStream.read(buffer)
+                if (readSize == -1) {
+                    break
+                }
+                messageDigests.values.forEach { it.update(buffer, 0, readSize) }
+            }
+        }
+        return messageDigests.mapValues { it.value.digest().toHexString() }
+    }
+
     override fun close() {
         super.close()
 
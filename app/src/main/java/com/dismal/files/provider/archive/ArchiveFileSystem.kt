@@ -7,9 +7,11 @@ package com.dismal.files.provider.archive
 
 import android.os.Parcel
 import android.os.Parcelable
+import java8.nio.channels.SeekableByteChannel
 import java8.nio.file.ClosedFileSystemException
 import java8.nio.file.FileStore
 import java8.nio.file.FileSystem
+import java8.nio.file.FileSystemException
 import java8.nio.file.NoSuchFileException
 import java8.nio.file.NotDirectoryException
 import java8.nio.file.NotLinkException
@@ -18,14 +20,20 @@ import java8.nio.file.PathMatcher
 import java8.nio.file.WatchService
 import java8.nio.file.attribute.UserPrincipalLookupService
 import java8.nio.file.spi.FileSystemProvider
+import com.dismal.files.app.application
 import com.dismal.files.provider.archive.archiver.ArchiveReader
 import com.dismal.files.provider.archive.archiver.ReadArchive
+import com.dismal.files.provider.archive.archiver.SolidArchiveReader
+import com.dismal.files.provider.archive.archiver.SpillSeekableByteChannel
+import com.dismal.files.provider.archive.archiver.ZipStoredEntryIndex
 import com.dismal.files.provider.common.ByteString
 import com.dismal.files.provider.common.ByteStringBuilder
 import com.dismal.files.provider.common.ByteStringListPathCreator
 import com.dismal.files.provider.common.IsDirectoryException
 import com.dismal.files.provider.common.toByteString
+import com.dismal.files.provider.root.isRunningAsRoot
 import me.zhanghai.android.libarchive.ArchiveException
+import java.io.File
 import java.io.IOException
 import java.io.InputStream
 
@@ -59,6 +67,18 @@ internal class ArchiveFileSystem(
 
     private var tree: Map<Path, List<Path>>? = null
 
+    private var isParallelExtractionSupported: Boolean? = null
+
+    private var solidArchiveReader: SolidArchiveReader? = null
+
+    private var zipStoredEntryIndex: ZipStoredEntryIndex? = null
+
+    private var isZipStoredEntryIndexRead = false
+
+    // Don't spill when running as root, which would leave files owned by root in our cache.
+    private val cacheDirectory: File?
+        get() = if (isRunningAsRoot) null else CACHE_DIRECTORY
+
     @Throws(IOException::class)
     fun getEntry(path: Path): ReadArchive.Entry =
         synchronized(lock) {
@@ -73,20 +93,145 @@ internal class ArchiveFileSystem(
         }
 
     @Throws(IOException::class)
-    fun newInputStream(file: Path): InputStream =
+    fun newInputStream(file: Path): InputStream {
+        val entry: ReadArchive.Entry
+        val passwords: List<String>
+        val solidArchiveReader: SolidArchiveReader?
         synchronized(lock) {
             ensureEntriesLocked(file)
-            val entry = getEntryLocked(file)
+            entry = getEntryLocked(file)
             if (entry.isDirectory) {
                 throw IsDirectoryException(file.toString())
             }
-            val inputStream = try {
+            passwords = this.passwords
+            // The archive has to be decompressed sequentially, so share decoders and cache
+            // decompressed data across streams.
+            solidArchiveReader = if (isParallelExtractionSupportedLocked()) {
+                null
+            } else {
+                getSolidArchiveReaderLocked()
+            }
+        }
+        // Reaching the entry may decompress everything before it, which shouldn't block other
+        // readers of this file system.
+        val inputStream = try {
+            if (solidArchiveReader != null) {
+                solidArchiveReader.newInputStream(entry)
+            } else {
                 ArchiveReader.newInputStream(archiveFile, passwords, entry)
-            } catch (e: ArchiveException) {
-                throw e.toFileSystemOrInterruptedIOException(file)
-            } ?: throw NoSuchFileException(file.toString())
-            ArchiveExceptionInputStream(inputStream, file)
+            }
+        } catch (e: ArchiveException) {
+            throw e.toFileSystemOrInterruptedIOException(file)
+        } ?: throw NoSuchFileException(file.toString())
+        return ArchiveExceptionInputStream(inputStream, file)
+    }
+
+    /*
+     * This is what allows an archive inside an archive to be opened, since libarchive wants a
+     * seekable channel. An entry stored as is in a ZIP is read directly from the outer archive,
+     * and any other entry is decompressed into a spill file as far as it's read.
+     */
+    @Throws(IOException::class)
+    fun newByteChannel(file: Path): SeekableByteChannel {
+        val size = synchronized(lock) {
+            ensureEntriesLocked(file)
+            val entry = getEntryLocked(file)
+            if (entry.isDirectory) {
+                throw IsDirectoryException(file.toString())
+            }
+            if (!entry.isEncrypted && isParallelExtractionSupportedLocked()) {
+                val channel = try {
+                    getZipStoredEntryIndexLocked()?.newByteChannel(archiveFile, entry.name)
+                } catch (e: IOException) {
+                    e.printStackTrace()
+                    null
+                }
+                if (channel != null) {
+                    return channel
+                }
+            }
+            entry.size
+        }
+        val cacheDirectory = cacheDirectory
+            ?: throw FileSystemException(file.toString(), null, "Cannot spill when running as root")
+        return SpillSeekableByteChannel(newInputStream(file), size, cacheDirectory)
+    }
+
+    private fun getZipStoredEntryIndexLocked(): ZipStoredEntryIndex? {
+        if (!isZipStoredEntryIndexRead) {
+            zipStoredEntryIndex = try {
+                ZipStoredEntryIndex.read(archiveFile, ArchiveReader.archiveFileNameCharset)
+            } catch (e: IOException) {
+                e.printStackTrace()
+                null
+            }
+            isZipStoredEntryIndexRead = true
+        }
+        return zipStoredEntryIndex
+    }
+
+    @Throws(IOException::class)
+    fun isParallelExtractionSupported(): Boolean =
+        synchronized(lock) {
+            ensureEntriesLocked(rootDirectory)
+            isParallelExtractionSupportedLocked()
+        }
+
+    @Throws(IOException::class)
+    private fun isParallelExtractionSupportedLocked(): Boolean =
+        isParallelExtractionSupported ?: try {
+            ArchiveReader.isParallelExtractionSupported(archiveFile, passwords)
+        } catch (e: ArchiveException) {
+            e.printStackTrace()
+            false
+        }.also { isParallelExtractionSupported = it }
+
+    private fun getSolidArchiveReaderLocked(): SolidArchiveReader =
+        solidArchiveReader ?: SolidArchiveReader(archiveFile, passwords, cacheDirectory)
+            .also { solidArchiveReader = it }
+
+    private fun closeSolidArchiveReaderLocked() {
+        solidArchiveReader?.close()
+        solidArchiveReader = null
+    }
+
+    @Throws(IOException::class)
+    fun extractInParallel(
+        files: Map<Path, Path>,
+        threadCount: Int,
+        intervalMillis: Long,
+        progressListener: (Long) -> Unit,
+        fileListener: (Path) -> Unit
+    ): Map<Path, IOException> {
+        val passwords: List<String>
+        val entryFiles = mutableMapOf<String, Path>()
+        val targets = mutableMapOf<String, Path>()
+        synchronized(lock) {
+            ensureEntriesLocked(rootDirectory)
+            passwords = this.passwords
+            for ((file, target) in files) {
+                val entry = getEntryLocked(file)
+                entryFiles[entry.name] = file
+                targets[entry.name] = target
+            }
+        }
+        // Don't hold the lock during the extraction, which only needs its own archive handles.
+        val failures = try {
+            ArchiveReader.extractInParallel(
+                archiveFile, passwords, targets, threadCount, intervalMillis, progressListener
+            ) { fileListener(entryFiles[it]!!) }
+        } catch (e: ArchiveException) {
+            throw e.toFileSystemOrInterruptedIOException(rootDirectory)
         }
+        return failures.entries.associate { (name, exception) ->
+            val file = entryFiles[name]!!
+            file to if (exception is ArchiveException) {
+                exception.toFileSystemOrInterruptedIOException(file)
+            } else {
+                exception
+            }
+        }
+    }
 
     @Throws(IOException::class)
     fun getDirectoryChildren(directory: Path): List<Path> =
@@ -116,6 +261,7 @@ internal class ArchiveFileSystem(
                 throw ClosedFileSystemException()
             }
             passwords += password
+            closeSolidArchiveReaderLocked()
         }
     }
 
@@ -125,6 +271,7 @@ internal class ArchiveFileSystem(
                 throw ClosedFileSystemException()
             }
             this.passwords = passwords
+            closeSolidArchiveReaderLocked()
         }
     }
 
@@ -150,6 +297,10 @@ internal class ArchiveFileSystem(
             }
             entries = entriesAndTree.first
             tree = entriesAndTree.second
+            isParallelExtractionSupported = null
+            zipStoredEntryIndex = null
+            isZipStoredEntryIndexRead = false
+            closeSolidArchiveReaderLocked()
             isRefreshNeeded = false
         }
     }
@@ -165,6 +316,10 @@ internal class ArchiveFileSystem(
             isRefreshNeeded = false
             entries = null
             tree = null
+            isParallelExtractionSupported = null
+            zipStoredEntryIndex = null
+            isZipStoredEntryIndexRead = false
+            closeSolidArchiveReaderLocked()
             isOpen = false
         }
     }
@@ -237,6 +392,17 @@ internal class ArchiveFileSystem(
         private val SEPARATOR_BYTE_STRING = SEPARATOR.toByteString()
         private const val SEPARATOR_STRING = SEPARATOR.toInt().toChar().toString()
 
+        private val CACHE_DIRECTORY: File
+            get() = File(application.cacheDir, "archive_cache")
+
+        /*
+         * Spill files are deleted when their channel or reader is closed, but can be left behind if
+         * the process dies before that.
+         */
+        fun deleteStaleCacheFiles() {
+            CACHE_DIRECTORY.listFiles()?.forEach { it.delete() }
+        }
+
         @JvmField
         val CREATOR = object : Parcelable.Creator<ArchiveFileSystem> {
             override fun createFromParcel(source: Parcel): ArchiveFileSystem {
@@ -113,6 +113,7 @@ object ArchiveFileSystemProvider : FileSystemProvider(), PathObservableProvider,
         throw UnsupportedOperationException()
     }
 
+    @Throws(IOException::class)
     override fun newByteChannel(
         file: Path,
         options: Set<OpenOption>,
@@ -123,7 +124,7 @@ object ArchiveFileSystemProvider : FileSystemProvider(), PathObservableProvider,
         if (attributes.isNotEmpty()) {
             throw UnsupportedOperationException(attributes.contentToString())
         }
-        throw UnsupportedOperationException()
+        return file.fileSystem.newByteChannel(file)
     }
 
     @Throws(IOException::class)
@@ -7,6 +7,7 @@ package com.dismal.files.provider.archive
 
 import java8.nio.file.Path
 import java8.nio.file.ProviderMismatchException
+import java.io.IOException
 
 fun Path.archiveAddPassword(password: String) {
     this as? ArchivePath ?: throw ProviderMismatchException(toString())
@@ -29,5 +30,29 @@ fun Path.archiveRefresh() {
     fileSystem.refresh()
 }
 
+@Throws(IOException::class)
+fun Path.archiveIsParallelExtractionSupported(): Boolean {
+    this as? ArchivePath ?: throw ProviderMismatchException(toString())
+    return fileSystem.isParallelExtractionSupported()
+}
+
+/**
+ * @param files map of regular files in this archive to their extraction targets
+ * @return the files that failed to be extracted
+ */
+@Throws(IOException::class)
+fun Path.archiveExtractInParallel(
+    files: Map<Path, Path>,
+    threadCount: Int,
+    intervalMillis: Long,
+    progressListener: (Long) -> Unit,
+    fileListener: (Path) -> Unit
+): Map<Path, IOException> {
+    this as? ArchivePath ?: throw ProviderMismatchException(toString())
+    return fileSystem.extractInParallel(
+        files, threadCount, intervalMillis, progressListener, fileListener
+    )
+}
+
 fun Path.createArchiveRootPath(): Path =
     ArchiveFileSystemProvider.getOrNewFileSystem(this).rootDirectory
@@ -9,25 +9,42 @@ import androidx.preference.PreferenceManager
 import java8.nio.channels.SeekableByteChannel
 import java8.nio.charset.StandardCharsets
 import java8.nio.file.Path
+import java8.nio.file.StandardOpenOption
+import java8.nio.file.attribute.BasicFileAttributeView
+import java8.nio.file.attribute.FileTime
 import com.dismal.files.R
 import com.dismal.files.provider.common.DelegateForceableSeekableByteChannel
 import com.dismal.files.provider.common.DelegateInputStream
 import com.dismal.files.provider.common.DelegateNonForceableSeekableByteChannel
+import com.dismal.files.provider.common.EPOCH
 import com.dismal.files.provider.common.ForceableChannel
 import com.dismal.files.provider.common.PosixFileMode
 import com.dismal.files.provider.common.PosixFileType
+import com.dismal.files.provider.common.copyTo
+import com.dismal.files.provider.common.deleteIfExists
+import com.dismal.files.provider.common.getFileAttributeView
 import com.dismal.files.provider.common.newByteChannel
 import com.dismal.files.provider.common.newInputStream
+import com.dismal.files.provider.common.newOutputStream
 import com.dismal.files.provider.root.isRunningAsRoot
 import com.dismal.files.provider.root.rootContext
 import com.dismal.files.settings.Settings
 import com.dismal.files.util.valueCompat
+import me.zhanghai.android.libarchive.Archive
 import java.io.Closeable
 import java.io.IOException
 import java.io.InputStream
+import java.io.InterruptedIOException
 import java.nio.charset.Charset
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
 object ArchiveReader {
+    // Each worker holds its own channel, libarchive handle and decompressor state, so this also
+    // bounds the memory used by a parallel extraction.
+    private const val MAX_PARALLEL_EXTRACTION_THREAD_COUNT = 8
+
     @Throws(IOException::class)
     fun readEntries(
         file: Path,
@@ -84,7 +101,7 @@ object ArchiveReader {
         require(!name.endsWith("/")) { "name $name should not end with a slash" }
         return ReadArchive.Entry(
             name, false, null, null, null, PosixFileType.DIRECTORY, 0, null, null,
-            PosixFileMode.DIRECTORY_DEFAULT, null
+            PosixFileMode.DIRECTORY_DEFAULT, null, -1
         )
     }
 
@@ -127,11 +144,223 @@ object ArchiveReader {
         }
     }
 
+    /*
+     * Entries in a ZIP archive are compressed independently and located through the central
+     * directory, so multiple handles over the same file can each seek to and decompress a disjoint
+     * set of entries. Other formats (notably solid 7Z and compressed TAR) have to be decompressed
+     * from the start, and a non-seekable source can't be shared either.
+     */
     @Throws(IOException::class)
-    private fun openArchive(
+    fun isParallelExtractionSupported(file: Path, passwords: List<String>): Boolean {
+        val charset = archiveFileNameCharset
+        val (archive, closeable) = openArchive(file, passwords, true) ?: return false
+        return closeable.use {
+            // The format is only known after the first header has been read.
+            archive.readEntry(charset) != null &&
+                archive.format and Archive.FORMAT_BASE_MASK == Archive.FORMAT_ZIP
+        }
+    }
+
+    /**
+     * Extract regular file entries to their targets with multiple independent archive handles.
+     *
+     * Entries are split into contiguous runs in header order, which for a seekable ZIP is the
+     * order of their local headers in the file, and the runs are balanced by uncompressed size.
+     *
+     * [progressListener] and [entryListener] may be called concurrently from worker threads. The
+     * progress of an entry that fails is withdrawn with a negative size, since it is retried.
+     *
+     * @return the entries that failed to be extracted, which should be retried serially.
+     */
+    @Throws(IOException::class)
+    fun extractInParallel(
+        file: Path,
+        passwords: List<String>,
+        targets: Map<String, Path>,
+        threadCount: Int,
+        intervalMillis: Long,
+        progressListener: (Long) -> Unit,
+        entryListener: (String) -> Unit
+    ): Map<String, IOException> {
+        val charset = archiveFileNameCharset
+        val entries = mutableListOf<ReadArchive.Entry>()
+        val (archive, closeable) = openArchive(file, passwords, true)
+            ?: throw IOException("Cannot open $file as a seekable archive")
+        closeable.use {
+            val remainingNames = targets.keys.toMutableSet()
+            while (remainingNames.isNotEmpty()) {
+                val entry = archive.readEntry(charset) ?: break
+                if (entry.type == PosixFileType.REGULAR_FILE && remainingNames.remove(entry.name)) {
+                    entries += entry
+                }
+            }
+        }
+        val runs = entries.chunkedBySize(
+            threadCount.coerceIn(1, MAX_PARALLEL_EXTRACTION_THREAD_COUNT)
+        )
+        val executorService = Executors.newFixedThreadPool(runs.size.coerceAtLeast(1))
+        try {
+            val futures = runs.map { run ->
+                executorService.submit(Callable {
+                    extractEntries(
+                        file, passwords, charset, run, targets, intervalMillis, progressListener,
+                        entryListener
+                    )
+                })
+            }
+            val failures = mutableMapOf<String, IOException>()
+            for (future in futures) {
+                try {
+                    failures += future.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause!!
+                }
+            }
+            return failures
+        } catch (e: InterruptedException) {
+            throw InterruptedIOException().apply { initCause(e) }
+        } finally {
+            executorService.shutdownNow()
+        }
+    }
+
+    private fun List<ReadArchive.Entry>.chunkedBySize(count: Int): List<List<ReadArchive.Entry>> {
+        val totalSize = sumOf { it.size.coerceAtLeast(1) }
+        val sizePerRun = (totalSize + count - 1) / count
+        val runs = mutableListOf<List<ReadArchive.Entry>>()
+        var run = mutableListOf<ReadArchive.Entry>()
+        var runSize = 0L
+        for (entry in this) {
+            run += entry
+            runSize += entry.size.coerceAtLeast(1)
+            if (runSize >= sizePerRun && runs.size < count - 1) {
+                runs += run
+                run = mutableListOf()
+                runSize = 0
+            }
+        }
+        if (run.isNotEmpty()) {
+            runs += run
+        }
+        return runs
+    }
+
+    @Throws(IOException::class)
+    private fun extractEntries(
+        file: Path,
+        passwords: List<String>,
+        charset: Charset,
+        entries: List<ReadArchive.Entry>,
+        targets: Map<String, Path>,
+        intervalMillis: Long,
+        progressListener: (Long) -> Unit,
+        entryListener: (String) -> Unit
+    ): Map<String, IOException> {
+        val failures = mutableMapOf<String, IOException>()
+        val remainingNames = entries.mapTo(mutableSetOf()) { it.name }
+        try {
+            val (archive, closeable) = openArchive(file, passwords, true)
+                ?: throw IOException("Cannot open $file as a seekable archive")
+            closeable.use {
+                while (remainingNames.isNotEmpty()) {
+                    val entry = archive.readEntry(charset) ?: break
+                    if (entry.type != PosixFileType.REGULAR_FILE
+                        || !remainingNames.remove(entry.name)) {
+                        continue
+                    }
+                    try {
+                        extractEntry(
+                            archive, entry, targets[entry.name]!!, intervalMillis,
+                            progressListener
+                        )
+                        entryListener(entry.name)
+                    } catch (e: InterruptedIOException) {
+                        throw e
+                    } catch (e: IOException) {
+                        e.printStackTrace()
+                        failures[entry.name] = e
+                        // Subsequent headers can't be trusted after a failure in the data.
+                        break
+                    }
+                }
+            }
+        } catch (e: InterruptedIOException) {
+            throw e
+        } catch (e: IOException) {
+            e.printStackTrace()
+            for (name in remainingNames) {
+                failures[name] = e
+            }
+            remainingNames.clear()
+        }
+        for (name in remainingNames) {
+            failures[name] = IOException("Entry $name not found in $file")
+        }
+        return failures
+    }
+
+    @Throws(IOException::class)
+    private fun extractEntry(
+        archive: ReadArchive,
+        entry: ReadArchive.Entry,
+        target: Path,
+        intervalMillis: Long,
+        progressListener: (Long) -> Unit
+    ) {
+        val outputStream = target.newOutputStream(
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE
+        )
+        var successful = false
+        var extractedSize = 0L
+        try {
+            archive.newDataInputStream().copyTo(outputStream, intervalMillis) {
+                extractedSize += it
+                progressListener(it)
+            }
+            successful = true
+        } finally {
+            try {
+                outputStream.close()
+            } finally {
+                if (!successful) {
+                    if (extractedSize != 0L) {
+                        progressListener(-extractedSize)
+                    }
+                    try {
+                        target.deleteIfExists()
+                    } catch (e: IOException) {
+                        e.printStackTrace()
+                    }
+                }
+            }
+        }
+        // Like ForeignCopyMove, errors when copying attributes are not fatal.
+        val lastModifiedTime = entry.lastModifiedTime?.takeIf { it != FileTime::class.EPOCH }
+        if (lastModifiedTime != null) {
+            try {
+                target.getFileAttributeView(BasicFileAttributeView::class.java)!!
+                    .setTimes(lastModifiedTime, null, null)
+            } catch (e: IOException) {
+                e.printStackTrace()
+            } catch (e: UnsupportedOperationException) {
+                e.printStackTrace()
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    internal fun openArchive(
         file: Path,
         passwords: List<String>
-    ): Pair<ReadArchive, ArchiveCloseable> {
+    ): Pair<ReadArchive, Closeable> =
+        openArchive(file, passwords, false)!!
+
+    @Throws(IOException::class)
+    private fun openArchive(
+        file: Path,
+        passwords: List<String>,
+        requireSeekable: Boolean
+    ): Pair<ReadArchive, ArchiveCloseable>? {
         val channel = try {
             CacheSizeSeekableByteChannel(file.newByteChannel())
         } catch (e: Exception) {
@@ -150,6 +379,9 @@ object ArchiveReader {
                 }
             }
         }
+        if (requireSeekable) {
+            return null
+        }
         val inputStream = file.newInputStream()
         var successful = false
         try {
@@ -187,7 +419,7 @@ object ArchiveReader {
         override fun size(): Long = size
     }
 
-    private val archiveFileNameCharset: Charset
+    internal val archiveFileNameCharset: Charset
         get() =
             if (isRunningAsRoot) {
                 try {
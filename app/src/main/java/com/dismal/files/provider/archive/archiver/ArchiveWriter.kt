@@ -9,25 +9,44 @@ import java8.nio.channels.SeekableByteChannel
 import java8.nio.file.LinkOption
 import java8.nio.file.Path
 import java8.nio.file.attribute.BasicFileAttributes
+import java8.nio.file.attribute.FileTime
 import com.dismal.files.provider.common.PosixFileAttributes
 import com.dismal.files.provider.common.PosixFileMode
+import com.dismal.files.provider.common.PosixFileModeBit
 import com.dismal.files.provider.common.PosixFileType
+import com.dismal.files.provider.common.PosixGroup
+import com.dismal.files.provider.common.PosixUser
 import com.dismal.files.provider.common.copyTo
 import com.dismal.files.provider.common.getLastModifiedTime
 import com.dismal.files.provider.common.newInputStream
 import com.dismal.files.provider.common.readAttributes
+import com.dismal.files.provider.common.readFully
 import com.dismal.files.provider.common.readSymbolicLinkByteString
 import com.dismal.files.provider.common.size
+import me.zhanghai.android.libarchive.Archive
 import java.io.Closeable
 import java.io.IOException
 
 class ArchiveWriter @Throws(IOException::class) constructor(
     channel: SeekableByteChannel,
-    format: Int,
+    private val format: Int,
     filter: Int,
-    password: String?
+    password: String?,
+    threadCount: Int,
+    private val compressionPolicy: CompressionPolicy = CompressionPolicy()
 ) : Closeable {
-    private val archive = WriteArchive(channel, format, filter, password)
+    private val archive =
+        WriteArchive(channel, format, filter, password, threadCount, compressionPolicy.level)
+
+    private val sample = ByteArray(CompressionPolicy.SAMPLE_SIZE)
+
+    // Lowered from the requested level while compression is slower than the policy allows, and
+    // Int.MIN_VALUE when entries should be stored regardless.
+    private var currentLevel = compressionPolicy.level
+
+    // While entries are stored regardless, one in every few is still compressed at the lowest
+    // level, so that compression can resume once it's fast enough again.
+    private var storedEntryCount = 0
 
     @Throws(IOException::class)
     fun write(file: Path, entryName: Path, intervalMillis: Long, listener: ((Long) -> Unit)?) {
@@ -58,16 +77,88 @@ class ArchiveWriter @Throws(IOException::class) constructor(
         } else {
             null
         }
+        if (type != PosixFileType.REGULAR_FILE) {
+            writeEntry(
+                name, lastModifiedTime, lastAccessTime, creationTime, type, size, owner, group,
+                mode, symbolicLinkTarget
+            )
+            listener?.invoke(attributes.size())
+            return
+        }
+        file.newInputStream(LinkOption.NOFOLLOW_LINKS).use { inputStream ->
+            val sampleLength = inputStream.readFully(sample, 0, sample.size)
+            var level = currentLevel
+            val isCompressed = if (format == Archive.FORMAT_ZIP) {
+                if (level == Int.MIN_VALUE
+                    && ++storedEntryCount % PROBE_INTERVAL_ENTRY_COUNT == 0) {
+                    level = 1
+                }
+                val store = level == Int.MIN_VALUE
+                    || compressionPolicy.isIncompressible(name, sample, sampleLength)
+                archive.setZipCompression(store, level)
+                !store
+            } else {
+                true
+            }
+            writeEntry(
+                name, lastModifiedTime, lastAccessTime, creationTime, type, size, owner, group,
+                mode, symbolicLinkTarget
+            )
+            // Only the time spent in compression counts, instead of that in reading the file or
+            // writing the archive, which may be on a slow network.
+            val startNanos = archive.compressionNanos
+            val outputStream = archive.newDataOutputStream()
+            outputStream.write(sample, 0, sampleLength)
+            listener?.invoke(sampleLength.toLong())
+            inputStream.copyTo(outputStream, intervalMillis, listener)
+            if (isCompressed) {
+                updateCurrentLevel(level, size, archive.compressionNanos - startNanos)
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun writeEntry(
+        name: String,
+        lastModifiedTime: FileTime?,
+        lastAccessTime: FileTime?,
+        creationTime: FileTime?,
+        type: PosixFileType,
+        size: Long,
+        owner: PosixUser?,
+        group: PosixGroup?,
+        mode: Set<PosixFileModeBit>,
+        symbolicLinkTarget: String?
+    ) {
         archive.Entry(
             name, lastModifiedTime, lastAccessTime, creationTime, type, size, owner, group, mode,
             symbolicLinkTarget
         ).use { archive.writeEntry(it) }
-        if (type == PosixFileType.REGULAR_FILE) {
-            file.newInputStream(LinkOption.NOFOLLOW_LINKS).use { inputStream ->
-                inputStream.copyTo(archive.newDataOutputStream(), intervalMillis, listener)
-            }
+    }
+
+    private fun updateCurrentLevel(usedLevel: Int, size: Long, nanos: Long) {
+        val maxNanosPerByte = compressionPolicy.maxNanosPerByte
+        if (format != Archive.FORMAT_ZIP || maxNanosPerByte <= 0
+            || size < CompressionPolicy.SAMPLE_SIZE) {
+            return
+        }
+        val nanosPerByte = nanos / size
+        val level = if (usedLevel == CompressionPolicy.DEFAULT_LEVEL) {
+            DEFAULT_DEFLATE_LEVEL
         } else {
-            listener?.invoke(attributes.size())
+            usedLevel
+        }
+        val requestedLevel = if (compressionPolicy.level == CompressionPolicy.DEFAULT_LEVEL) {
+            DEFAULT_DEFLATE_LEVEL
+        } else {
+            compressionPolicy.level
+        }
+        currentLevel = if (nanosPerByte > maxNanosPerByte) {
+            if (level > 1) (level - 2).coerceAtLeast(1) else Int.MIN_VALUE
+        } else if (nanosPerByte < maxNanosPerByte / 2 && level < requestedLevel) {
+            (level + 1).coerceAtMost(requestedLevel)
+        } else {
+            usedLevel
         }
     }
 
@@ -75,4 +166,10 @@ class ArchiveWriter @Throws(IOException::class) constructor(
     override fun close() {
         archive.close()
     }
+
+    companion object {
+        private const val DEFAULT_DEFLATE_LEVEL = 6
+
+        private const val PROBE_INTERVAL_ENTRY_COUNT = 16
+    }
 }
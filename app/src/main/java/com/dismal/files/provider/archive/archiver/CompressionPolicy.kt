@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.archive.archiver
+
+import com.dismal.files.file.MimeType
+import com.dismal.files.file.asMimeType
+import com.dismal.files.file.guessFromPath
+import com.dismal.files.file.isSupportedArchive
+import kotlin.math.ln
+
+/**
+ * How entries are compressed when creating an archive.
+ *
+ * Only formats that compress entries independently (i.e. ZIP) can vary the method per entry; a
+ * filter like xz or the solid 7Z compression always applies to the whole archive.
+ *
+ * @param level the compression level for compressible entries and for the gzip filter, or
+ * [DEFAULT_LEVEL]
+ * @param maxNanosPerByte when positive, the level is lowered, down to storing entries, while
+ * compression is slower than this
+ */
+class CompressionPolicy(
+    val level: Int = DEFAULT_LEVEL,
+    val maxNanosPerByte: Long = 0
+) {
+    internal fun isIncompressible(
+        entryName: String,
+        sample: ByteArray,
+        sampleLength: Int
+    ): Boolean {
+        val mimeType = MimeType.guessFromPath(entryName)
+        if (mimeType.type == "text") {
+            return false
+        }
+        if (mimeType in incompressibleMimeTypes || mimeType.isSupportedArchive) {
+            return true
+        }
+        return sampleLength >= MIN_ENTROPY_SAMPLE_SIZE
+            && getEntropyBitsPerByte(sample, sampleLength) >= INCOMPRESSIBLE_ENTROPY_BITS_PER_BYTE
+    }
+
+    private fun getEntropyBitsPerByte(sample: ByteArray, sampleLength: Int): Double {
+        val counts = IntArray(256)
+        for (index in 0..<sampleLength) {
+            ++counts[sample[index].toInt() and 0xFF]
+        }
+        var entropy = 0.0
+        for (count in counts) {
+            if (count == 0) {
+                continue
+            }
+            val probability = count.toDouble() / sampleLength
+            entropy -= probability * ln(probability)
+        }
+        return entropy / ln(2.0)
+    }
+
+    companion object {
+        const val DEFAULT_LEVEL = -1
+
+        internal const val SAMPLE_SIZE = 64 * 1024
+
+        private const val MIN_ENTROPY_SAMPLE_SIZE = 512
+
+        // Deflate can't do much better than this on already compressed or encrypted data.
+        private const val INCOMPRESSIBLE_ENTROPY_BITS_PER_BYTE = 7.5
+
+        private val incompressibleMimeTypes = listOf(
+            "application/epub+zip",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "audio/aac",
+            "audio/flac",
+            "audio/mp4",
+            "audio/mpeg",
+            "audio/ogg",
+            "audio/opus",
+            "audio/webm",
+            "image/avif",
+            "image/gif",
+            "image/heic",
+            "image/heif",
+            "image/jpeg",
+            "image/png",
+            "image/webp",
+            "video/3gpp",
+            "video/mp4",
+            "video/mpeg",
+            "video/quicktime",
+            "video/webm",
+            "video/x-matroska"
+        ).map { it.asMimeType() }.toSet()
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.archive.archiver
+
+import java8.nio.channels.SeekableByteChannel
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.nio.ByteBuffer
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+
+/**
+ * Compresses data into a sequence of independent gzip members like pigz, so that blocks can be
+ * compressed in parallel. A concatenation of gzip members is itself a valid gzip stream.
+ *
+ * At most `threadCount * 2` blocks are kept in flight, which bounds the memory used.
+ */
+internal class ParallelGzipWriter(
+    private val channel: SeekableByteChannel,
+    threadCount: Int,
+    // Deflater.DEFAULT_COMPRESSION is the same as CompressionPolicy.DEFAULT_LEVEL.
+    private val level: Int
+) : Closeable {
+    private val executorService = Executors.newFixedThreadPool(threadCount)
+
+    private val maxPendingBlockCount = threadCount * 2
+
+    private val pendingBlocks = ArrayDeque<Future<ByteBuffer>>()
+
+    private var block = ByteArray(BLOCK_SIZE)
+
+    private var blockLength = 0
+
+    private var hasSubmittedBlock = false
+
+    private var isClosed = false
+
+    @Throws(IOException::class)
+    fun write(buffer: ByteBuffer): Int {
+        val length = buffer.remaining()
+        while (buffer.hasRemaining()) {
+            val count = buffer.remaining().coerceAtMost(BLOCK_SIZE - blockLength)
+            buffer.get(block, blockLength, count)
+            blockLength += count
+            if (blockLength == BLOCK_SIZE) {
+                submitBlock()
+            }
+        }
+        return length
+    }
+
+    @Throws(IOException::class)
+    private fun submitBlock() {
+        val block = block
+        val blockLength = blockLength
+        this.block = ByteArray(BLOCK_SIZE)
+        this.blockLength = 0
+        pendingBlocks.addLast(executorService.submit(Callable { compress(block, blockLength) }))
+        hasSubmittedBlock = true
+        while (pendingBlocks.size >= maxPendingBlockCount) {
+            writeBlock(pendingBlocks.removeFirst())
+        }
+    }
+
+    private fun compress(block: ByteArray, length: Int): ByteBuffer {
+        val outputStream = ByteArrayOutputStream(length / 2 + GZIP_HEADER.size + GZIP_TRAILER_SIZE)
+        outputStream.write(GZIP_HEADER)
+        val deflater = Deflater(level, true)
+        try {
+            deflater.setInput(block, 0, length)
+            deflater.finish()
+            val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+            while (!deflater.finished()) {
+                val deflatedLength = deflater.deflate(buffer)
+                outputStream.write(buffer, 0, deflatedLength)
+            }
+        } finally {
+            deflater.end()
+        }
+        val crc32 = CRC32().apply { update(block, 0, length) }.value.toInt()
+        outputStream.writeIntLittleEndian(crc32)
+        outputStream.writeIntLittleEndian(length)
+        return ByteBuffer.wrap(outputStream.toByteArray())
+    }
+
+    private fun ByteArrayOutputStream.writeIntLittleEndian(value: Int) {
+        write(value)
+        write(value ushr 8)
+        write(value ushr 16)
+        write(value ushr 24)
+    }
+
+    @Throws(IOException::class)
+    private fun writeBlock(future: Future<ByteBuffer>) {
+        val buffer = try {
+            future.get()
+        } catch (e: InterruptedException) {
+            throw InterruptedIOException().apply { initCause(e) }
+        } catch (e: ExecutionException) {
+            throw IOException(e.cause)
+        }
+        while (buffer.hasRemaining()) {
+            channel.write(buffer)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        if (isClosed) {
+            return
+        }
+        isClosed = true
+        try {
+            // An empty input still needs one (empty) member to be a valid gzip stream.
+            if (blockLength > 0 || !hasSubmittedBlock) {
+                submitBlock()
+            }
+            while (pendingBlocks.isNotEmpty()) {
+                writeBlock(pendingBlocks.removeFirst())
+            }
+        } finally {
+            executorService.shutdownNow()
+        }
+    }
+
+    companion object {
+        private const val BLOCK_SIZE = 1024 * 1024
+
+        // ID1, ID2, CM = deflate, FLG = 0, MTIME = 0, XFL = 0, OS = unknown
+        private val GZIP_HEADER =
+            byteArrayOf(0x1f, 0x8b.toByte(), 8, 0, 0, 0, 0, 0, 0, 0xff.toByte())
+
+        private const val GZIP_TRAILER_SIZE = 8
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.archive.archiver
+
+import java8.nio.channels.SeekableByteChannel
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.NonWritableChannelException
+
+/**
+ * A read-only view of the range [offset, offset + size) in [channel], which is owned by this
+ * channel.
+ */
+internal class RangeSeekableByteChannel(
+    private val channel: SeekableByteChannel,
+    private val offset: Long,
+    private val size: Long
+) : SeekableByteChannel {
+    private var position = 0L
+
+    @Throws(IOException::class)
+    override fun read(dst: ByteBuffer): Int {
+        val remaining = size - position
+        if (remaining <= 0) {
+            return -1
+        }
+        val oldLimit = dst.limit()
+        if (dst.remaining() > remaining) {
+            dst.limit(dst.position() + remaining.toInt())
+        }
+        try {
+            channel.position(offset + position)
+            val readSize = channel.read(dst)
+            if (readSize > 0) {
+                position += readSize
+            }
+            return readSize
+        } finally {
+            dst.limit(oldLimit)
+        }
+    }
+
+    override fun write(src: ByteBuffer): Int {
+        throw NonWritableChannelException()
+    }
+
+    override fun position(): Long = position
+
+    override fun position(newPosition: Long): SeekableByteChannel {
+        require(newPosition >= 0)
+        position = newPosition
+        return this
+    }
+
+    override fun size(): Long = size
+
+    override fun truncate(size: Long): SeekableByteChannel {
+        throw NonWritableChannelException()
+    }
+
+    override fun isOpen(): Boolean = channel.isOpen
+
+    @Throws(IOException::class)
+    override fun close() {
+        channel.close()
+    }
+}
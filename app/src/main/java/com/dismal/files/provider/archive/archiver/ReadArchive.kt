@@ -29,6 +29,8 @@ import java.nio.charset.Charset
 class ReadArchive : Closeable {
     private val archive = Archive.readNew()
 
+    private var entryCount = 0
+
     @Throws(ArchiveException::class)
     constructor(inputStream: InputStream, passwords: List<String>) {
         var successful = false
@@ -138,6 +140,30 @@ class ReadArchive : Closeable {
             else -> ArchiveException(Archive.ERRNO_FATAL, message, this)
         }
 
+    // Only valid after the first header has been read.
+    val format: Int
+        @Throws(ArchiveException::class)
+        get() = Archive.format(archive)
+
+    /**
+     * Whether the data of an entry has to be decompressed even to skip past it, i.e. the archive
+     * is compressed as a whole, or it's a 7Z or RAR that may be solid. libarchive doesn't tell
+     * whether a 7Z or RAR is actually solid, but archivers create them solid by default.
+     *
+     * Only valid after the first header has been read.
+     */
+    val isSolid: Boolean
+        @Throws(ArchiveException::class)
+        get() {
+            val isCompressedAsWhole = (0 until Archive.filterCount(archive)).any {
+                Archive.filterCode(archive, it) != Archive.FILTER_NONE
+            }
+            return isCompressedAsWhole || when (format and Archive.FORMAT_BASE_MASK) {
+                Archive.FORMAT_7ZIP, Archive.FORMAT_RAR, Archive.FORMAT_RAR_V5 -> true
+                else -> false
+            }
+        }
+
     @Throws(ArchiveException::class)
     fun readEntry(charset: Charset): Entry? {
         val entry = Archive.readNextHeader(archive)
@@ -192,7 +218,7 @@ class ReadArchive : Closeable {
             getEntryString(ArchiveEntry.symlinkUtf8(entry), ArchiveEntry.symlink(entry), charset)
         return Entry(
             name, isEncrypted, lastModifiedTime, lastAccessTime, creationTime, type, size, owner,
-            group, mode, symbolicLinkTarget
+            group, mode, symbolicLinkTarget, entryCount++
         )
     }
 
@@ -218,7 +244,9 @@ class ReadArchive : Closeable {
         val owner: PosixUser?,
         val group: PosixGroup?,
         val mode: Set<PosixFileModeBit>,
-        val symbolicLinkTarget: String?
+        val symbolicLinkTarget: String?,
+        // The index of this entry in header order, or -1 if it's not in the archive.
+        val index: Int
     ) {
         val isDirectory: Boolean
             get() = type == PosixFileType.DIRECTORY
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.archive.archiver
+
+import android.util.LruCache
+import java8.nio.file.Path
+import com.dismal.files.provider.common.PosixFileType
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.RandomAccessFile
+
+/**
+ * Reads entries from archives that can only be decompressed sequentially, e.g. solid 7Z or
+ * compressed TAR, without decompressing from the start of the archive for every entry.
+ *
+ * Decoders are kept after their stream is closed, and reused for any entry further in the
+ * archive. The data of small entries passed on the way is kept in a bounded cache in memory,
+ * which spills to a file in [cacheDirectory] if available.
+ *
+ * This class is thread safe and doesn't need an external lock. Streams opened before [close] keep
+ * working, but no longer return their decoders or add to the cache.
+ */
+internal class SolidArchiveReader(
+    private val file: Path,
+    private val passwords: List<String>,
+    cacheDirectory: File?
+) : Closeable {
+    private val lock = Any()
+
+    private val idleDecoders = mutableListOf<Decoder>()
+
+    private val cache = DecompressedDataCache(cacheDirectory)
+
+    private var isClosed = false
+
+    @Throws(IOException::class)
+    fun newInputStream(entry: ReadArchive.Entry): InputStream? {
+        cache[entry.index]?.let { return it }
+        val decoder = takeDecoder(entry.index)
+        var successful = false
+        try {
+            while (true) {
+                val currentEntry = decoder.readEntry() ?: break
+                if (currentEntry.index == entry.index) {
+                    successful = true
+                    return EntryInputStream(decoder, currentEntry)
+                }
+                cacheEntryData(decoder, currentEntry)
+            }
+            return null
+        } finally {
+            if (!successful) {
+                decoder.close()
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun takeDecoder(index: Int): Decoder {
+        synchronized(lock) {
+            val decoder = idleDecoders.filter { it.nextIndex <= index }.maxByOrNull { it.nextIndex }
+            if (decoder != null) {
+                idleDecoders -= decoder
+                return decoder
+            }
+        }
+        val (archive, closeable) = ArchiveReader.openArchive(file, passwords)
+        return Decoder(archive, closeable)
+    }
+
+    private fun returnDecoder(decoder: Decoder) {
+        synchronized(lock) {
+            if (!isClosed) {
+                idleDecoders += decoder
+                if (idleDecoders.size <= MAX_IDLE_DECODER_COUNT) {
+                    return
+                }
+            }
+        }
+        // Keep the decoders that are the furthest in the archive.
+        val decoderToClose = synchronized(lock) {
+            if (isClosed) {
+                decoder
+            } else {
+                idleDecoders.minBy { it.nextIndex }.also { idleDecoders -= it }
+            }
+        }
+        try {
+            decoderToClose.close()
+        } catch (e: IOException) {
+            e.printStackTrace()
+        }
+    }
+
+    // Skipping the data of a solid archive would decompress it anyway, so caching it only costs a
+    // copy. Otherwise libarchive can skip it cheaply, e.g. for an uncompressed TAR.
+    @Throws(IOException::class)
+    private fun cacheEntryData(decoder: Decoder, entry: ReadArchive.Entry) {
+        if (!decoder.isSolid || entry.type != PosixFileType.REGULAR_FILE
+            || !cache.isCacheable(entry.size) || cache.contains(entry.index)) {
+            return
+        }
+        cache.put(entry.index, decoder.archive.newDataInputStream().readBytes())
+    }
+
+    override fun close() {
+        val decoders = synchronized(lock) {
+            if (isClosed) {
+                return
+            }
+            isClosed = true
+            idleDecoders.toList().also { idleDecoders.clear() }
+        }
+        for (decoder in decoders) {
+            try {
+                decoder.close()
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+        }
+        cache.close()
+    }
+
+    private class Decoder(val archive: ReadArchive, private val closeable: Closeable) : Closeable {
+        private val charset = ArchiveReader.archiveFileNameCharset
+
+        // The index of the next header to be read.
+        var nextIndex = 0
+            private set
+
+        // Only read after an entry has been read, as required by ReadArchive.isSolid.
+        val isSolid: Boolean by lazy { archive.isSolid }
+
+        @Throws(IOException::class)
+        fun readEntry(): ReadArchive.Entry? =
+            archive.readEntry(charset)?.also { nextIndex = it.index + 1 }
+
+        @Throws(IOException::class)
+        override fun close() {
+            closeable.close()
+        }
+    }
+
+    private inner class EntryInputStream(
+        private val decoder: Decoder,
+        private val entry: ReadArchive.Entry
+    ) : InputStream() {
+        private val inputStream = decoder.archive.newDataInputStream()
+
+        // Grown as data is read, since the caller may only read the beginning of the entry.
+        private val cacheOutputStream = if (cache.isCacheable(entry.size)) {
+            ByteArrayOutputStream()
+        } else {
+            null
+        }
+
+        private var isEndOfStream = false
+
+        private var hasFailed = false
+
+        private var isClosed = false
+
+        @Throws(IOException::class)
+        override fun read(): Int {
+            val b = failOnException { inputStream.read() }
+            if (b != -1) {
+                cacheOutputStream?.write(b)
+            } else {
+                isEndOfStream = true
+            }
+            return b
+        }
+
+        @Throws(IOException::class)
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            val size = failOnException { inputStream.read(b, off, len) }
+            if (size != -1) {
+                cacheOutputStream?.write(b, off, size)
+            } else {
+                isEndOfStream = true
+            }
+            return size
+        }
+
+        private inline fun <T> failOnException(block: () -> T): T {
+            try {
+                return block()
+            } catch (t: Throwable) {
+                hasFailed = true
+                throw t
+            }
+        }
+
+        @Throws(IOException::class)
+        override fun close() {
+            if (isClosed) {
+                return
+            }
+            isClosed = true
+            if (hasFailed) {
+                decoder.close()
+                return
+            }
+            if (isEndOfStream && cacheOutputStream != null) {
+                cache.put(entry.index, cacheOutputStream.toByteArray())
+            }
+            returnDecoder(decoder)
+        }
+    }
+
+    private class DecompressedDataCache(private val spillDirectory: File?) : Closeable {
+        private val memoryCache = object : LruCache<Int, ByteArray>(MAX_MEMORY_SIZE) {
+            override fun sizeOf(key: Int, value: ByteArray): Int = value.size
+
+            override fun entryRemoved(
+                evicted: Boolean,
+                key: Int,
+                oldValue: ByteArray,
+                newValue: ByteArray?
+            ) {
+                if (evicted) {
+                    spill(key, oldValue)
+                }
+            }
+        }
+
+        private var spillFile: File? = null
+
+        private var spillRandomAccessFile: RandomAccessFile? = null
+
+        // Map of entry index to offset and size in the spill file.
+        private val spillEntries = mutableMapOf<Int, Pair<Long, Int>>()
+
+        private var isClosed = false
+
+        fun isCacheable(size: Long): Boolean =
+            size in 0..if (spillDirectory != null) {
+                MAX_SPILL_ENTRY_SIZE
+            } else {
+                MAX_MEMORY_ENTRY_SIZE.toLong()
+            }
+
+        @Synchronized
+        fun contains(index: Int): Boolean =
+            memoryCache[index] != null || index in spillEntries
+
+        @Synchronized
+        operator fun get(index: Int): InputStream? {
+            memoryCache[index]?.let { return ByteArrayInputStream(it) }
+            val (offset, size) = spillEntries[index] ?: return null
+            val data = ByteArray(size)
+            try {
+                spillRandomAccessFile!!.run {
+                    seek(offset)
+                    readFully(data)
+                }
+            } catch (e: IOException) {
+                e.printStackTrace()
+                spillEntries -= index
+                return null
+            }
+            return ByteArrayInputStream(data)
+        }
+
+        @Synchronized
+        fun put(index: Int, data: ByteArray) {
+            if (isClosed) {
+                return
+            }
+            if (data.size <= MAX_MEMORY_ENTRY_SIZE) {
+                memoryCache.put(index, data)
+            } else {
+                spill(index, data)
+            }
+        }
+
+        // Called with the lock held, either directly or through LruCache.entryRemoved().
+        private fun spill(index: Int, data: ByteArray) {
+            if (spillDirectory == null || isClosed || data.size > MAX_SPILL_ENTRY_SIZE
+                || index in spillEntries) {
+                return
+            }
+            try {
+                var randomAccessFile = spillRandomAccessFile
+                if (randomAccessFile == null) {
+                    spillDirectory.mkdirs()
+                    val file = File.createTempFile("archive", null, spillDirectory)
+                    spillFile = file
+                    randomAccessFile = RandomAccessFile(file, "rw")
+                    spillRandomAccessFile = randomAccessFile
+                }
+                var offset = randomAccessFile.length()
+                if (offset + data.size > MAX_SPILL_SIZE) {
+                    // Start over instead of tracking holes, the cache is only an optimization.
+                    spillEntries.clear()
+                    randomAccessFile.setLength(0)
+                    offset = 0
+                }
+                randomAccessFile.seek(offset)
+                randomAccessFile.write(data)
+                spillEntries[index] = offset to data.size
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+        }
+
+        @Synchronized
+        override fun close() {
+            if (isClosed) {
+                return
+            }
+            isClosed = true
+            memoryCache.evictAll()
+            spillEntries.clear()
+            try {
+                spillRandomAccessFile?.close()
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+            spillRandomAccessFile = null
+            spillFile?.delete()
+            spillFile = null
+        }
+    }
+
+    companion object {
+        private const val MAX_IDLE_DECODER_COUNT = 2
+
+        private const val MAX_MEMORY_SIZE = 16 * 1024 * 1024
+
+        private const val MAX_MEMORY_ENTRY_SIZE = 4 * 1024 * 1024
+
+        private const val MAX_SPILL_SIZE = 256L * 1024 * 1024
+
+        private const val MAX_SPILL_ENTRY_SIZE = 32L * 1024 * 1024
+    }
+}
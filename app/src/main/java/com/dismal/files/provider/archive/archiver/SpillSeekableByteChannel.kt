@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.archive.archiver
+
+import java8.nio.channels.SeekableByteChannel
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.NonWritableChannelException
+
+/**
+ * A read-only seekable channel over a sequential [inputStream] of a known [size], which spills the
+ * data read so far into a temporary file in [directory].
+ *
+ * The stream is only consumed as far as the furthest position read, so the spill file is only as
+ * large as needed.
+ */
+internal class SpillSeekableByteChannel(
+    private val inputStream: InputStream,
+    private val size: Long,
+    directory: File
+) : SeekableByteChannel {
+    private val file: File
+
+    private val randomAccessFile: RandomAccessFile
+
+    private val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+
+    private var filledSize = 0L
+
+    private var position = 0L
+
+    private var isOpen = true
+
+    init {
+        directory.mkdirs()
+        file = File.createTempFile("spill", null, directory)
+        randomAccessFile = try {
+            RandomAccessFile(file, "rw")
+        } catch (e: IOException) {
+            file.delete()
+            throw e
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun read(dst: ByteBuffer): Int {
+        ensureOpen()
+        if (position >= size) {
+            return -1
+        }
+        val end = (position + dst.remaining()).coerceAtMost(size)
+        fill(end)
+        if (position >= filledSize) {
+            // The stream ended earlier than the size we were told.
+            return -1
+        }
+        val oldLimit = dst.limit()
+        val readableSize = filledSize - position
+        if (dst.remaining() > readableSize) {
+            dst.limit(dst.position() + readableSize.toInt())
+        }
+        try {
+            val readSize = randomAccessFile.channel.read(dst, position)
+            if (readSize > 0) {
+                position += readSize
+            }
+            return readSize
+        } finally {
+            dst.limit(oldLimit)
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun fill(end: Long) {
+        while (filledSize < end) {
+            val readSize = inputStream.read(buffer)
+            if (readSize == -1) {
+                break
+            }
+            randomAccessFile.seek(filledSize)
+            randomAccessFile.write(buffer, 0, readSize)
+            filledSize += readSize
+        }
+    }
+
+    override fun write(src: ByteBuffer): Int {
+        throw NonWritableChannelException()
+    }
+
+    @Throws(IOException::class)
+    override fun position(): Long {
+        ensureOpen()
+        return position
+    }
+
+    @Throws(IOException::class)
+    override fun position(newPosition: Long): SeekableByteChannel {
+        ensureOpen()
+        require(newPosition >= 0)
+        position = newPosition
+        return this
+    }
+
+    @Throws(IOException::class)
+    override fun size(): Long {
+        ensureOpen()
+        return size
+    }
+
+    override fun truncate(size: Long): SeekableByteChannel {
+        throw NonWritableChannelException()
+    }
+
+    @Throws(ClosedChannelException::class)
+    private fun ensureOpen() {
+        if (!isOpen) {
+            throw ClosedChannelException()
+        }
+    }
+
+    override fun isOpen(): Boolean = isOpen
+
+    @Throws(IOException::class)
+    override fun close() {
+        if (!isOpen) {
+            return
+        }
+        isOpen = false
+        try {
+            inputStream.close()
+        } finally {
+            try {
+                randomAccessFile.close()
+            } finally {
+                file.delete()
+            }
+        }
+    }
+}
@@ -25,17 +25,58 @@ class WriteArchive @Throws(ArchiveException::class) constructor(
     channel: SeekableByteChannel,
     format: Int,
     filter: Int,
-    password: String?
+    password: String?,
+    threadCount: Int,
+    // The deflate level for gzip, or CompressionPolicy.DEFAULT_LEVEL.
+    level: Int
 ) : Closeable {
     private val archive = Archive.writeNew()
 
+    // libarchive's gzip filter is single-threaded, so we compress independent members ourselves.
+    private val parallelGzipWriter = if (filter == Archive.FILTER_GZIP && threadCount > 1) {
+        ParallelGzipWriter(channel, threadCount, level)
+    } else {
+        null
+    }
+
+    private var outputNanos = 0L
+
+    /**
+     * The time spent in writing entry data, excluding the time spent in writing the output to the
+     * channel, i.e. roughly the time spent in compression.
+     */
+    var compressionNanos = 0L
+        private set
+
     init {
         var successful = false
         try {
             Archive.writeSetBytesPerBlock(archive, DEFAULT_BUFFER_SIZE)
             Archive.writeSetBytesInLastBlock(archive, 1)
             Archive.writeSetFormat(archive, format)
-            Archive.writeAddFilter(archive, filter)
+            if (parallelGzipWriter != null) {
+                Archive.writeAddFilter(archive, Archive.FILTER_NONE)
+            } else {
+                Archive.writeAddFilter(archive, filter)
+                if (filter == Archive.FILTER_GZIP && level != CompressionPolicy.DEFAULT_LEVEL) {
+                    Archive.writeSetFilterOption(
+                        archive, null, "compression-level".toByteArray(),
+                        level.toString().toByteArray()
+                    )
+                }
+                if (threadCount > 1
+                    && (filter == Archive.FILTER_XZ || filter == Archive.FILTER_ZSTD)) {
+                    try {
+                        Archive.writeSetFilterOption(
+                            archive, null, "threads".toByteArray(),
+                            threadCount.toString().toByteArray()
+                        )
+                    } catch (e: ArchiveException) {
+                        // libarchive may be built without multithreading support for the filter.
+                        e.printStackTrace()
+                    }
+                }
+            }
             if (password != null) {
                 require(format == Archive.FORMAT_ZIP)
                 Archive.writeSetPassphrase(archive, password.toByteArray())
@@ -44,7 +85,14 @@ class WriteArchive @Throws(ArchiveException::class) constructor(
                 )
             }
             Archive.writeOpen(
-                archive, null, null, { _, _, buffer -> channel.write(buffer) }, null
+                archive, null, null, { _, _, buffer ->
+                    val startNanos = System.nanoTime()
+                    try {
+                        parallelGzipWriter?.write(buffer) ?: channel.write(buffer)
+                    } finally {
+                        outputNanos += System.nanoTime() - startNanos
+                    }
+                }, null
             )
             successful = true
         } finally {
@@ -54,6 +102,30 @@ class WriteArchive @Throws(ArchiveException::class) constructor(
         }
     }
 
+    /**
+     * Set the compression for subsequent ZIP entries.
+     *
+     * @param level the deflate level, or [CompressionPolicy.DEFAULT_LEVEL]; ignored when storing
+     */
+    @Throws(ArchiveException::class)
+    fun setZipCompression(store: Boolean, level: Int) {
+        Archive.writeSetFormatOption(
+            archive, null, "compression".toByteArray(),
+            (if (store) "store" else "deflate").toByteArray()
+        )
+        if (!store && level != CompressionPolicy.DEFAULT_LEVEL) {
+            try {
+                Archive.writeSetFormatOption(
+                    archive, null, "compression-level".toByteArray(),
+                    level.toString().toByteArray()
+                )
+            } catch (e: ArchiveException) {
+                // Older libarchive doesn't support setting the level for ZIP.
+                e.printStackTrace()
+            }
+        }
+    }
+
     @Throws(ArchiveException::class)
     fun writeEntry(entry: Entry) {
         Archive.writeHeader(archive, entry.entry)
@@ -62,9 +134,14 @@ class WriteArchive @Throws(ArchiveException::class) constructor(
     @Throws(ArchiveException::class)
     fun newDataOutputStream(): OutputStream = DataOutputStream()
 
-    @Throws(ArchiveException::class)
+    @Throws(IOException::class)
     override fun close() {
-        Archive.writeFree(archive)
+        @Suppress("ConvertTryFinallyToUseCall")
+        try {
+            Archive.writeFree(archive)
+        } finally {
+            parallelGzipWriter?.close()
+        }
     }
 
     inner class Entry(
@@ -137,14 +214,27 @@ class WriteArchive @Throws(ArchiveException::class) constructor(
         override fun write(b: Int) {
             oneByteBuffer.clear()
             oneByteBuffer.put(b.toByte())
-            Archive.writeData(archive, oneByteBuffer)
+            measureCompression { Archive.writeData(archive, oneByteBuffer) }
         }
 
         @Throws(IOException::class)
         override fun write(b: ByteArray, off: Int, len: Int) {
             val buffer = ByteBuffer.wrap(b, off, len)
-            while (buffer.hasRemaining()) {
-                Archive.writeData(archive, buffer)
+            measureCompression {
+                while (buffer.hasRemaining()) {
+                    Archive.writeData(archive, buffer)
+                }
+            }
+        }
+
+        private inline fun measureCompression(block: () -> Unit) {
+            val startNanos = System.nanoTime()
+            val startOutputNanos = outputNanos
+            try {
+                block()
+            } finally {
+                compressionNanos +=
+                    System.nanoTime() - startNanos - (outputNanos - startOutputNanos)
             }
         }
     }
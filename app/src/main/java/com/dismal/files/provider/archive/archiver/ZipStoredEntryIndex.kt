@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.archive.archiver
+
+import java8.nio.channels.SeekableByteChannel
+import java8.nio.charset.StandardCharsets
+import java8.nio.file.Path
+import com.dismal.files.provider.common.newByteChannel
+import java.io.EOFException
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.charset.Charset
+
+/**
+ * An index of the entries in a ZIP file that are stored without compression or encryption, read
+ * from the central directory, so that their data can be accessed directly at its offset in the
+ * file.
+ *
+ * libarchive doesn't expose entry offsets, hence this minimal reader.
+ */
+internal class ZipStoredEntryIndex private constructor(
+    // Map of entry name to local header offset and size.
+    private val entries: Map<String, Pair<Long, Long>>
+) {
+    @Throws(IOException::class)
+    fun newByteChannel(file: Path, entryName: String): SeekableByteChannel? {
+        val (localHeaderOffset, size) = entries[entryName] ?: return null
+        val channel = file.newByteChannel()
+        var successful = false
+        try {
+            val header = channel.readFully(localHeaderOffset, LOCAL_HEADER_SIZE)
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                return null
+            }
+            val nameLength = header.getUnsignedShort(26)
+            val extraLength = header.getUnsignedShort(28)
+            val dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength
+            successful = true
+            return RangeSeekableByteChannel(channel, dataOffset, size)
+        } finally {
+            if (!successful) {
+                channel.close()
+            }
+        }
+    }
+
+    companion object {
+        private const val LOCAL_HEADER_SIGNATURE = 0x04034b50
+        private const val LOCAL_HEADER_SIZE = 30
+        private const val CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50
+        private const val CENTRAL_DIRECTORY_HEADER_SIZE = 46
+        private const val END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50
+        private const val END_OF_CENTRAL_DIRECTORY_SIZE = 22
+        private const val ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50
+        private const val ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE = 20
+        private const val ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50
+        private const val ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56
+        private const val ZIP64_EXTRA_FIELD_ID = 0x0001
+        private const val MAX_COMMENT_LENGTH = 0xFFFF
+        private const val FLAG_ENCRYPTED = 0x0001
+        private const val FLAG_UTF_8 = 0x0800
+        private const val METHOD_STORED = 0
+
+        // Don't read unreasonably large central directories into memory.
+        private const val MAX_CENTRAL_DIRECTORY_SIZE = 64 * 1024 * 1024
+
+        @Throws(IOException::class)
+        fun read(file: Path, charset: Charset): ZipStoredEntryIndex? =
+            file.newByteChannel().use { read(it, charset) }
+
+        @Throws(IOException::class)
+        private fun read(channel: SeekableByteChannel, charset: Charset): ZipStoredEntryIndex? {
+            val fileSize = channel.size()
+            val endOfCentralDirectoryOffset = findEndOfCentralDirectory(channel, fileSize)
+                ?: return null
+            val endOfCentralDirectory = channel.readFully(
+                endOfCentralDirectoryOffset, END_OF_CENTRAL_DIRECTORY_SIZE
+            )
+            var centralDirectorySize = endOfCentralDirectory.getUnsignedInt(12)
+            var centralDirectoryOffset = endOfCentralDirectory.getUnsignedInt(16)
+            if (centralDirectorySize == 0xFFFFFFFFL || centralDirectoryOffset == 0xFFFFFFFFL) {
+                val locatorOffset =
+                    endOfCentralDirectoryOffset - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE
+                if (locatorOffset < 0) {
+                    return null
+                }
+                val locator =
+                    channel.readFully(locatorOffset, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE)
+                if (locator.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+                    return null
+                }
+                val zip64EndOfCentralDirectory =
+                    channel.readFully(locator.getLong(8), ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE)
+                if (zip64EndOfCentralDirectory.getInt(0)
+                    != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    return null
+                }
+                centralDirectorySize = zip64EndOfCentralDirectory.getLong(40)
+                centralDirectoryOffset = zip64EndOfCentralDirectory.getLong(48)
+            }
+            if (centralDirectorySize > MAX_CENTRAL_DIRECTORY_SIZE
+                || centralDirectoryOffset + centralDirectorySize > fileSize) {
+                return null
+            }
+            val centralDirectory =
+                channel.readFully(centralDirectoryOffset, centralDirectorySize.toInt())
+            val entries = mutableMapOf<String, Pair<Long, Long>>()
+            while (centralDirectory.remaining() >= CENTRAL_DIRECTORY_HEADER_SIZE) {
+                val headerOffset = centralDirectory.position()
+                if (centralDirectory.getInt(headerOffset) != CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+                    break
+                }
+                val flags = centralDirectory.getUnsignedShort(headerOffset + 8)
+                val method = centralDirectory.getUnsignedShort(headerOffset + 10)
+                var compressedSize = centralDirectory.getUnsignedInt(headerOffset + 20)
+                var uncompressedSize = centralDirectory.getUnsignedInt(headerOffset + 24)
+                val nameLength = centralDirectory.getUnsignedShort(headerOffset + 28)
+                val extraLength = centralDirectory.getUnsignedShort(headerOffset + 30)
+                val commentLength = centralDirectory.getUnsignedShort(headerOffset + 32)
+                var localHeaderOffset = centralDirectory.getUnsignedInt(headerOffset + 42)
+                val nameOffset = headerOffset + CENTRAL_DIRECTORY_HEADER_SIZE
+                val extraOffset = nameOffset + nameLength
+                val nextHeaderOffset = extraOffset + extraLength + commentLength
+                if (nextHeaderOffset > centralDirectory.limit()) {
+                    break
+                }
+                // The ZIP64 extra field only contains the values that overflowed, in this order.
+                var extraFieldOffset = extraOffset
+                while (extraFieldOffset + 4 <= extraOffset + extraLength) {
+                    val id = centralDirectory.getUnsignedShort(extraFieldOffset)
+                    val size = centralDirectory.getUnsignedShort(extraFieldOffset + 2)
+                    if (id == ZIP64_EXTRA_FIELD_ID) {
+                        var valueOffset = extraFieldOffset + 4
+                        if (uncompressedSize == 0xFFFFFFFFL) {
+                            uncompressedSize = centralDirectory.getLong(valueOffset)
+                            valueOffset += 8
+                        }
+                        if (compressedSize == 0xFFFFFFFFL) {
+                            compressedSize = centralDirectory.getLong(valueOffset)
+                            valueOffset += 8
+                        }
+                        if (localHeaderOffset == 0xFFFFFFFFL) {
+                            localHeaderOffset = centralDirectory.getLong(valueOffset)
+                        }
+                        break
+                    }
+                    extraFieldOffset += 4 + size
+                }
+                if (method == METHOD_STORED && flags and FLAG_ENCRYPTED == 0
+                    && compressedSize == uncompressedSize) {
+                    val nameBytes = ByteArray(nameLength)
+                    centralDirectory.position(nameOffset)
+                    centralDirectory.get(nameBytes)
+                    val name = nameBytes.toString(
+                        if (flags and FLAG_UTF_8 != 0) StandardCharsets.UTF_8 else charset
+                    )
+                    entries.getOrPut(name) { localHeaderOffset to uncompressedSize }
+                }
+                centralDirectory.position(nextHeaderOffset)
+            }
+            return ZipStoredEntryIndex(entries)
+        }
+
+        @Throws(IOException::class)
+        private fun findEndOfCentralDirectory(channel: SeekableByteChannel, fileSize: Long): Long? {
+            if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+                return null
+            }
+            val searchSize = (fileSize.coerceAtMost(
+                (END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_LENGTH).toLong()
+            )).toInt()
+            val searchOffset = fileSize - searchSize
+            val buffer = channel.readFully(searchOffset, searchSize)
+            for (index in searchSize - END_OF_CENTRAL_DIRECTORY_SIZE downTo 0) {
+                if (buffer.getInt(index) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    return searchOffset + index
+                }
+            }
+            return null
+        }
+
+        @Throws(IOException::class)
+        private fun SeekableByteChannel.readFully(position: Long, size: Int): ByteBuffer {
+            val buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+            position(position)
+            while (buffer.hasRemaining()) {
+                if (read(buffer) == -1) {
+                    throw EOFException()
+                }
+            }
+            buffer.flip()
+            return buffer
+        }
+
+        private fun ByteBuffer.getUnsignedShort(index: Int): Int = getShort(index).toInt() and 0xFFFF
+
+        private fun ByteBuffer.getUnsignedInt(index: Int): Long =
+            getInt(index).toLong() and 0xFFFFFFFFL
+    }
+}
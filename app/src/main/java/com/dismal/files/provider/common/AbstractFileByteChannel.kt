@@ -23,13 +23,28 @@ import java.util.concurrent.CancellationException
 import java.util.concurrent.ExecutionException
 import java.util.concurrent.Future
 
+/**
+ * @param maxReadAheadCount The maximum number of reads that can be outstanding ahead of the data
+ * being read. Providers that can't have concurrent reads, or for which starting a read is costly,
+ * should keep this at one, which also keeps blocks at the maximum size from the start.
+ * @param maxPendingWriteCount The maximum number of blocks that can be written behind through
+ * [onWriteAsync], or zero for writing synchronously through [onWrite].
+ * @param maxReadBlockSize The maximum size of a single read, e.g. the largest read the server
+ * accepts in a single request.
+ * @param writeBlockSize The size of the blocks written behind through [onWriteAsync].
+ */
 abstract class AbstractFileByteChannel(
     private val isAppend: Boolean,
     private val shouldCancelRead: Boolean = true,
-    private val joinCancelledRead: Boolean = false
+    private val joinCancelledRead: Boolean = false,
+    private val maxReadAheadCount: Int = 1,
+    private val maxPendingWriteCount: Int = 0,
+    private val maxReadBlockSize: Int = MAX_BLOCK_SIZE,
+    private val writeBlockSize: Int = WRITE_BLOCK_SIZE
 ) : ForceableChannel, SeekableByteChannel {
     private var position = 0L
     private val readBuffer = ReadBuffer()
+    private val writeBuffer = if (maxPendingWriteCount > 0) WriteBuffer() else null
     private val ioLock = Any()
 
     private var isOpen = true
@@ -46,6 +61,7 @@ abstract class AbstractFileByteChannel(
             return 0
         }
         return synchronized(ioLock) {
+            writeBuffer?.flush()
             readBuffer.read(destination).also {
                 if (it != -1) {
                     position += it
@@ -83,8 +99,12 @@ abstract class AbstractFileByteChannel(
         }
         synchronized(ioLock) {
             if (isAppend) {
+                writeBuffer?.flush()
                 onAppend(source)
                 position = onSize()
+            } else if (writeBuffer != null) {
+                writeBuffer.write(position, source)
+                position += remaining
             } else {
                 onWrite(position, source)
                 position += remaining - source.remaining()
@@ -96,6 +116,17 @@ abstract class AbstractFileByteChannel(
     @Throws(IOException::class)
     protected abstract fun onWrite(position: Long, source: ByteBuffer)
 
+    /**
+     * Starts writing all of [source] at [position], which the channel won't modify afterwards.
+     *
+     * The channel won't have overlapping writes pending at the same time, so they don't need to be
+     * ordered.
+     */
+    @Throws(IOException::class)
+    protected open fun onWriteAsync(position: Long, source: ByteBuffer): Future<Unit> {
+        throw NotImplementedError()
+    }
+
     @Throws(IOException::class)
     protected open fun onAppend(source: ByteBuffer) {
         val position = onSize()
@@ -107,6 +138,7 @@ abstract class AbstractFileByteChannel(
         ensureOpen()
         synchronized(ioLock) {
             if (isAppend) {
+                writeBuffer?.flush()
                 position = onSize()
             }
             return position
@@ -129,7 +161,10 @@ abstract class AbstractFileByteChannel(
     @Throws(IOException::class)
     final override fun size(): Long {
         ensureOpen()
-        return onSize()
+        synchronized(ioLock) {
+            writeBuffer?.flush()
+            return onSize()
+        }
     }
 
     @Throws(IOException::class)
@@ -137,6 +172,7 @@ abstract class AbstractFileByteChannel(
         ensureOpen()
         require(size >= 0)
         synchronized(ioLock) {
+            writeBuffer?.flush()
             val currentSize = onSize()
             if (size >= currentSize) {
                 return this
@@ -157,6 +193,7 @@ abstract class AbstractFileByteChannel(
     final override fun force(metaData: Boolean) {
         ensureOpen()
         synchronized(ioLock) {
+            writeBuffer?.flush()
             onForce(metaData)
         }
     }
@@ -183,8 +220,12 @@ abstract class AbstractFileByteChannel(
             }
             isOpen = false
             synchronized(ioLock) {
-                readBuffer.closeSafe()
-                onClose()
+                try {
+                    writeBuffer?.flush()
+                } finally {
+                    readBuffer.closeSafe()
+                    onClose()
+                }
             }
         }
     }
@@ -198,12 +239,32 @@ abstract class AbstractFileByteChannel(
     @Throws(IOException::class)
     protected open fun onClose() {}
 
+    /**
+     * A read-ahead window of up to [maxReadAheadCount] outstanding reads after the buffered data.
+     *
+     * The block size starts small and doubles as long as reads stay sequential, and the window
+     * grows whenever the data of a read-ahead wasn't there yet when it was needed, i.e. whenever
+     * the latency of the link isn't covered yet. A seek into the window keeps it, and any other
+     * seek drops it and starts over.
+     */
     private inner class ReadBuffer : Closeable {
-        private val buffer = ByteBuffer.allocate(BUFFER_SIZE).apply { limit(0) }
-        private var bufferedPosition = 0L
+        private var buffer = ByteBuffer::class.EMPTY
+
+        private val pendingReads = ArrayDeque<PendingRead>()
+        private var nextReadPosition = 0L
+        // The size to skip at the start of the first pending read after a seek into the window.
+        private var skipSize = 0
+
+        private val initialBlockSize: Int
+            get() = if (maxReadAheadCount > 1) {
+                MIN_BLOCK_SIZE.coerceAtMost(maxReadBlockSize)
+            } else {
+                maxReadBlockSize
+            }
 
-        private var pendingRead: Future<ByteBuffer>? = null
-        private val pendingReadLock = Any()
+        private var blockSize = initialBlockSize
+        private var maxBlockSize = maxReadBlockSize
+        private var readAheadCount = 1
 
         @Throws(IOException::class)
         fun read(destination: ByteBuffer): Int {
@@ -223,10 +284,84 @@ abstract class AbstractFileByteChannel(
 
         @Throws(IOException::class)
         private fun readIntoBuffer() {
-            val future = synchronized(pendingReadLock) {
-                pendingRead?.also { pendingRead = null }
-            } ?: readIntoBufferAsync()
-            val newBuffer = try {
+            while (true) {
+                if (pendingReads.isEmpty()) {
+                    addPendingRead(false)
+                }
+                val pendingRead = pendingReads.removeFirst()
+                val wasDone = pendingRead.future.isDone
+                val newBuffer = try {
+                    getReadResult(pendingRead.future)
+                } catch (e: IOException) {
+                    // Read this block again upon the next read.
+                    cancelPendingReads()
+                    nextReadPosition = pendingRead.position + skipSize
+                    skipSize = 0
+                    throw e
+                }
+                val length = newBuffer.remaining()
+                if (length == 0) {
+                    cancelPendingReads()
+                    nextReadPosition = pendingRead.position
+                    skipSize = 0
+                    buffer = ByteBuffer::class.EMPTY
+                    return
+                }
+                if (pendingRead.isReadAhead && !wasDone && readAheadCount < maxReadAheadCount) {
+                    ++readAheadCount
+                }
+                if (length < pendingRead.size) {
+                    // Servers may return less than requested, so read the rest before any of the
+                    // read-aheads after it, and stop requesting more than the server returns.
+                    maxBlockSize = maxBlockSize.coerceAtMost(length.coerceAtLeast(MIN_BLOCK_SIZE))
+                    blockSize = blockSize.coerceAtMost(maxBlockSize)
+                    val position = pendingRead.position + length
+                    val size = pendingRead.size - length
+                    try {
+                        pendingReads.addFirst(
+                            PendingRead(
+                                position, size, onReadAsync(position, size, TIMEOUT_MILLIS),
+                                pendingRead.isReadAhead
+                            )
+                        )
+                    } catch (e: IOException) {
+                        // Read the rest upon the next read instead.
+                        cancelPendingReads()
+                        nextReadPosition = position
+                    }
+                }
+                if (skipSize > 0) {
+                    val skippedSize = skipSize.coerceAtMost(length)
+                    newBuffer.position(newBuffer.position() + skippedSize)
+                    skipSize -= skippedSize
+                    if (!newBuffer.hasRemaining()) {
+                        continue
+                    }
+                }
+                buffer = newBuffer.slice()
+                blockSize = (blockSize * 2).coerceAtMost(maxBlockSize)
+                while (pendingReads.size < readAheadCount) {
+                    addPendingRead(true)
+                }
+                return
+            }
+        }
+
+        @Throws(IOException::class)
+        private fun addPendingRead(isReadAhead: Boolean) {
+            val position = nextReadPosition
+            val size = blockSize
+            pendingReads.addLast(
+                PendingRead(
+                    position, size, onReadAsync(position, size, TIMEOUT_MILLIS), isReadAhead
+                )
+            )
+            nextReadPosition += size
+        }
+
+        @Throws(IOException::class)
+        private fun getReadResult(future: Future<ByteBuffer>): ByteBuffer =
+            try {
                 future.get()
             } catch (e: CancellationException) {
                 throw InterruptedIOException().apply { initCause(e) }
@@ -240,20 +375,6 @@ abstract class AbstractFileByteChannel(
                     throw IOException(exception)
                 }
             }
-            buffer.clear()
-            buffer.put(newBuffer)
-            buffer.flip()
-            if (!buffer.hasRemaining()) {
-                return
-            }
-            bufferedPosition += buffer.remaining()
-            synchronized(pendingReadLock) {
-                pendingRead = readIntoBufferAsync()
-            }
-        }
-
-        private fun readIntoBufferAsync(): Future<ByteBuffer> =
-            onReadAsync(bufferedPosition, BUFFER_SIZE, TIMEOUT_MILLIS)
 
         fun reposition(oldPosition: Long, newPosition: Long) {
             if (newPosition == oldPosition) {
@@ -262,38 +383,180 @@ abstract class AbstractFileByteChannel(
             val newBufferPosition = buffer.position() + (newPosition - oldPosition)
             if (newBufferPosition in 0..buffer.limit()) {
                 buffer.position(newBufferPosition.toInt())
+                return
+            }
+            buffer = ByteBuffer::class.EMPTY
+            while (pendingReads.isNotEmpty()) {
+                val pendingRead = pendingReads.first()
+                if (pendingRead.position + pendingRead.size > newPosition) {
+                    break
+                }
+                cancelPendingRead(pendingReads.removeFirst())
+            }
+            val firstPendingRead = pendingReads.firstOrNull()
+            if (firstPendingRead != null && firstPendingRead.position <= newPosition) {
+                skipSize = (newPosition - firstPendingRead.position).toInt()
             } else {
-                cancelPendingRead()
-                buffer.limit(0)
-                bufferedPosition = newPosition
+                cancelPendingReads()
+                nextReadPosition = newPosition
+                skipSize = 0
+                blockSize = initialBlockSize
+                readAheadCount = 1
             }
         }
 
         override fun close() {
-            cancelPendingRead()
+            cancelPendingReads()
         }
 
-        private fun cancelPendingRead() {
-            synchronized(pendingReadLock) {
-                pendingRead?.let {
-                    if (shouldCancelRead) {
-                        it.cancel(true)
-                        if (joinCancelledRead) {
-                            try {
-                                it.get()
-                            } catch (e: Exception) {
-                                // Ignored
-                            }
-                        }
+        private fun cancelPendingReads() {
+            while (pendingReads.isNotEmpty()) {
+                cancelPendingRead(pendingReads.removeFirst())
+            }
+        }
+
+        private fun cancelPendingRead(pendingRead: PendingRead) {
+            if (!shouldCancelRead) {
+                return
+            }
+            pendingRead.future.cancel(true)
+            if (joinCancelledRead) {
+                try {
+                    pendingRead.future.get()
+                } catch (e: Exception) {
+                    // Ignored
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects sequential writes into blocks, and writes them behind with up to
+     * [maxPendingWriteCount] blocks pending.
+     *
+     * A block waits for any pending block that it overlaps, so that overlapping writes still land
+     * in order. A failed write is reported upon the next write after it fails, or upon [flush]
+     * which is done before any other operation.
+     */
+    private inner class WriteBuffer {
+        private var block: ByteBuffer? = null
+        private var blockPosition = 0L
+
+        private val pendingWrites = ArrayDeque<PendingWrite>()
+
+        @Throws(IOException::class)
+        fun write(position: Long, source: ByteBuffer) {
+            awaitDonePendingWrites()
+            var block = block
+            if (block != null && position != blockPosition + block.position()) {
+                submitBlock()
+                block = null
+            }
+            val sourcePosition = source.position()
+            while (source.hasRemaining()) {
+                if (block == null) {
+                    block = ByteBuffer.allocate(writeBlockSize)
+                    blockPosition = position + (source.position() - sourcePosition)
+                    this.block = block
+                }
+                val length = source.remaining().coerceAtMost(block!!.remaining())
+                val sourceLimit = source.limit()
+                source.limit(source.position() + length)
+                block.put(source)
+                source.limit(sourceLimit)
+                if (!block.hasRemaining()) {
+                    submitBlock()
+                    block = null
+                }
+            }
+        }
+
+        @Throws(IOException::class)
+        private fun submitBlock() {
+            val block = block ?: return
+            this.block = null
+            block.flip()
+            val position = blockPosition
+            val size = block.remaining()
+            while (true) {
+                val overlappingPendingWrite = pendingWrites.firstOrNull {
+                    it.position < position + size && position < it.position + it.size
+                } ?: break
+                pendingWrites.remove(overlappingPendingWrite)
+                awaitPendingWrite(overlappingPendingWrite)
+            }
+            while (pendingWrites.size >= maxPendingWriteCount) {
+                awaitPendingWrite(pendingWrites.removeFirst())
+            }
+            pendingWrites.addLast(PendingWrite(position, size, onWriteAsync(position, block)))
+        }
+
+        @Throws(IOException::class)
+        fun flush() {
+            var exception: IOException? = null
+            try {
+                submitBlock()
+            } catch (e: IOException) {
+                exception = e
+            }
+            while (pendingWrites.isNotEmpty()) {
+                try {
+                    awaitPendingWrite(pendingWrites.removeFirst())
+                } catch (e: IOException) {
+                    if (exception == null) {
+                        exception = e
+                    } else {
+                        exception.addSuppressed(e)
                     }
-                    pendingRead = null
+                }
+            }
+            exception?.let { throw it }
+        }
+
+        @Throws(IOException::class)
+        private fun awaitDonePendingWrites() {
+            val iterator = pendingWrites.iterator()
+            while (iterator.hasNext()) {
+                val pendingWrite = iterator.next()
+                if (pendingWrite.future.isDone) {
+                    iterator.remove()
+                    awaitPendingWrite(pendingWrite)
+                }
+            }
+        }
+
+        @Throws(IOException::class)
+        private fun awaitPendingWrite(pendingWrite: PendingWrite) {
+            try {
+                pendingWrite.future.get()
+            } catch (e: CancellationException) {
+                throw InterruptedIOException().apply { initCause(e) }
+            } catch (e: InterruptedException) {
+                throw InterruptedIOException().apply { initCause(e) }
+            } catch (e: ExecutionException) {
+                val exception = e.cause ?: e
+                if (exception is IOException) {
+                    throw exception
+                } else {
+                    throw IOException(exception)
                 }
             }
         }
     }
 
+    private class PendingWrite(val position: Long, val size: Int, val future: Future<Unit>)
+
+    private class PendingRead(
+        val position: Long,
+        val size: Int,
+        val future: Future<ByteBuffer>,
+        val isReadAhead: Boolean
+    )
+
     companion object {
-        private const val BUFFER_SIZE = 1024 * 1024
+        private const val MIN_BLOCK_SIZE = 64 * 1024
+        private const val MAX_BLOCK_SIZE = 1024 * 1024
+        private const val WRITE_BLOCK_SIZE = 256 * 1024
         private const val TIMEOUT_MILLIS = 15_000L
     }
 }
@@ -314,6 +314,21 @@ abstract class ByteStringListPath<T : ByteStringListPath<T>> : AbstractPath<T>,
 
     protected abstract val defaultDirectory: T
 
+    /**
+     * Whether this path is fully determined by its file system and segments, so that a path can be
+     * recreated from the segments of another with [createPathWithSegments].
+     */
+    internal open val isDeterminedBySegments: Boolean
+        get() = true
+
+    /**
+     * Creates a path that shares the first [prefixSegmentCount] segment instances of this path.
+     */
+    internal fun createPathWithSegments(
+        prefixSegmentCount: Int,
+        suffixSegments: List<ByteString>
+    ): T = createPath(isAbsolute, segments.subList(0, prefixSegmentCount) + suffixSegments)
+
     protected constructor(source: Parcel) {
         separator = source.readByte()
         isAbsolute = source.readBooleanCompat()
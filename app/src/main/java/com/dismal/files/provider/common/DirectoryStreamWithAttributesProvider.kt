@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.common
+
+import java8.nio.file.DirectoryStream
+import java8.nio.file.Path
+import java.io.IOException
+
+/**
+ * A provider that can read the attributes of the entries along with a directory listing, for
+ * callers that are going to read them right afterwards.
+ */
+interface DirectoryStreamWithAttributesProvider {
+    @Throws(IOException::class)
+    fun newDirectoryStreamWithAttributes(directory: Path): DirectoryStream<Path>
+}
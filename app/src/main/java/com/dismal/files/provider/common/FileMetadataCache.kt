@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.common
+
+import android.os.SystemClock
+import java8.nio.file.Path
+
+/**
+ * A cache of the metadata of remote files, e.g. what came along with a directory listing, so that
+ * reading the attributes of the same file a few times in a row doesn't need a round trip each
+ * time.
+ *
+ * - Entries expire after [ttlMillis], which bounds how stale a change made by another client can
+ *   be.
+ * - A file can also be cached as not found, with the exception to rethrow.
+ * - The least recently used entries are evicted beyond [maxSize].
+ * - A change to a path drops the entries for the path, its parent and its descendants in every
+ *   cache, and [LocalWatchService] reports every change made through the providers here.
+ */
+class FileMetadataCache<V : Any>(
+    private val ttlMillis: Long,
+    private val maxSize: Int = DEFAULT_MAX_SIZE
+) {
+    private val entries = object : LinkedHashMap<Path, Entry<V>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: Map.Entry<Path, Entry<V>>): Boolean =
+            size > maxSize
+    }
+
+    init {
+        synchronized(caches) { caches += this }
+    }
+
+    /**
+     * @return `null` if nothing is cached, or a failure if the file is cached as not found
+     */
+    operator fun get(path: Path): Result<V>? {
+        synchronized(entries) {
+            val entry = entries[path] ?: return null
+            if (SystemClock.elapsedRealtime() >= entry.expirationTimeMillis) {
+                entries -= path
+                return null
+            }
+            return entry.result
+        }
+    }
+
+    operator fun set(path: Path, value: V) {
+        put(path, Result.success(value))
+    }
+
+    fun putNotFound(path: Path, exception: Exception) {
+        put(path, Result.failure(exception))
+    }
+
+    private fun put(path: Path, result: Result<V>) {
+        val expirationTimeMillis = SystemClock.elapsedRealtime() + ttlMillis
+        synchronized(entries) { entries[path] = Entry(result, expirationTimeMillis) }
+    }
+
+    fun invalidate(path: Path) {
+        val parent = path.parent
+        synchronized(entries) {
+            entries.keys.removeAll { it == parent || it.startsWith(path) }
+        }
+    }
+
+    private class Entry<V>(val result: Result<V>, val expirationTimeMillis: Long)
+
+    companion object {
+        private const val DEFAULT_MAX_SIZE = 4096
+
+        private val caches = mutableListOf<FileMetadataCache<*>>()
+
+        fun invalidateAll(path: Path) {
+            synchronized(caches) { caches.forEach { it.invalidate(path) } }
+        }
+    }
+}
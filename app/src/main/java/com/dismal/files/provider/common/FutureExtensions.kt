@@ -64,6 +64,29 @@ fun <T, R> Future<T>.map(
         }
     }
 
+fun <T> List<Future<T>>.allAsList(): Future<List<T>> =
+    object : Future<List<T>> {
+        override fun cancel(mayInterruptIfRunning: Boolean): Boolean =
+            this@allAsList.fold(false) { cancelled, future ->
+                future.cancel(mayInterruptIfRunning) || cancelled
+            }
+
+        override fun isCancelled(): Boolean = this@allAsList.any { it.isCancelled }
+
+        override fun isDone(): Boolean = this@allAsList.all { it.isDone }
+
+        @Throws(ExecutionException::class, InterruptedException::class)
+        override fun get(): List<T> = this@allAsList.map { it.get() }
+
+        @Throws(ExecutionException::class, InterruptedException::class, TimeoutException::class)
+        override fun get(timeout: Long, unit: TimeUnit): List<T> {
+            val deadlineNanos = System.nanoTime() + unit.toNanos(timeout)
+            return this@allAsList.map {
+                it.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)
+            }
+        }
+    }
+
 fun <T> Deferred<T>.asFuture(): Future<T> =
     object : Future<T> {
         private val latch = CountDownLatch(1)
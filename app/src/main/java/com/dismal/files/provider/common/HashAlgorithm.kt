@@ -0,0 +1,14 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.common
+
+enum class HashAlgorithm(val size: Int) {
+    CRC32(4),
+    MD5(16),
+    SHA1(20),
+    SHA256(32),
+    SHA512(64)
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.common
+
+import java8.nio.file.Path
+import java.io.IOException
+
+interface Hashable {
+    /**
+     * Computes hashes of a file on the server, so that its content doesn't need to be read through
+     * the network.
+     *
+     * @return the hashes as lowercase hexadecimal, without the algorithms that the server can't
+     * compute
+     */
+    @Throws(IOException::class)
+    fun hash(path: Path, algorithms: Set<HashAlgorithm>): Map<HashAlgorithm, String>
+}
@@ -95,7 +95,23 @@ class LocalWatchService : AbstractWatchService<LocalWatchKey>() {
             onWatchEvent(path, StandardWatchEventKinds.ENTRY_MODIFY)
         }
 
-        private fun onWatchEvent(path: Path, kind: WatchEvent.Kind<Path>) {
+        /**
+         * Like [onEntryModified], but for a write to a file that is open, which leaves the metadata
+         * caches to be invalidated when the file is opened and closed instead of scanning them
+         * every few kilobytes written.
+         */
+        fun onEntryWritten(path: Path) {
+            onWatchEvent(path, StandardWatchEventKinds.ENTRY_MODIFY, false)
+        }
+
+        private fun onWatchEvent(
+            path: Path,
+            kind: WatchEvent.Kind<Path>,
+            invalidatesCaches: Boolean = true
+        ) {
+            if (invalidatesCaches) {
+                FileMetadataCache.invalidateAll(path)
+            }
             synchronized(services) {
                 services.forEach { it.onWatchEvent(path, kind) }
             }
@@ -117,9 +133,13 @@ private class NotifyEntryModifiedNonForceableSeekableByteChannel(
     channel: SeekableByteChannel,
     private val path: Path
 ) : DelegateNonForceableSeekableByteChannel(channel) {
+    init {
+        FileMetadataCache.invalidateAll(path)
+    }
+
     override fun write(src: ByteBuffer): Int {
         return super.write(src).also {
-            LocalWatchService.onEntryModified(path)
+            LocalWatchService.onEntryWritten(path)
         }
     }
 
@@ -140,9 +160,13 @@ private class NotifyEntryModifiedForceableSeekableByteChannel(
     channel: SeekableByteChannel,
     private val path: Path
 ) : DelegateForceableSeekableByteChannel(channel) {
+    init {
+        FileMetadataCache.invalidateAll(path)
+    }
+
     override fun write(src: ByteBuffer): Int {
         return super.write(src).also {
-            LocalWatchService.onEntryModified(path)
+            LocalWatchService.onEntryWritten(path)
         }
     }
 
@@ -163,22 +187,26 @@ class NotifyEntryModifiedOutputStream(
     outputStream: OutputStream,
     private val path: Path
 ) : DelegateOutputStream(outputStream) {
+    init {
+        FileMetadataCache.invalidateAll(path)
+    }
+
     override fun write(b: Int) {
         super.write(b)
 
-        LocalWatchService.onEntryModified(path)
+        LocalWatchService.onEntryWritten(path)
     }
 
     override fun write(b: ByteArray) {
         super.write(b)
 
-        LocalWatchService.onEntryModified(path)
+        LocalWatchService.onEntryWritten(path)
     }
 
     override fun write(b: ByteArray, off: Int, len: Int) {
         super.write(b, off, len)
 
-        LocalWatchService.onEntryModified(path)
+        LocalWatchService.onEntryWritten(path)
     }
 
     override fun flush() {
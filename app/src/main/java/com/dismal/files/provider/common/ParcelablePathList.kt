@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.common
+
+import android.os.Parcel
+import android.os.Parcelable
+import java8.nio.file.Path
+
+/**
+ * A compact parcel format for lists of paths, which are usually siblings or at least share a
+ * common parent.
+ *
+ * Each [ByteStringListPath] is written as the number of leading segments it shares with the
+ * previous path plus its remaining segments, and segment instances are deduplicated when reading,
+ * so that a large directory listing neither sends nor creates its parent segments for every entry.
+ */
+class ParcelablePathList(val list: List<Path>) : Parcelable {
+    private constructor(source: Parcel) : this(readList(source))
+
+    override fun describeContents(): Int = 0
+
+    override fun writeToParcel(dest: Parcel, flags: Int) {
+        dest.writeInt(list.size)
+        var previousPath: ByteStringListPath<*>? = null
+        for (path in list) {
+            val prefixSegmentCount = if (previousPath != null
+                && path.canShareSegmentsWith(previousPath)) {
+                getCommonPrefixSegmentCount(path as ByteStringListPath<*>, previousPath)
+            } else {
+                FULL_PATH
+            }
+            dest.writeInt(prefixSegmentCount)
+            if (prefixSegmentCount == FULL_PATH) {
+                dest.writeParcelable(path as Parcelable, flags)
+            } else {
+                path as ByteStringListPath<*>
+                dest.writeInt(path.nameCount - prefixSegmentCount)
+                for (index in prefixSegmentCount until path.nameCount) {
+                    dest.writeByteArray(path.getNameByteString(index).borrowBytes())
+                }
+            }
+            previousPath = path as? ByteStringListPath<*>
+        }
+    }
+
+    companion object {
+        private const val FULL_PATH = -1
+
+        private fun Path.canShareSegmentsWith(other: ByteStringListPath<*>): Boolean =
+            this is ByteStringListPath<*> && javaClass == other.javaClass && isDeterminedBySegments
+                && isAbsolute == other.isAbsolute && fileSystem == other.fileSystem
+
+        private fun getCommonPrefixSegmentCount(
+            path1: ByteStringListPath<*>,
+            path2: ByteStringListPath<*>
+        ): Int {
+            val maxCount = minOf(path1.nameCount, path2.nameCount)
+            var count = 0
+            while (count < maxCount
+                && path1.getNameByteString(count) == path2.getNameByteString(count)) {
+                ++count
+            }
+            return count
+        }
+
+        private fun readList(source: Parcel): List<Path> {
+            val size = source.readInt()
+            val list = ArrayList<Path>(size)
+            val segments = mutableMapOf<ByteString, ByteString>()
+            var previousPath: ByteStringListPath<*>? = null
+            repeat(size) {
+                val prefixSegmentCount = source.readInt()
+                val path = if (prefixSegmentCount == FULL_PATH) {
+                    val fullPath = source.readParcelable<Parcelable>(
+                        ParcelablePathList::class.java.classLoader
+                    ) as Path
+                    if (fullPath is ByteStringListPath<*> && fullPath.isDeterminedBySegments) {
+                        fullPath.createPathWithSegments(
+                            0, List(fullPath.nameCount) {
+                                segments.intern(fullPath.getNameByteString(it))
+                            }
+                        )
+                    } else {
+                        fullPath
+                    }
+                } else {
+                    val suffixSegmentCount = source.readInt()
+                    val suffixSegments = List(suffixSegmentCount) {
+                        segments.intern(source.createByteArray()!!.moveToByteString())
+                    }
+                    previousPath!!.createPathWithSegments(prefixSegmentCount, suffixSegments)
+                }
+                list += path
+                previousPath = path as? ByteStringListPath<*>
+            }
+            return list
+        }
+
+        private fun MutableMap<ByteString, ByteString>.intern(segment: ByteString): ByteString =
+            getOrPut(segment) { segment }
+
+        @JvmField
+        val CREATOR = object : Parcelable.Creator<ParcelablePathList> {
+            override fun createFromParcel(source: Parcel): ParcelablePathList =
+                ParcelablePathList(source)
+
+            override fun newArray(size: Int): Array<ParcelablePathList?> = arrayOfNulls(size)
+        }
+    }
+}
@@ -151,6 +151,20 @@ fun Path.newByteChannel(vararg options: OpenOption): SeekableByteChannel =
 @Throws(IOException::class)
 fun Path.newDirectoryStream(): DirectoryStream<Path> = Files.newDirectoryStream(this)
 
+/**
+ * Like [newDirectoryStream], but lets the provider read the attributes of the entries along with
+ * the listing, for when they are going to be read right afterwards.
+ */
+@Throws(IOException::class)
+fun Path.newDirectoryStreamWithAttributes(): DirectoryStream<Path> {
+    val provider = provider
+    return if (provider is DirectoryStreamWithAttributesProvider) {
+        provider.newDirectoryStreamWithAttributes(this)
+    } else {
+        newDirectoryStream()
+    }
+}
+
 @Throws(IOException::class)
 fun Path.newInputStream(vararg options: OpenOption): InputStream =
     InterruptedIOExceptionInputStream(Files.newInputStream(this, *options))
@@ -278,6 +292,21 @@ private fun ClosedByInterruptException.toInterruptedIOException(): InterruptedIO
 fun Path.observe(intervalMillis: Long): PathObservable =
     (provider as PathObservableProvider).observe(this, intervalMillis)
 
+/**
+ * @return `false` if deleting recursively on the server isn't available, in which case nothing has
+ * been deleted
+ */
+@Throws(IOException::class)
+fun Path.deleteRecursivelyOnServer(intervalMillis: Long, listener: (Int) -> Unit): Boolean =
+    (provider as? RecursiveDeletable)?.deleteRecursively(this, intervalMillis, listener) ?: false
+
+/**
+ * @return the hashes computed on the server, which may lack some or all of [algorithms]
+ */
+@Throws(IOException::class)
+fun Path.hashOnServer(algorithms: Set<HashAlgorithm>): Map<HashAlgorithm, String> =
+    (provider as? Hashable)?.hash(this, algorithms) ?: emptyMap()
+
 val Path.provider: FileSystemProvider
     get() = fileSystem.provider()
 
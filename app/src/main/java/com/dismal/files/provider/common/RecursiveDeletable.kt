@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.common
+
+import java8.nio.file.Path
+import java.io.IOException
+
+interface RecursiveDeletable {
+    /**
+     * Deletes a directory with everything in it on the server, instead of one request per file.
+     *
+     * @param listener called with the number of files deleted since the last call, if the server
+     * reports progress at all
+     * @return `false` if deleting recursively isn't available for the path, in which case nothing
+     * has been deleted
+     */
+    @Throws(IOException::class)
+    fun deleteRecursively(path: Path, intervalMillis: Long, listener: (Int) -> Unit): Boolean
+}
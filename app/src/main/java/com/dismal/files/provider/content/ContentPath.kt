@@ -62,6 +62,10 @@ internal class ContentPath : ByteStringListPath<ContentPath> {
         return ContentPath(fileSystem, segments)
     }
 
+    // The URI isn't part of the segments.
+    override val isDeterminedBySegments: Boolean
+        get() = false
+
     override val uriScheme: String
         get() {
             throw AssertionError()
@@ -29,8 +29,9 @@ import java8.nio.file.attribute.FileAttribute
 import java8.nio.file.attribute.FileAttributeView
 import java8.nio.file.spi.FileSystemProvider
 import com.dismal.files.provider.common.ByteStringPath
+import com.dismal.files.provider.common.CloseableIterator
 import com.dismal.files.provider.common.DelegateSchemeFileSystemProvider
-import com.dismal.files.provider.common.PathListDirectoryStream
+import com.dismal.files.provider.common.PathIteratorDirectoryStream
 import com.dismal.files.provider.common.PathObservable
 import com.dismal.files.provider.common.PathObservableProvider
 import com.dismal.files.provider.common.Searchable
@@ -263,13 +264,13 @@ object FtpFileSystemProvider : FileSystemProvider(), PathObservableProvider, Sea
         filter: DirectoryStream.Filter<in Path>
     ): DirectoryStream<Path> {
         directory as? FtpPath ?: throw ProviderMismatchException(directory.toString())
-        val paths = try {
+        val iterator = try {
             @Suppress("UNCHECKED_CAST")
-            Client.listDirectory(directory) as List<Path>
+            Client.openDirectoryIterator(directory) as CloseableIterator<Path>
         } catch (e: IOException) {
             throw e.toFileSystemExceptionForFtp(directory.toString())
         }
-        return PathListDirectoryStream(paths, filter)
+        return PathIteratorDirectoryStream(iterator, iterator, filter)
     }
 
     @Throws(IOException::class)
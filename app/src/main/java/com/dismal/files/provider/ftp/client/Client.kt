@@ -6,17 +6,22 @@
 package com.dismal.files.provider.ftp.client
 
 import java8.nio.channels.SeekableByteChannel
+import java8.nio.file.DirectoryIteratorException
+import com.dismal.files.provider.common.CloseableIterator
 import com.dismal.files.provider.common.DelegateInputStream
 import com.dismal.files.provider.common.DelegateOutputStream
+import com.dismal.files.provider.common.FileMetadataCache
 import com.dismal.files.provider.common.LocalWatchService
 import com.dismal.files.provider.common.NotifyEntryModifiedOutputStream
 import com.dismal.files.provider.common.NotifyEntryModifiedSeekableByteChannel
 import org.apache.commons.net.ftp.FTPClient
+import org.apache.commons.net.ftp.FTPClientAccessor
 import org.apache.commons.net.ftp.FTPClientConfig
 import org.apache.commons.net.ftp.FTPCmd
 import org.apache.commons.net.ftp.FTPFile
 import org.apache.commons.net.ftp.FTPReply
 import org.apache.commons.net.ftp.FTPSClient
+import org.apache.commons.net.ftp.parser.MLSxEntryParser
 import org.threeten.bp.Instant
 import org.threeten.bp.ZoneOffset
 import org.threeten.bp.chrono.IsoChronology
@@ -24,12 +29,12 @@ import org.threeten.bp.format.DateTimeFormatter
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
-import java.util.Collections
 import java.util.Locale
-import java.util.WeakHashMap
 import java8.nio.file.Path as Java8Path
 
 object Client {
+    private const val CACHE_TTL_MILLIS = 10 * 1000L
+
     private val TIMESTAMP_FORMATTER =
         DateTimeFormatter.ofPattern("yyyyMMddHHmmss", Locale.ROOT)
             .withChronology(IsoChronology.INSTANCE)
@@ -40,7 +45,7 @@ object Client {
 
     private val clientPool = mutableMapOf<Authority, MutableList<FTPClient>>()
 
-    private val directoryFilesCache = Collections.synchronizedMap(WeakHashMap<Path, FTPFile>())
+    private val fileCache = FileMetadataCache<FTPFile>(CACHE_TTL_MILLIS)
 
     @Throws(IOException::class)
     private fun acquireClient(authority: Authority): FTPClient {
@@ -187,7 +192,6 @@ object Client {
                 client.throwNegativeReplyCodeException()
             }
         }
-        directoryFilesCache -= path
         LocalWatchService.onEntryDeleted(path as Java8Path)
     }
 
@@ -198,7 +202,6 @@ object Client {
                 client.throwNegativeReplyCodeException()
             }
         }
-        directoryFilesCache -= path
         LocalWatchService.onEntryDeleted(path as Java8Path)
     }
 
@@ -212,8 +215,6 @@ object Client {
                 client.throwNegativeReplyCodeException()
             }
         }
-        directoryFilesCache -= source
-        directoryFilesCache -= target
         LocalWatchService.onEntryDeleted(source as Java8Path)
         LocalWatchService.onEntryCreated(target as Java8Path)
     }
@@ -231,20 +232,70 @@ object Client {
         return CompletePendingCommandInputStream(inputStream, authority, client)
     }
 
+    // MLSD entries are parsed as they arrive, so that they can be shown at once.
     @Throws(IOException::class)
-    fun listDirectory(path: Path): List<Path> {
-        useClient(path.authority) { client ->
-            val files = client.mlistDirCompat(path.remotePath)
+    fun openDirectoryIterator(path: Path): CloseableIterator<Path> {
+        val authority = path.authority
+        val client = acquireClient(authority)
+        val socket = try {
+            // Note that there is no distinct FEAT output for MLSD. The presence of the MLST feature
+            // indicates that both MLST and MLSD are supported.
+            // @see https://datatracker.ietf.org/doc/html/rfc3659#section-7.8
+            if (!client.hasFeature(FTPCmd.MLST)) {
+                // LIST output can only be parsed with the server specific parser of FTPClient.
+                val files = client.listFiles(path.remotePath)
+                    ?: client.throwNegativeReplyCodeException()
+                releaseClient(authority, client)
+                val directoryIterator = files.asSequence().toPaths(path).iterator()
+                return object : CloseableIterator<Path>, Iterator<Path> by directoryIterator {
+                    override fun close() {}
+                }
+            }
+            FTPClientAccessor.openDataConnection(client, FTPCmd.MLSD, path.remotePath)
                 ?: client.throwNegativeReplyCodeException()
-            return files.mapNotNull { file ->
-                if (file.name == "." || file.name == "..") {
-                    return@mapNotNull null
+        } catch (t: Throwable) {
+            releaseClient(authority, client)
+            throw t
+        }
+        val reader = socket.getInputStream().bufferedReader(charset(client.controlEncoding))
+        val directoryIterator = generateSequence {
+            try {
+                reader.readLine()
+            } catch (e: IOException) {
+                throw DirectoryIteratorException(e)
+            }
+        }
+            .mapNotNull { MLSxEntryParser.parseEntry(it) }
+            .toPaths(path)
+            .iterator()
+        return object : CloseableIterator<Path>, Iterator<Path> by directoryIterator {
+            override fun close() {
+                try {
+                    socket.close()
+                    if (!client.completePendingCommand()) {
+                        // This is expected if we close the listing before it's fully read.
+                        client.createNegativeReplyCodeException().printStackTrace()
+                    }
+                } catch (e: IOException) {
+                    // The reply for the listing may still be pending, so the client can't be
+                    // reused.
+                    client.disconnect()
+                    throw e
+                } finally {
+                    releaseClient(authority, client)
                 }
-                path.resolve(file.name).also { directoryFilesCache[it] = file }
             }
         }
     }
 
+    private fun Sequence<FTPFile?>.toPaths(directory: Path): Sequence<Path> =
+        mapNotNull { file ->
+            if (file == null || file.name == "." || file.name == "..") {
+                return@mapNotNull null
+            }
+            directory.resolve(file.name).also { fileCache[it as Java8Path] = file }
+        }
+
     @Throws(IOException::class)
     fun listFileOrNull(path: Path, noFollowLinks: Boolean): FTPFile? =
         try {
@@ -255,37 +306,42 @@ object Client {
 
     @Throws(IOException::class)
     fun listFile(path: Path, noFollowLinks: Boolean): FTPFile {
-        val file = listFileNoFollowLinks(path, noFollowLinks)
+        val file = listFileNoFollowLinks(path)
         if (!file.isSymbolicLink || noFollowLinks) {
             return file
         }
         val targetString = file.link ?: throw IOException("FTPFile.getLink() returned null: $file")
         val target = path.resolve(targetString)
-        return listFileNoFollowLinks(target, false)
+        return listFileNoFollowLinks(target)
     }
 
     @Throws(IOException::class)
-    private fun listFileNoFollowLinks(path: Path, preserveCacheForSymbolicLink: Boolean): FTPFile {
-        synchronized(directoryFilesCache) {
-            directoryFilesCache[path]?.let {
-                if (!(it.isSymbolicLink && preserveCacheForSymbolicLink)) {
-                    directoryFilesCache -= path
-                }
-                return it
+    private fun listFileNoFollowLinks(path: Path): FTPFile {
+        fileCache[path as Java8Path]?.let { return it.getOrThrow() }
+        val file = useClient(path.authority) { client ->
+            client.mlistFileCompat(path.remotePath) ?: run {
+                // Any negative reply means the file isn't there, as in listFileOrNull().
+                val exception = client.createNegativeReplyCodeException()
+                fileCache.putNotFound(path, exception)
+                throw exception
             }
         }
-        useClient(path.authority) { client ->
-            return client.mlistFileCompat(path.remotePath)
-                ?: client.throwNegativeReplyCodeException()
-        }
+        fileCache[path] = file
+        return file
     }
 
+
     @Throws(IOException::class)
     fun openByteChannel(path: Path, isAppend: Boolean): SeekableByteChannel {
         val authority = path.authority
         val client = acquireClient(authority)
-        if (!client.hasFeature(FTPCmd.REST)) {
-            throw IOException("Missing feature ${FTPCmd.REST.command}")
+        try {
+            if (!client.hasFeature(FTPCmd.REST)) {
+                throw IOException("Missing feature ${FTPCmd.REST.command}")
+            }
+        } catch (t: Throwable) {
+            releaseClient(authority, client)
+            throw t
         }
         return NotifyEntryModifiedSeekableByteChannel(
             FileByteChannel(
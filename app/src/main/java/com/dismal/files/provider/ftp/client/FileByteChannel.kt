@@ -22,31 +22,61 @@ class FileByteChannel(
 ) : AbstractFileByteChannel(isAppend, joinCancelledRead = true) {
     private val clientLock = Any()
 
+    // A RETR that is kept open while reads are sequential, so that each block doesn't need a new
+    // data connection.
+    private var retrieveInputStream: InputStream? = null
+    private var retrievePosition = 0L
+
     @Throws(IOException::class)
     override fun onRead(position: Long, size: Int): ByteBuffer {
         val destination = ByteBuffer.allocate(size)
         synchronized(clientLock) {
-            client.restartOffset = position
-            val inputStream = client.retrieveFileStream(path)
-                ?: client.throwNegativeReplyCodeException()
-            try {
-                val limit = inputStream.use {
-                    it.readFully(destination.array(), destination.arrayOffset(), size)
-                }
-                destination.limit(limit)
-            } finally {
-                // We will likely close the input stream before the file is fully
-                // read and it will result in a false return value here, but that's
-                // totally fine.
-                client.completePendingCommand()
+            var inputStream = retrieveInputStream
+            if (inputStream == null || position != retrievePosition) {
+                closeRetrieveInputStream()
+                client.restartOffset = position
+                inputStream = client.retrieveFileStream(path)
+                    ?: client.throwNegativeReplyCodeException()
+                retrieveInputStream = inputStream
+            }
+            val limit = try {
+                inputStream.readFully(destination.array(), destination.arrayOffset(), size)
+            } catch (e: IOException) {
+                closeRetrieveInputStream()
+                throw e
+            }
+            destination.limit(limit)
+            retrievePosition = position + limit
+            if (limit < size) {
+                // End of file, and the transfer is complete.
+                closeRetrieveInputStream()
             }
         }
         return destination
     }
 
+    // Must be called before any other command on the client, because the control connection is
+    // busy until the transfer is completed.
+    @Throws(IOException::class)
+    private fun closeRetrieveInputStream() {
+        val inputStream = retrieveInputStream ?: return
+        retrieveInputStream = null
+        try {
+            inputStream.close()
+            // We will likely close the input stream before the file is fully read and it will
+            // result in a false return value here, but that's totally fine.
+            client.completePendingCommand()
+        } catch (e: IOException) {
+            // The reply for the transfer may still be pending, so the client can't be reused.
+            client.disconnect()
+            throw e
+        }
+    }
+
     @Throws(IOException::class)
     override fun onWrite(position: Long, source: ByteBuffer) {
         synchronized(clientLock) {
+            closeRetrieveInputStream()
             client.restartOffset = position
             ByteBufferInputStream(source).use {
                 if (!client.storeFile(path, it)) {
@@ -59,6 +89,7 @@ class FileByteChannel(
     @Throws(IOException::class)
     override fun onAppend(source: ByteBuffer) {
         synchronized(clientLock) {
+            closeRetrieveInputStream()
             ByteBufferInputStream(source).use {
                 if (!client.appendFile(path, it)) {
                     client.throwNegativeReplyCodeException()
@@ -70,6 +101,7 @@ class FileByteChannel(
     @Throws(IOException::class)
     override fun onTruncate(size: Long) {
         synchronized(clientLock) {
+            closeRetrieveInputStream()
             client.restartOffset = size
             InputStream::class.nullInputStream().use {
                 if (!client.storeFile(path, it)) {
@@ -82,6 +114,7 @@ class FileByteChannel(
     @Throws(IOException::class)
     override fun onSize(): Long {
         val sizeString = synchronized(clientLock) {
+            closeRetrieveInputStream()
             client.getSize(path) ?: client.throwNegativeReplyCodeException()
         }
         return sizeString.toLongOrNull() ?: throw IOException("Invalid size $sizeString")
@@ -89,6 +122,12 @@ class FileByteChannel(
 
     @Throws(IOException::class)
     override fun onClose() {
-        synchronized(clientLock) { releaseClient(client) }
+        synchronized(clientLock) {
+            try {
+                closeRetrieveInputStream()
+            } finally {
+                releaseClient(client)
+            }
+        }
     }
 }
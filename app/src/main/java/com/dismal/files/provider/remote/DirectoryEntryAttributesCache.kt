@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.remote
+
+import android.os.SystemClock
+import java8.nio.file.LinkOption
+import java8.nio.file.Path
+import java8.nio.file.attribute.BasicFileAttributes
+import java.util.Collections
+import java.util.WeakHashMap
+
+/**
+ * Holds the attributes that came along with a remote directory listing, so that loading the file
+ * items right after it doesn't need another transaction per file.
+ *
+ * Each piece of information is served only once and only shortly after the listing, and the
+ * whole cache is cleared upon any modification through the providers or the attribute views, so
+ * that it never gets in the way of reading fresh attributes. A single cache is shared so that the
+ * attribute views can clear it as well.
+ */
+internal object DirectoryEntryAttributesCache {
+    private const val TIMEOUT_MILLIS = 10 * 1000L
+
+    private val entries = Collections.synchronizedMap(WeakHashMap<Path, Entry>())
+
+    fun putAll(directoryEntries: List<ParcelableDirectoryStream.Entry>) {
+        val expirationTimeMillis = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS
+        synchronized(entries) {
+            for (directoryEntry in directoryEntries) {
+                val attributes = directoryEntry.attributes ?: continue
+                entries[directoryEntry.path] = Entry(
+                    attributes, directoryEntry.symbolicLinkTarget,
+                    directoryEntry.symbolicLinkTargetAttributes, expirationTimeMillis
+                )
+            }
+        }
+    }
+
+    fun <A : BasicFileAttributes> takeAttributes(
+        path: Path,
+        type: Class<A>,
+        options: Array<out LinkOption>
+    ): A? {
+        val noFollowLinks = LinkOption.NOFOLLOW_LINKS in options
+        return takeFromEntry(path) {
+            val attributes = attributes
+            if (attributes != null && (noFollowLinks || !attributes.isSymbolicLink)) {
+                if (!type.isInstance(attributes)) {
+                    return@takeFromEntry null
+                }
+                this.attributes = null
+                return@takeFromEntry type.cast(attributes)
+            }
+            val symbolicLinkTargetAttributes = symbolicLinkTargetAttributes
+            if (!noFollowLinks && symbolicLinkTargetAttributes != null
+                && type.isInstance(symbolicLinkTargetAttributes)) {
+                this.symbolicLinkTargetAttributes = null
+                return@takeFromEntry type.cast(symbolicLinkTargetAttributes)
+            }
+            null
+        }
+    }
+
+    fun takeSymbolicLinkTarget(link: Path): Path? =
+        takeFromEntry(link) { symbolicLinkTarget.also { symbolicLinkTarget = null } }
+
+    fun clear() {
+        entries.clear()
+    }
+
+    private inline fun <R> takeFromEntry(path: Path, block: Entry.() -> R?): R? {
+        synchronized(entries) {
+            val entry = entries[path] ?: return null
+            if (SystemClock.elapsedRealtime() >= entry.expirationTimeMillis) {
+                entries -= path
+                return null
+            }
+            val result = entry.block()
+            if (entry.isEmpty) {
+                entries -= path
+            }
+            return result
+        }
+    }
+
+    private class Entry(
+        var attributes: BasicFileAttributes?,
+        var symbolicLinkTarget: Path?,
+        var symbolicLinkTargetAttributes: BasicFileAttributes?,
+        val expirationTimeMillis: Long
+    ) {
+        val isEmpty: Boolean
+            get() = attributes == null && symbolicLinkTarget == null
+                && symbolicLinkTargetAttributes == null
+    }
+}
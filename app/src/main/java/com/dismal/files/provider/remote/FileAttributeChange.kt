@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.remote
+
+import android.os.Parcelable
+import java8.nio.file.LinkOption
+import java8.nio.file.Path
+import java8.nio.file.attribute.BasicFileAttributes
+import kotlinx.parcelize.Parcelize
+import com.dismal.files.provider.common.PosixFileModeBit
+import com.dismal.files.provider.common.PosixGroup
+import com.dismal.files.provider.common.PosixUser
+import com.dismal.files.provider.common.getMode
+import com.dismal.files.provider.common.restoreSeLinuxContext
+import com.dismal.files.provider.common.setGroup
+import com.dismal.files.provider.common.setMode
+import com.dismal.files.provider.common.setOwner
+import com.dismal.files.provider.common.setSeLinuxContext
+import com.dismal.files.provider.common.toByteString
+import com.dismal.files.util.toEnumSet
+import java.io.IOException
+
+/**
+ * The change that a recursive attribute job makes to each file, in the same way as the file job
+ * would make it by itself.
+ */
+sealed class FileAttributeChange : Parcelable {
+    /**
+     * @param isStart whether [file] is the path that the job was started on
+     */
+    @Throws(IOException::class)
+    abstract fun applyTo(file: Path, attributes: BasicFileAttributes, isStart: Boolean)
+
+    protected fun getLinkOptions(attributes: BasicFileAttributes): Array<LinkOption> =
+        if (attributes.isSymbolicLink) arrayOf(LinkOption.NOFOLLOW_LINKS) else arrayOf()
+
+    @Parcelize
+    class Mode(
+        private val mode: Set<PosixFileModeBit>,
+        private val uppercaseX: Boolean
+    ) : FileAttributeChange() {
+        @Throws(IOException::class)
+        override fun applyTo(file: Path, attributes: BasicFileAttributes, isStart: Boolean) {
+            // We cannot set mode on symbolic links.
+            if (attributes.isSymbolicLink) {
+                return
+            }
+            // The file may actually be a directory if we are not entering it.
+            val mode = if (!attributes.isDirectory) getFileMode(file, isStart) else mode
+            // This will always follow symbolic links.
+            file.setMode(mode)
+        }
+
+        @Throws(IOException::class)
+        private fun getFileMode(file: Path, isStart: Boolean): Set<PosixFileModeBit> {
+            if (isStart || !uppercaseX) {
+                return mode
+            }
+            val mode = mode.toEnumSet()
+            val currentMode = file.getMode(LinkOption.NOFOLLOW_LINKS)!!
+            if (PosixFileModeBit.OWNER_EXECUTE !in currentMode) {
+                mode -= PosixFileModeBit.OWNER_EXECUTE
+            }
+            if (PosixFileModeBit.GROUP_EXECUTE !in currentMode) {
+                mode -= PosixFileModeBit.GROUP_EXECUTE
+            }
+            if (PosixFileModeBit.OTHERS_EXECUTE !in currentMode) {
+                mode -= PosixFileModeBit.OTHERS_EXECUTE
+            }
+            return mode
+        }
+    }
+
+    @Parcelize
+    class Owner(private val owner: PosixUser) : FileAttributeChange() {
+        @Throws(IOException::class)
+        override fun applyTo(file: Path, attributes: BasicFileAttributes, isStart: Boolean) {
+            file.setOwner(owner, *getLinkOptions(attributes))
+        }
+    }
+
+    @Parcelize
+    class Group(private val group: PosixGroup) : FileAttributeChange() {
+        @Throws(IOException::class)
+        override fun applyTo(file: Path, attributes: BasicFileAttributes, isStart: Boolean) {
+            file.setGroup(group, *getLinkOptions(attributes))
+        }
+    }
+
+    @Parcelize
+    class SeLinuxContext(private val seLinuxContext: String) : FileAttributeChange() {
+        @Throws(IOException::class)
+        override fun applyTo(file: Path, attributes: BasicFileAttributes, isStart: Boolean) {
+            file.setSeLinuxContext(seLinuxContext.toByteString(), *getLinkOptions(attributes))
+        }
+    }
+
+    @Parcelize
+    object RestoreSeLinuxContext : FileAttributeChange() {
+        @Throws(IOException::class)
+        override fun applyTo(file: Path, attributes: BasicFileAttributes, isStart: Boolean) {
+            file.restoreSeLinuxContext(*getLinkOptions(attributes))
+        }
+    }
+}
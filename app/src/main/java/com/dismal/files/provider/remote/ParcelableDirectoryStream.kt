@@ -9,40 +9,151 @@ import android.os.Parcel
 import android.os.Parcelable
 import java8.nio.file.DirectoryIteratorException
 import java8.nio.file.DirectoryStream
+import java8.nio.file.LinkOption
 import java8.nio.file.Path
+import java8.nio.file.attribute.BasicFileAttributes
+import com.dismal.files.provider.common.ParcelablePathList
 import com.dismal.files.provider.common.PathListDirectoryStream
+import com.dismal.files.provider.common.readAttributes
+import com.dismal.files.provider.common.readSymbolicLink
 import com.dismal.files.util.ParcelSlicedList
 import java.io.IOException
 
 class ParcelableDirectoryStream : Parcelable {
     private val paths: List<Path>
 
+    // Only available if requested, so that listing a directory for a copy doesn't have to read
+    // attributes that are going to be read again anyway.
+    val entries: List<Entry>?
+
     val value: DirectoryStream<Path>
         get() = PathListDirectoryStream(paths) { true }
 
     @Throws(IOException::class)
-    constructor(value: DirectoryStream<Path>) {
+    constructor(value: DirectoryStream<Path>, readAttributes: Boolean = false) {
         paths = try {
             value.toList()
         } catch (e: DirectoryIteratorException) {
             throw e.cause!!
         }
+        entries = if (readAttributes) paths.map { Entry.read(it) } else null
     }
 
     override fun describeContents(): Int = 0
 
     override fun writeToParcel(dest: Parcel, flags: Int) {
-        @Suppress("UNCHECKED_CAST")
-        dest.writeParcelable(ParcelSlicedList(paths as List<Parcelable>), flags)
+        val chunks = paths.indices.chunked(CHUNK_SIZE).map { indices ->
+            Chunk(
+                indices.map { paths[it] },
+                if (entries != null) indices.map { entries[it] } else null
+            )
+        }
+        dest.writeInt(if (entries != null) 1 else 0)
+        dest.writeParcelable(ParcelSlicedList(chunks), flags)
     }
 
     private constructor(source: Parcel) {
-        @Suppress("UNCHECKED_CAST")
-        paths = source.readParcelable<ParcelSlicedList<Parcelable>>(Path::class.java.classLoader)!!
-            .list as List<Path>
+        val hasEntries = source.readInt() != 0
+        val chunks = source.readParcelable<ParcelSlicedList<Chunk>>(
+            Chunk::class.java.classLoader
+        )!!.list
+        paths = chunks.flatMap { it.paths }
+        entries = if (hasEntries) chunks.flatMap { it.entries!! } else null
+    }
+
+    // Paths are written in chunks so that each chunk can share its parent segments, while still
+    // being sliced across transactions.
+    private class Chunk(val paths: List<Path>, val entries: List<Entry>?) : Parcelable {
+        private constructor(source: Parcel) : this(
+            source, ParcelablePathList.CREATOR.createFromParcel(source).list
+        )
+
+        private constructor(source: Parcel, paths: List<Path>) : this(
+            paths,
+            if (source.readInt() != 0) paths.map { Entry.readFromParcel(it, source) } else null
+        )
+
+        override fun describeContents(): Int = 0
+
+        override fun writeToParcel(dest: Parcel, flags: Int) {
+            ParcelablePathList(paths).writeToParcel(dest, flags)
+            if (entries != null) {
+                dest.writeInt(1)
+                entries.forEach { it.writeToParcelWithoutPath(dest, flags) }
+            } else {
+                dest.writeInt(0)
+            }
+        }
+
+        companion object {
+            @JvmField
+            val CREATOR = object : Parcelable.Creator<Chunk> {
+                override fun createFromParcel(source: Parcel): Chunk = Chunk(source)
+
+                override fun newArray(size: Int): Array<Chunk?> = arrayOfNulls(size)
+            }
+        }
+    }
+
+    /**
+     * The information that [com.dismal.files.file.loadFileItem] reads for a directory entry.
+     *
+     * Any of it can be missing if reading it failed, in which case the caller should read it again
+     * to get the exception.
+     */
+    class Entry(
+        val path: Path,
+        val attributes: BasicFileAttributes?,
+        val symbolicLinkTarget: Path?,
+        val symbolicLinkTargetAttributes: BasicFileAttributes?
+    ) {
+        fun writeToParcelWithoutPath(dest: Parcel, flags: Int) {
+            dest.writeParcelable(attributes as Parcelable?, flags)
+            dest.writeParcelable(symbolicLinkTarget as Parcelable?, flags)
+            dest.writeParcelable(symbolicLinkTargetAttributes as Parcelable?, flags)
+        }
+
+        companion object {
+            fun read(path: Path): Entry {
+                val attributes = try {
+                    path.readAttributes(BasicFileAttributes::class.java, LinkOption.NOFOLLOW_LINKS)
+                } catch (e: IOException) {
+                    e.printStackTrace()
+                    return Entry(path, null, null, null)
+                }
+                if (!attributes.isSymbolicLink) {
+                    return Entry(path, attributes, null, null)
+                }
+                val symbolicLinkTarget = try {
+                    path.readSymbolicLink()
+                } catch (e: IOException) {
+                    e.printStackTrace()
+                    null
+                }
+                val symbolicLinkTargetAttributes = try {
+                    path.readAttributes(BasicFileAttributes::class.java)
+                } catch (e: IOException) {
+                    // Broken symbolic links are common and not worth logging.
+                    null
+                }
+                return Entry(path, attributes, symbolicLinkTarget, symbolicLinkTargetAttributes)
+            }
+
+            fun readFromParcel(path: Path, source: Parcel): Entry =
+                Entry(
+                    path,
+                    source.readParcelable<Parcelable>(Entry::class.java.classLoader)
+                        as BasicFileAttributes?,
+                    source.readParcelable<Parcelable>(Entry::class.java.classLoader) as Path?,
+                    source.readParcelable<Parcelable>(Entry::class.java.classLoader)
+                        as BasicFileAttributes?
+                )
+        }
     }
 
     companion object {
+        private const val CHUNK_SIZE = 256
+
         @JvmField
         val CREATOR = object : Parcelable.Creator<ParcelableDirectoryStream> {
             override fun createFromParcel(source: Parcel): ParcelableDirectoryStream =
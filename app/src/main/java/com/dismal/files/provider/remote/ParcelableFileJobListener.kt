@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.remote
+
+import android.os.Parcel
+import android.os.Parcelable
+import android.os.RemoteException
+import java8.nio.file.Path
+import java.io.IOException
+
+class ParcelableFileJobListener(val value: RecursiveFileOperations.Listener) : Parcelable {
+    private constructor(source: Parcel) : this(
+        RemoteListener(IRemoteFileJobListener.Stub.asInterface(source.readStrongBinder()))
+    )
+
+    override fun describeContents(): Int = 0
+
+    override fun writeToParcel(dest: Parcel, flags: Int) {
+        dest.writeStrongBinder(Stub(value).asBinder())
+    }
+
+    private class RemoteListener(
+        private val listener: IRemoteFileJobListener
+    ) : RecursiveFileOperations.Listener {
+        override fun onProgress(fileCount: Int, size: Long, currentPath: Path?) {
+            try {
+                listener.onProgress(fileCount, size, currentPath?.toParcelable())
+            } catch (e: RemoteException) {
+                e.printStackTrace()
+            }
+        }
+
+        @Throws(IOException::class)
+        override fun onFallback(
+            operation: RecursiveFileOperations.Operation,
+            source: Path,
+            target: Path?
+        ): Boolean =
+            listener.call { exception ->
+                onFallback(
+                    operation.ordinal, source.toParcelable(), target?.toParcelable(), exception
+                )
+            }
+    }
+
+    private class Stub(
+        private val listener: RecursiveFileOperations.Listener
+    ) : IRemoteFileJobListener.Stub() {
+        override fun onProgress(fileCount: Int, size: Long, currentPath: ParcelableObject?) {
+            listener.onProgress(fileCount, size, currentPath?.value())
+        }
+
+        override fun onFallback(
+            operation: Int,
+            source: ParcelableObject,
+            target: ParcelableObject?,
+            exception: ParcelableException
+        ): Boolean =
+            tryRun(exception) {
+                listener.onFallback(
+                    RecursiveFileOperations.Operation.entries[operation], source.value(),
+                    target?.value()
+                )
+            } ?: false
+    }
+
+    companion object {
+        @JvmField
+        val CREATOR = object : Parcelable.Creator<ParcelableFileJobListener> {
+            override fun createFromParcel(source: Parcel): ParcelableFileJobListener =
+                ParcelableFileJobListener(source)
+
+            override fun newArray(size: Int): Array<ParcelableFileJobListener?> =
+                arrayOfNulls(size)
+        }
+    }
+}
+
+fun RecursiveFileOperations.Listener.toParcelable(): ParcelableFileJobListener =
+    ParcelableFileJobListener(this)
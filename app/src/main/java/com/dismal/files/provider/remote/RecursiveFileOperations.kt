@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.remote
+
+import java8.nio.file.CopyOption
+import java8.nio.file.DirectoryIteratorException
+import java8.nio.file.FileAlreadyExistsException
+import java8.nio.file.FileVisitResult
+import java8.nio.file.Files
+import java8.nio.file.LinkOption
+import java8.nio.file.Path
+import java8.nio.file.SimpleFileVisitor
+import java8.nio.file.StandardCopyOption
+import java8.nio.file.attribute.BasicFileAttributes
+import com.dismal.files.provider.common.ProgressCopyOption
+import com.dismal.files.provider.common.copyTo
+import com.dismal.files.provider.common.delete
+import com.dismal.files.provider.common.deleteIfExists
+import com.dismal.files.provider.common.moveTo
+import com.dismal.files.provider.common.newDirectoryStream
+import com.dismal.files.provider.common.readAttributes
+import com.dismal.files.provider.common.resolveForeign
+import java.io.IOException
+import java.io.InterruptedIOException
+
+/**
+ * Recursive copy, move, delete and attribute changes that run entirely in the remote process, so
+ * that a file job doesn't need a few transactions for every file.
+ *
+ * Only the plain operation is done here. Whenever it fails for a file, e.g. due to a conflict or
+ * an error, the file is handed back through [Listener.onFallback] so that the caller can handle it
+ * the usual way, including asking the user. Whatever a failure left behind at the target is deleted
+ * first, so that the caller doesn't take it for a conflict.
+ */
+class RecursiveFileOperations(
+    private val intervalMillis: Long,
+    private val listener: Listener
+) {
+    private var pendingFileCount = 0
+    private var pendingSize = 0L
+    private var lastProgressMillis = System.currentTimeMillis()
+
+    @Throws(IOException::class)
+    fun copy(source: Path, target: Path, isMove: Boolean) {
+        Files.walkFileTree(source, object : SimpleFileVisitor<Path>() {
+            @Throws(IOException::class)
+            override fun preVisitDirectory(
+                directory: Path,
+                attributes: BasicFileAttributes
+            ): FileVisitResult {
+                val directoryInTarget = target.resolveForeign(source.relativize(directory))
+                if (isMove && moveAtomically(directory, directoryInTarget)) {
+                    throwIfInterrupted()
+                    return FileVisitResult.SKIP_SUBTREE
+                }
+                val copied = copyOrMove(
+                    directory, directoryInTarget, if (isMove) {
+                        Operation.COPY_FOR_MOVE
+                    } else {
+                        Operation.COPY
+                    }, true, isMove
+                )
+                throwIfInterrupted()
+                return if (copied) FileVisitResult.CONTINUE else FileVisitResult.SKIP_SUBTREE
+            }
+
+            @Throws(IOException::class)
+            override fun visitFile(file: Path, attributes: BasicFileAttributes): FileVisitResult {
+                val fileInTarget = target.resolveForeign(source.relativize(file))
+                if (!(isMove && moveAtomically(file, fileInTarget))) {
+                    copyOrMove(
+                        file, fileInTarget, if (isMove) Operation.MOVE else Operation.COPY,
+                        !isMove, isMove
+                    )
+                }
+                throwIfInterrupted()
+                return FileVisitResult.CONTINUE
+            }
+
+            @Throws(IOException::class)
+            override fun postVisitDirectory(
+                directory: Path,
+                exception: IOException?
+            ): FileVisitResult {
+                if (exception != null) {
+                    throw exception
+                }
+                if (isMove) {
+                    delete(directory, Operation.DELETE_FOR_MOVE)
+                    throwIfInterrupted()
+                }
+                return FileVisitResult.CONTINUE
+            }
+        })
+        postProgress()
+    }
+
+    @Throws(IOException::class)
+    fun delete(path: Path) {
+        Files.walkFileTree(path, object : SimpleFileVisitor<Path>() {
+            @Throws(IOException::class)
+            override fun visitFile(file: Path, attributes: BasicFileAttributes): FileVisitResult {
+                delete(file, Operation.DELETE)
+                throwIfInterrupted()
+                return FileVisitResult.CONTINUE
+            }
+
+            @Throws(IOException::class)
+            override fun postVisitDirectory(
+                directory: Path,
+                exception: IOException?
+            ): FileVisitResult {
+                if (exception != null) {
+                    throw exception
+                }
+                delete(directory, Operation.DELETE)
+                throwIfInterrupted()
+                return FileVisitResult.CONTINUE
+            }
+        })
+        postProgress()
+    }
+
+    /**
+     * Walks like the attribute file jobs do, where the attributes of [start] prefer following
+     * links and each directory is changed before it's entered.
+     */
+    @Throws(IOException::class)
+    fun setAttributes(start: Path, recursive: Boolean, change: FileAttributeChange) {
+        val attributes = try {
+            start.readAttributes(BasicFileAttributes::class.java)
+        } catch (ignored: IOException) {
+            start.readAttributes(BasicFileAttributes::class.java, LinkOption.NOFOLLOW_LINKS)
+        }
+        setAttributes(start, attributes, change, true)
+        if (recursive && attributes.isDirectory) {
+            start.newDirectoryStream().use { directoryStream ->
+                try {
+                    for (path in directoryStream) {
+                        Files.walkFileTree(path, object : SimpleFileVisitor<Path>() {
+                            @Throws(IOException::class)
+                            override fun preVisitDirectory(
+                                directory: Path,
+                                attributes: BasicFileAttributes
+                            ): FileVisitResult = visitFile(directory, attributes)
+
+                            @Throws(IOException::class)
+                            override fun visitFile(
+                                file: Path,
+                                attributes: BasicFileAttributes
+                            ): FileVisitResult {
+                                setAttributes(file, attributes, change, false)
+                                return FileVisitResult.CONTINUE
+                            }
+                        })
+                    }
+                } catch (e: DirectoryIteratorException) {
+                    throw e.cause
+                }
+            }
+        }
+        postProgress()
+    }
+
+    @Throws(IOException::class)
+    private fun setAttributes(
+        path: Path,
+        attributes: BasicFileAttributes,
+        change: FileAttributeChange,
+        isStart: Boolean
+    ) {
+        try {
+            change.applyTo(path, attributes, isStart)
+        } catch (e: InterruptedIOException) {
+            throw e
+        } catch (e: IOException) {
+            fallback(Operation.SET_ATTRIBUTES, path, null)
+            throwIfInterrupted()
+            return
+        }
+        addProgress(1, 0, path)
+        throwIfInterrupted()
+    }
+
+    @Throws(InterruptedIOException::class)
+    private fun moveAtomically(source: Path, target: Path): Boolean =
+        try {
+            source.moveTo(target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.ATOMIC_MOVE)
+            true
+        } catch (e: InterruptedIOException) {
+            throw e
+        } catch (e: IOException) {
+            false
+        }
+
+    @Throws(IOException::class)
+    private fun copyOrMove(
+        source: Path,
+        target: Path,
+        operation: Operation,
+        useCopy: Boolean,
+        copyAttributes: Boolean
+    ): Boolean {
+        // Leave copying or moving into or over the source itself to the caller to report.
+        if (target.parent.startsWith(source) || source.startsWith(target)) {
+            return fallback(operation, source, target)
+        }
+        var copiedSize = 0L
+        val options = mutableListOf<CopyOption>().apply {
+            this += LinkOption.NOFOLLOW_LINKS
+            if (copyAttributes) {
+                this += StandardCopyOption.COPY_ATTRIBUTES
+            }
+            this += ProgressCopyOption(intervalMillis) {
+                copiedSize += it
+                addProgress(0, it, source)
+            }
+        }.toTypedArray()
+        try {
+            if (useCopy) {
+                source.copyTo(target, *options)
+            } else {
+                source.moveTo(target, *options)
+            }
+        } catch (e: InterruptedIOException) {
+            throw e
+        } catch (e: FileAlreadyExistsException) {
+            return fallback(operation, source, target)
+        } catch (e: IOException) {
+            // The caller will count the file as a whole if it copies or moves it again.
+            addProgress(0, -copiedSize, source)
+            // The target didn't exist before, so whatever is left there is ours, and it would be
+            // taken for a conflict by the caller.
+            try {
+                target.deleteIfExists()
+            } catch (e2: IOException) {
+                e2.printStackTrace()
+            }
+            return fallback(operation, source, target)
+        }
+        addProgress(1, 0, source)
+        return true
+    }
+
+    @Throws(IOException::class)
+    private fun delete(path: Path, operation: Operation) {
+        try {
+            path.delete()
+        } catch (e: InterruptedIOException) {
+            throw e
+        } catch (e: IOException) {
+            fallback(operation, path, null)
+            return
+        }
+        // A directory deleted after a move isn't a transferred file.
+        if (operation == Operation.DELETE) {
+            addProgress(1, 0, path)
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun fallback(operation: Operation, source: Path, target: Path?): Boolean {
+        postProgress()
+        return listener.onFallback(operation, source, target)
+    }
+
+    private fun addProgress(fileCount: Int, size: Long, currentPath: Path) {
+        pendingFileCount += fileCount
+        pendingSize += size
+        val currentTimeMillis = System.currentTimeMillis()
+        if (currentTimeMillis >= lastProgressMillis + intervalMillis) {
+            postProgress(currentPath)
+            lastProgressMillis = currentTimeMillis
+        }
+    }
+
+    private fun postProgress(currentPath: Path? = null) {
+        if (pendingFileCount == 0 && pendingSize == 0L) {
+            return
+        }
+        listener.onProgress(pendingFileCount, pendingSize, currentPath)
+        pendingFileCount = 0
+        pendingSize = 0
+    }
+
+    @Throws(InterruptedIOException::class)
+    private fun throwIfInterrupted() {
+        if (Thread.interrupted()) {
+            throw InterruptedIOException()
+        }
+    }
+
+    enum class Operation {
+        COPY,
+        COPY_FOR_MOVE,
+        MOVE,
+        DELETE,
+        DELETE_FOR_MOVE,
+        SET_ATTRIBUTES
+    }
+
+    interface Listener {
+        fun onProgress(fileCount: Int, size: Long, currentPath: Path?)
+
+        /**
+         * @return whether the file was copied or moved, i.e. whether to continue into a directory
+         */
+        @Throws(IOException::class)
+        fun onFallback(operation: Operation, source: Path, target: Path?): Boolean
+    }
+}
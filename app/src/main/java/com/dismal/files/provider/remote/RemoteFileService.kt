@@ -5,11 +5,28 @@
 
 package com.dismal.files.provider.remote
 
+import android.os.Bundle
 import java8.nio.file.FileSystem
+import java8.nio.file.Path
+import kotlinx.coroutines.runBlocking
 import com.dismal.files.provider.common.PosixFileAttributeView
 import com.dismal.files.provider.common.PosixFileStore
+import com.dismal.files.util.RemoteCallback
+import com.dismal.files.util.getArgs
+import java.io.IOException
+import java.io.InterruptedIOException
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+import kotlin.coroutines.suspendCoroutine
 
 abstract class RemoteFileService(private val remoteInterface: RemoteInterface<IRemoteFileService>) {
+    fun isConnected(): Boolean = remoteInterface.has()
+
+    @Throws(RemoteFileSystemException::class)
+    fun connect() {
+        remoteInterface.get()
+    }
+
     @Throws(RemoteFileSystemException::class)
     fun getRemoteFileSystemProviderInterface(scheme: String): IRemoteFileSystemProvider =
         remoteInterface.get().call { getRemoteFileSystemProviderInterface(scheme) }
@@ -39,4 +56,73 @@ abstract class RemoteFileService(private val remoteInterface: RemoteInterface<IR
     fun refreshArchiveFileSystem(fileSystem: FileSystem) {
         remoteInterface.get().call { refreshArchiveFileSystem(fileSystem.toParcelable()) }
     }
+
+    @Throws(IOException::class)
+    fun copyRecursively(
+        source: Path,
+        target: Path,
+        isMove: Boolean,
+        intervalMillis: Long,
+        listener: RecursiveFileOperations.Listener
+    ) {
+        callInterruptibly { callback ->
+            copyRecursively(
+                source.toParcelable(), target.toParcelable(), isMove, intervalMillis,
+                listener.toParcelable(), callback
+            )
+        }
+    }
+
+    @Throws(IOException::class)
+    fun deleteRecursively(
+        path: Path,
+        intervalMillis: Long,
+        listener: RecursiveFileOperations.Listener
+    ) {
+        callInterruptibly { callback ->
+            deleteRecursively(
+                path.toParcelable(), intervalMillis, listener.toParcelable(), callback
+            )
+        }
+    }
+
+    @Throws(IOException::class)
+    fun setAttributesRecursively(
+        path: Path,
+        recursive: Boolean,
+        change: FileAttributeChange,
+        intervalMillis: Long,
+        listener: RecursiveFileOperations.Listener
+    ) {
+        callInterruptibly { callback ->
+            setAttributesRecursively(
+                path.toParcelable(), recursive, change.toParcelable(), intervalMillis,
+                listener.toParcelable(), callback
+            )
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun callInterruptibly(block: IRemoteFileService.(RemoteCallback) -> RemoteCallback) {
+        var interruptible: RemoteCallback? = null
+        try {
+            runBlocking<Unit> {
+                suspendCoroutine { continuation ->
+                    val callback = RemoteCallback {
+                        val exception = it.getArgs<RemoteFileSystemProvider.CallbackArgs>()
+                            .exception.value
+                        if (exception != null) {
+                            continuation.resumeWithException(exception)
+                        } else {
+                            continuation.resume(Unit)
+                        }
+                    }
+                    interruptible = remoteInterface.get().call { block(callback) }
+                }
+            }
+        } catch (e: InterruptedException) {
+            interruptible?.sendResult(Bundle())
+            throw InterruptedIOException().apply { initCause(e) }
+        }
+    }
 }
@@ -9,8 +9,13 @@ import java8.nio.file.FileSystem
 import com.dismal.files.provider.FileSystemProviders
 import com.dismal.files.provider.archive.archiveRefresh
 import com.dismal.files.provider.archive.archiveSetPasswords
+import com.dismal.files.util.RemoteCallback
+import com.dismal.files.util.toBundle
+import java.util.concurrent.Executors
 
 open class RemoteFileServiceInterface : IRemoteFileService.Stub() {
+    private val executorService = Executors.newCachedThreadPool()
+
     override fun getRemoteFileSystemProviderInterface(scheme: String): IRemoteFileSystemProvider =
         RemoteFileSystemProviderInterface(FileSystemProviders[scheme])
 
@@ -33,4 +38,58 @@ open class RemoteFileServiceInterface : IRemoteFileService.Stub() {
     override fun refreshArchiveFileSystem(fileSystem: ParcelableObject) {
         fileSystem.value<FileSystem>().getPath("").archiveRefresh()
     }
+
+    override fun copyRecursively(
+        source: ParcelableObject,
+        target: ParcelableObject,
+        isMove: Boolean,
+        intervalMillis: Long,
+        listener: ParcelableFileJobListener,
+        callback: RemoteCallback
+    ): RemoteCallback {
+        val future = executorService.submit<Unit> {
+            val exception = ParcelableException()
+            tryRun(exception) {
+                RecursiveFileOperations(intervalMillis, listener.value)
+                    .copy(source.value(), target.value(), isMove)
+            }
+            callback.sendResult(RemoteFileSystemProvider.CallbackArgs(exception).toBundle())
+        }
+        return RemoteCallback { future.cancel(true) }
+    }
+
+    override fun deleteRecursively(
+        path: ParcelableObject,
+        intervalMillis: Long,
+        listener: ParcelableFileJobListener,
+        callback: RemoteCallback
+    ): RemoteCallback {
+        val future = executorService.submit<Unit> {
+            val exception = ParcelableException()
+            tryRun(exception) {
+                RecursiveFileOperations(intervalMillis, listener.value).delete(path.value())
+            }
+            callback.sendResult(RemoteFileSystemProvider.CallbackArgs(exception).toBundle())
+        }
+        return RemoteCallback { future.cancel(true) }
+    }
+
+    override fun setAttributesRecursively(
+        path: ParcelableObject,
+        recursive: Boolean,
+        change: ParcelableObject,
+        intervalMillis: Long,
+        listener: ParcelableFileJobListener,
+        callback: RemoteCallback
+    ): RemoteCallback {
+        val future = executorService.submit<Unit> {
+            val exception = ParcelableException()
+            tryRun(exception) {
+                RecursiveFileOperations(intervalMillis, listener.value)
+                    .setAttributes(path.value(), recursive, change.value())
+            }
+            callback.sendResult(RemoteFileSystemProvider.CallbackArgs(exception).toBundle())
+        }
+        return RemoteCallback { future.cancel(true) }
+    }
 }
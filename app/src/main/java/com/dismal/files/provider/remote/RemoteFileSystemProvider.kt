@@ -17,11 +17,13 @@ import java8.nio.file.FileStore
 import java8.nio.file.LinkOption
 import java8.nio.file.OpenOption
 import java8.nio.file.Path
+import java8.nio.file.StandardOpenOption
 import java8.nio.file.attribute.BasicFileAttributes
 import java8.nio.file.attribute.FileAttribute
 import java8.nio.file.spi.FileSystemProvider
 import kotlinx.coroutines.runBlocking
 import kotlinx.parcelize.Parcelize
+import com.dismal.files.provider.common.DirectoryStreamWithAttributesProvider
 import com.dismal.files.provider.common.PathObservable
 import com.dismal.files.provider.common.PathObservableProvider
 import com.dismal.files.provider.common.Searchable
@@ -38,7 +40,8 @@ import kotlin.coroutines.suspendCoroutine
 
 abstract class RemoteFileSystemProvider(
     private val remoteInterface: RemoteInterface<IRemoteFileSystemProvider>
-) : FileSystemProvider(), PathObservableProvider, Searchable {
+) : FileSystemProvider(), DirectoryStreamWithAttributesProvider, PathObservableProvider,
+    Searchable {
     @Throws(IOException::class)
     override fun newInputStream(file: Path, vararg options: OpenOption): InputStream =
         remoteInterface.get().call { exception ->
@@ -64,6 +67,10 @@ abstract class RemoteFileSystemProvider(
             is Serializable -> options
             else -> options.toSet() as Serializable
         }
+        // Read-only opens are exactly when the cached attributes are wanted, e.g. for thumbnails.
+        if (options.any { it in MODIFYING_OPEN_OPTIONS }) {
+            DirectoryEntryAttributesCache.clear()
+        }
         return remoteInterface.get().call { exception ->
             newByteChannel(
                 file.toParcelable(), options.toParcelable(), attributes.toParcelable(), exception
@@ -86,8 +93,21 @@ abstract class RemoteFileSystemProvider(
         }.value
     }
 
+    @Throws(IOException::class)
+    override fun newDirectoryStreamWithAttributes(directory: Path): DirectoryStream<Path> {
+        val directoryStream = remoteInterface.get().call { exception ->
+            newDirectoryStreamWithAttributes(
+                directory.toParcelable(), ParcelableAcceptAllFilter.instance.toParcelable(),
+                exception
+            )
+        }
+        directoryStream.entries?.let { DirectoryEntryAttributesCache.putAll(it) }
+        return directoryStream.value
+    }
+
     @Throws(IOException::class)
     override fun createDirectory(directory: Path, vararg attributes: FileAttribute<*>) {
+        DirectoryEntryAttributesCache.clear()
         remoteInterface.get().call { exception ->
             createDirectory(directory.toParcelable(), attributes.toParcelable(), exception)
         }
@@ -95,6 +115,7 @@ abstract class RemoteFileSystemProvider(
 
     @Throws(IOException::class)
     override fun createSymbolicLink(link: Path, target: Path, vararg attributes: FileAttribute<*>) {
+        DirectoryEntryAttributesCache.clear()
         remoteInterface.get().call { exception ->
             createSymbolicLink(
                 link.toParcelable(), target.toParcelable(), attributes.toParcelable(), exception
@@ -104,6 +125,7 @@ abstract class RemoteFileSystemProvider(
 
     @Throws(IOException::class)
     override fun createLink(link: Path, existing: Path) {
+        DirectoryEntryAttributesCache.clear()
         remoteInterface.get().call { exception ->
             createLink(link.toParcelable(), existing.toParcelable(), exception)
         }
@@ -111,17 +133,20 @@ abstract class RemoteFileSystemProvider(
 
     @Throws(IOException::class)
     override fun delete(path: Path) {
+        DirectoryEntryAttributesCache.clear()
         remoteInterface.get().call { exception -> delete(path.toParcelable(), exception) }
     }
 
     @Throws(IOException::class)
     override fun readSymbolicLink(link: Path): Path =
-        remoteInterface.get().call { exception ->
-            readSymbolicLink(link.toParcelable(), exception)
-        }.value()
+        DirectoryEntryAttributesCache.takeSymbolicLinkTarget(link)
+            ?: remoteInterface.get().call { exception ->
+                readSymbolicLink(link.toParcelable(), exception)
+            }.value()
 
     @Throws(IOException::class)
     override fun copy(source: Path, target: Path, vararg options: CopyOption) {
+        DirectoryEntryAttributesCache.clear()
         var interruptible: RemoteCallback? = null
         try {
             runBlocking<Unit> {
@@ -150,6 +175,7 @@ abstract class RemoteFileSystemProvider(
 
     @Throws(IOException::class)
     override fun move(source: Path, target: Path, vararg options: CopyOption) {
+        DirectoryEntryAttributesCache.clear()
         var interruptible: RemoteCallback? = null
         try {
             runBlocking<Unit> {
@@ -205,11 +231,12 @@ abstract class RemoteFileSystemProvider(
         type: Class<A>,
         vararg options: LinkOption
     ): A =
-        remoteInterface.get().call { exception ->
-            readAttributes(
-                path.toParcelable(), type.toParcelable(), options.toParcelable(), exception
-            )
-        }.value()
+        DirectoryEntryAttributesCache.takeAttributes(path, type, options)
+            ?: remoteInterface.get().call { exception ->
+                readAttributes(
+                    path.toParcelable(), type.toParcelable(), options.toParcelable(), exception
+                )
+            }.value()
 
     @Throws(IOException::class)
     override fun readAttributes(
@@ -292,4 +319,12 @@ abstract class RemoteFileSystemProvider(
 
     @Parcelize
     internal class CallbackArgs(val exception: ParcelableException) : ParcelableArgs
+
+    companion object {
+        private val MODIFYING_OPEN_OPTIONS = setOf(
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE,
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.DELETE_ON_CLOSE
+        )
+    }
 }
@@ -45,6 +45,16 @@ class RemoteFileSystemProviderInterface(
                 .use { ParcelableDirectoryStream(it) }
         }
 
+    override fun newDirectoryStreamWithAttributes(
+        directory: ParcelableObject,
+        filter: ParcelableObject,
+        exception: ParcelableException
+    ): ParcelableDirectoryStream? =
+        tryRun(exception) {
+            provider.newDirectoryStream(directory.value(), filter.value())
+                .use { ParcelableDirectoryStream(it, true) }
+        }
+
     override fun createDirectory(
         directory: ParcelableObject,
         attributes: ParcelableFileAttributes,
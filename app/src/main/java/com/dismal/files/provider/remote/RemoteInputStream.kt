@@ -6,14 +6,22 @@
 package com.dismal.files.provider.remote
 
 import android.os.Parcel
+import android.os.ParcelFileDescriptor
 import android.os.Parcelable
+import java.io.FileInputStream
+import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStream
+import java.util.concurrent.Executors
 
 class RemoteInputStream : InputStream, Parcelable {
     private val localInputStream: InputStream?
     private val remoteInputStream: IRemoteInputStream?
 
+    // Data is read through a pipe once reading starts, instead of a transaction per read.
+    private var pipe: ParcelFileDescriptor? = null
+    private var pipeInputStream: InputStream? = null
+
     constructor(inputStream: InputStream) {
         localInputStream = inputStream
         remoteInputStream = null
@@ -22,7 +30,7 @@ class RemoteInputStream : InputStream, Parcelable {
     @Throws(IOException::class)
     override fun read(): Int =
         if (remoteInputStream != null) {
-            remoteInputStream.call { exception -> read(exception) }
+            getPipeInputStream().read().also { if (it == -1) pipe!!.checkError() }
         } else {
             localInputStream!!.read()
         }
@@ -30,20 +38,29 @@ class RemoteInputStream : InputStream, Parcelable {
     @Throws(IOException::class)
     override fun read(buffer: ByteArray, offset: Int, length: Int): Int =
         if (remoteInputStream != null) {
-            val remoteBuffer = ByteArray(length)
-            val size = remoteInputStream.call { exception -> read2(remoteBuffer, exception) }
-            if (size > 0) {
-                remoteBuffer.copyInto(buffer, offset, 0, size)
-            }
-            size
+            getPipeInputStream().read(buffer, offset, length)
+                .also { if (it == -1) pipe!!.checkError() }
         } else {
             localInputStream!!.read(buffer, offset, length)
         }
 
+    @Throws(IOException::class)
+    private fun getPipeInputStream(): InputStream {
+        pipeInputStream?.let { return it }
+        val pipe = remoteInputStream!!.call { exception -> openPipe(exception) }
+        this.pipe = pipe
+        return FileInputStream(pipe.fileDescriptor).also { pipeInputStream = it }
+    }
+
     @Throws(IOException::class)
     override fun skip(size: Long): Long =
         if (remoteInputStream != null) {
-            remoteInputStream.call { exception -> skip(size, exception) }
+            if (pipeInputStream != null) {
+                // Pipes can't seek, and the data being skipped may already be in the pipe.
+                super.skip(size)
+            } else {
+                remoteInputStream.call { exception -> skip(size, exception) }
+            }
         } else {
             localInputStream!!.skip(size)
         }
@@ -51,7 +68,8 @@ class RemoteInputStream : InputStream, Parcelable {
     @Throws(IOException::class)
     override fun available(): Int =
         if (remoteInputStream != null) {
-            remoteInputStream.call { exception -> available(exception) }
+            pipeInputStream?.available()
+                ?: remoteInputStream.call { exception -> available(exception) }
         } else {
             localInputStream!!.available()
         }
@@ -59,7 +77,12 @@ class RemoteInputStream : InputStream, Parcelable {
     @Throws(IOException::class)
     override fun close() {
         if (remoteInputStream != null) {
-            remoteInputStream.call { exception -> close(exception) }
+            try {
+                // Closing the read side first makes the pump fail fast if it's blocked on writing.
+                pipe?.close()
+            } finally {
+                remoteInputStream.call { exception -> close(exception) }
+            }
         } else {
             localInputStream!!.close()
         }
@@ -81,6 +104,40 @@ class RemoteInputStream : InputStream, Parcelable {
         override fun close(exception: ParcelableException) {
             tryRun(exception) { mInputStream.close() }
         }
+
+        override fun openPipe(exception: ParcelableException): ParcelFileDescriptor? =
+            tryRun(exception) {
+                val (readSide, writeSide) = ParcelFileDescriptor.createReliablePipe()
+                pumpExecutorService.execute { pump(writeSide) }
+                readSide
+            }
+
+        private fun pump(writeSide: ParcelFileDescriptor) {
+            try {
+                val outputStream = FileOutputStream(writeSide.fileDescriptor)
+                val buffer = ByteArray(PIPE_BUFFER_SIZE)
+                while (true) {
+                    val size = mInputStream.read(buffer)
+                    if (size == -1) {
+                        break
+                    }
+                    outputStream.write(buffer, 0, size)
+                }
+            } catch (e: Exception) {
+                // The client may simply have closed the pipe, and will see the error otherwise.
+                try {
+                    writeSide.closeWithError(e.toString())
+                } catch (e2: IOException) {
+                    e2.printStackTrace()
+                }
+                return
+            }
+            try {
+                writeSide.close()
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+        }
     }
 
     private constructor(source: Parcel) {
@@ -99,6 +156,10 @@ class RemoteInputStream : InputStream, Parcelable {
     }
 
     companion object {
+        private const val PIPE_BUFFER_SIZE = 256 * 1024
+
+        private val pumpExecutorService = Executors.newCachedThreadPool()
+
         @JvmField
         val CREATOR = object : Parcelable.Creator<RemoteInputStream> {
             override fun createFromParcel(source: Parcel): RemoteInputStream =
@@ -26,6 +26,13 @@ class RemoteInterface<T : IInterface>(
     fun get(): T {
         synchronized(lock) {
             var value = value
+            // The death notification is asynchronous, so check the binder as well to reconnect
+            // right away instead of failing the call.
+            if (value != null && !value.asBinder().isBinderAlive) {
+                value.asBinder().unlinkToDeath(deathRecipient, 0)
+                value = null
+                this.value = null
+            }
             if (value == null) {
                 value = creator()
                 this.value = value
@@ -43,8 +50,13 @@ class RemoteInterface<T : IInterface>(
 
     private fun binderDied() {
         synchronized(lock) {
-            value!!.asBinder().unlinkToDeath(deathRecipient, 0)
-            value = null
+            // We might have already reconnected in get().
+            val value = value ?: return
+            if (value.asBinder().isBinderAlive) {
+                return
+            }
+            value.asBinder().unlinkToDeath(deathRecipient, 0)
+            this.value = null
         }
     }
 
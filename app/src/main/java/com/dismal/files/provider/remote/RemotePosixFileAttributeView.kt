@@ -28,6 +28,7 @@ abstract class RemotePosixFileAttributeView(
         lastAccessTime: FileTime?,
         createTime: FileTime?
     ) {
+        DirectoryEntryAttributesCache.clear()
         remoteInterface.get().call { exception ->
             setTimes(
                 lastModifiedTime?.toParcelable(), lastAccessTime?.toParcelable(),
@@ -38,21 +39,25 @@ abstract class RemotePosixFileAttributeView(
 
     @Throws(IOException::class)
     override fun setOwner(owner: PosixUser) {
+        DirectoryEntryAttributesCache.clear()
         remoteInterface.get().call { exception -> setOwner(owner, exception) }
     }
 
     @Throws(IOException::class)
     override fun setGroup(group: PosixGroup) {
+        DirectoryEntryAttributesCache.clear()
         remoteInterface.get().call { exception -> setGroup(group, exception) }
     }
 
     @Throws(IOException::class)
     override fun setMode(mode: Set<PosixFileModeBit>) {
+        DirectoryEntryAttributesCache.clear()
         remoteInterface.get().call { exception -> setMode(mode.toParcelable(), exception) }
     }
 
     @Throws(IOException::class)
     override fun setSeLinuxContext(context: ByteString) {
+        DirectoryEntryAttributesCache.clear()
         remoteInterface.get().call { exception ->
             setSeLinuxContext(context.toParcelable(), exception)
         }
@@ -60,6 +65,7 @@ abstract class RemotePosixFileAttributeView(
 
     @Throws(IOException::class)
     override fun restoreSeLinuxContext() {
+        DirectoryEntryAttributesCache.clear()
         remoteInterface.get().call { exception -> restoreSeLinuxContext(exception) }
     }
 }
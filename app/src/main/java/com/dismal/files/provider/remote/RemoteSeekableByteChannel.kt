@@ -5,13 +5,21 @@
 
 package com.dismal.files.provider.remote
 
+import android.os.Build
 import android.os.Parcel
 import android.os.Parcelable
+import android.os.RemoteException
+import android.os.SharedMemory
+import android.system.ErrnoException
+import androidx.annotation.RequiresApi
 import java8.nio.channels.SeekableByteChannel
 import com.dismal.files.provider.common.ForceableChannel
 import com.dismal.files.provider.common.force
 import java.io.IOException
+import java.io.InterruptedIOException
 import java.nio.ByteBuffer
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
 
 class RemoteSeekableByteChannel : ForceableChannel, SeekableByteChannel, Parcelable {
     private val localChannel: SeekableByteChannel?
@@ -20,42 +28,157 @@ class RemoteSeekableByteChannel : ForceableChannel, SeekableByteChannel, Parcela
     @Volatile
     private var isRemoteClosed = false
 
+    // Data is transferred through memory shared with the remote process when possible, instead of
+    // being copied into and out of transactions that are also limited in size.
+    private var sharedMemory: SharedMemory? = null
+    private var sharedBuffer: ByteBuffer? = null
+    private var isSharedMemoryUnavailable = Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1
+
+    // Writes through shared memory are oneway and pipelined through a ring of slots, so that the
+    // remote disk I/O overlaps with the next write. Every other call waits for them first, and an
+    // error from them is thrown from that call.
+    private var writeCount = 0L
+    private var awaitedWriteCount = 0L
+
     constructor(channel: SeekableByteChannel) {
         localChannel = channel
         remoteChannel = null
     }
 
     @Throws(IOException::class)
-    override fun read(destination: ByteBuffer): Int =
-        if (remoteChannel != null) {
-            val destinationBytes = ByteArray(destination.remaining())
-            val size = remoteChannel.call { exception -> read(destinationBytes, exception) }
-            if (size > 0) {
-                destination.put(destinationBytes, 0, size)
+    override fun read(destination: ByteBuffer): Int {
+        if (remoteChannel == null) {
+            return localChannel!!.read(destination)
+        }
+        synchronized(this) {
+            awaitWrites(writeCount)
+            val sharedBuffer = getSharedBuffer()
+            if (sharedBuffer != null) {
+                val size = remoteChannel.call { exception ->
+                    readShared(
+                        destination.remaining().coerceAtMost(sharedBuffer.capacity()), exception
+                    )
+                }
+                if (size > 0) {
+                    sharedBuffer.position(0)
+                    sharedBuffer.limit(size)
+                    destination.put(sharedBuffer)
+                }
+                return size
             }
-            size
-        } else {
-            localChannel!!.read(destination)
         }
+        val destinationBytes = ByteArray(destination.remaining())
+        val size = remoteChannel.call { exception -> read(destinationBytes, exception) }
+        if (size > 0) {
+            destination.put(destinationBytes, 0, size)
+        }
+        return size
+    }
 
     @Throws(IOException::class)
-    override fun write(source: ByteBuffer): Int =
-        if (remoteChannel != null) {
-            val oldPosition = source.position()
-            val sourceBytes = ByteArray(source.remaining())
-            source.get(sourceBytes)
-            source.position(oldPosition)
-            val size = remoteChannel.call { exception -> write(sourceBytes, exception) }
-            source.position(oldPosition + size)
-            size
+    override fun write(source: ByteBuffer): Int {
+        if (remoteChannel == null) {
+            return localChannel!!.write(source)
+        }
+        val oldPosition = source.position()
+        synchronized(this) {
+            val sharedBuffer = getSharedBuffer()
+            if (sharedBuffer != null) {
+                // Wait for the write that last used the slot.
+                awaitWrites(writeCount - WRITE_SLOT_COUNT + 1)
+                val slotOffset = (writeCount % WRITE_SLOT_COUNT).toInt() * WRITE_SLOT_SIZE
+                val length = source.remaining().coerceAtMost(WRITE_SLOT_SIZE)
+                val oldLimit = source.limit()
+                source.limit(oldPosition + length)
+                sharedBuffer.clear()
+                sharedBuffer.position(slotOffset)
+                sharedBuffer.put(source)
+                source.limit(oldLimit)
+                try {
+                    remoteChannel.writeSharedAsync(writeCount, length)
+                } catch (e: RemoteException) {
+                    source.position(oldPosition)
+                    throw RemoteFileSystemException(e)
+                }
+                ++writeCount
+                return length
+            }
+            awaitWrites(writeCount)
+        }
+        val sourceBytes = ByteArray(source.remaining())
+        source.get(sourceBytes)
+        source.position(oldPosition)
+        val size = remoteChannel.call { exception -> write(sourceBytes, exception) }
+        source.position(oldPosition + size)
+        return size
+    }
+
+    // Must be called with the lock held.
+    @Throws(IOException::class)
+    private fun awaitWrites(count: Long) {
+        if (count <= awaitedWriteCount) {
+            return
+        }
+        try {
+            remoteChannel!!.call { exception -> awaitWrites(count, exception) }
+        } finally {
+            // The remote side has waited for the writes even if one of them failed.
+            awaitedWriteCount = count
+        }
+    }
+
+    // Must be called with the lock held.
+    private fun getSharedBuffer(): ByteBuffer? {
+        sharedBuffer?.let { return it }
+        if (isSharedMemoryUnavailable) {
+            return null
+        }
+        // Don't retry if anything failed, the transaction fallback still works.
+        isSharedMemoryUnavailable = true
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            createSharedBuffer()
         } else {
-            localChannel!!.write(source)
+            null
         }
+    }
+
+    @RequiresApi(Build.VERSION_CODES.O_MR1)
+    private fun createSharedBuffer(): ByteBuffer? {
+        val sharedMemory = try {
+            SharedMemory.create(null, SHARED_MEMORY_SIZE)
+        } catch (e: ErrnoException) {
+            e.printStackTrace()
+            return null
+        }
+        val sharedBuffer = try {
+            sharedMemory.mapReadWrite()
+        } catch (e: ErrnoException) {
+            e.printStackTrace()
+            sharedMemory.close()
+            return null
+        }
+        try {
+            remoteChannel!!.call { exception ->
+                setSharedMemory(sharedMemory.toParcelable(), exception)
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+            SharedMemory.unmap(sharedBuffer)
+            sharedMemory.close()
+            return null
+        }
+        this.sharedMemory = sharedMemory
+        this.sharedBuffer = sharedBuffer
+        return sharedBuffer
+    }
 
     @Throws(IOException::class)
     override fun position(): Long =
         if (remoteChannel != null) {
-            remoteChannel.call { exception -> position(exception) }
+            synchronized(this) {
+                awaitWrites(writeCount)
+                remoteChannel.call { exception -> position(exception) }
+            }
         } else {
             localChannel!!.position()
         }
@@ -63,7 +186,10 @@ class RemoteSeekableByteChannel : ForceableChannel, SeekableByteChannel, Parcela
     @Throws(IOException::class)
     override fun position(newPosition: Long): SeekableByteChannel {
         if (remoteChannel != null) {
-            remoteChannel.call { exception -> position2(newPosition, exception) }
+            synchronized(this) {
+                awaitWrites(writeCount)
+                remoteChannel.call { exception -> position2(newPosition, exception) }
+            }
         } else {
             localChannel!!.position(newPosition)
         }
@@ -73,7 +199,10 @@ class RemoteSeekableByteChannel : ForceableChannel, SeekableByteChannel, Parcela
     @Throws(IOException::class)
     override fun size(): Long =
         if (remoteChannel != null) {
-            remoteChannel.call { exception -> size(exception) }
+            synchronized(this) {
+                awaitWrites(writeCount)
+                remoteChannel.call { exception -> size(exception) }
+            }
         } else {
             localChannel!!.size()
         }
@@ -81,7 +210,10 @@ class RemoteSeekableByteChannel : ForceableChannel, SeekableByteChannel, Parcela
     @Throws(IOException::class)
     override fun truncate(size: Long): SeekableByteChannel {
         if (remoteChannel != null) {
-            remoteChannel.call { exception -> truncate(size, exception) }
+            synchronized(this) {
+                awaitWrites(writeCount)
+                remoteChannel.call { exception -> truncate(size, exception) }
+            }
         } else {
             return localChannel!!.truncate(size)
         }
@@ -91,7 +223,10 @@ class RemoteSeekableByteChannel : ForceableChannel, SeekableByteChannel, Parcela
     @Throws(IOException::class)
     override fun force(metaData: Boolean) {
         if (remoteChannel != null) {
-            remoteChannel.call { exception -> force(metaData, exception) }
+            synchronized(this) {
+                awaitWrites(writeCount)
+                remoteChannel.call { exception -> force(metaData, exception) }
+            }
         } else {
             localChannel!!.force(metaData)
         }
@@ -107,8 +242,24 @@ class RemoteSeekableByteChannel : ForceableChannel, SeekableByteChannel, Parcela
     @Throws(IOException::class)
     override fun close() {
         if (remoteChannel != null) {
-            remoteChannel.call { exception -> close(exception) }
-            isRemoteClosed = true
+            try {
+                try {
+                    synchronized(this) { awaitWrites(writeCount) }
+                } finally {
+                    remoteChannel.call { exception -> close(exception) }
+                    isRemoteClosed = true
+                }
+            } finally {
+                synchronized(this) {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                        sharedBuffer?.let { SharedMemory.unmap(it) }
+                        sharedMemory?.close()
+                    }
+                    sharedBuffer = null
+                    sharedMemory = null
+                    isSharedMemoryUnavailable = true
+                }
+            }
         } else {
             localChannel!!.close()
         }
@@ -117,6 +268,14 @@ class RemoteSeekableByteChannel : ForceableChannel, SeekableByteChannel, Parcela
     private class Stub(
         private val channel: SeekableByteChannel
     ) : IRemoteSeekableByteChannel.Stub() {
+        private var sharedMemory: SharedMemory? = null
+        private var sharedBuffer: ByteBuffer? = null
+
+        private val writeLock = ReentrantLock()
+        private val writeCondition = writeLock.newCondition()
+        private var completedWriteCount = 0L
+        private var writeException: Exception? = null
+
         override fun read(destination: ByteArray, exception: ParcelableException): Int =
             tryRun(exception) { channel.read(ByteBuffer.wrap(destination)) } ?: 0
 
@@ -142,7 +301,94 @@ class RemoteSeekableByteChannel : ForceableChannel, SeekableByteChannel, Parcela
         }
 
         override fun close(exception: ParcelableException) {
-            tryRun(exception) { channel.close() }
+            tryRun(exception) {
+                try {
+                    channel.close()
+                } finally {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                        sharedBuffer?.let { SharedMemory.unmap(it) }
+                        sharedMemory?.close()
+                    }
+                    sharedBuffer = null
+                    sharedMemory = null
+                }
+            }
+        }
+
+        override fun setSharedMemory(
+            sharedMemory: ParcelableObject,
+            exception: ParcelableException
+        ) {
+            tryRun(exception) {
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1) {
+                    throw UnsupportedOperationException()
+                }
+                val newSharedMemory = sharedMemory.value<SharedMemory>()
+                val newSharedBuffer = try {
+                    newSharedMemory.mapReadWrite()
+                } catch (e: ErrnoException) {
+                    newSharedMemory.close()
+                    throw IOException(e)
+                }
+                this.sharedBuffer?.let { SharedMemory.unmap(it) }
+                this.sharedMemory?.close()
+                this.sharedMemory = newSharedMemory
+                this.sharedBuffer = newSharedBuffer
+            }
+        }
+
+        override fun readShared(size: Int, exception: ParcelableException): Int =
+            tryRun(exception) {
+                val sharedBuffer = sharedBuffer ?: throw IllegalStateException("No shared memory")
+                sharedBuffer.position(0)
+                sharedBuffer.limit(size)
+                channel.read(sharedBuffer)
+            } ?: 0
+
+        // Oneway calls to the same binder are dispatched one at a time and in order.
+        override fun writeSharedAsync(sequence: Long, size: Int) {
+            val hasFailed = writeLock.withLock { writeException != null }
+            // Writes after a failure are discarded until the failure is reported.
+            if (!hasFailed) {
+                try {
+                    val sharedBuffer = sharedBuffer
+                        ?: throw IllegalStateException("No shared memory")
+                    val slotOffset = (sequence % WRITE_SLOT_COUNT).toInt() * WRITE_SLOT_SIZE
+                    val buffer = sharedBuffer.duplicate().apply {
+                        position(slotOffset)
+                        limit(slotOffset + size)
+                    }
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer)
+                    }
+                } catch (e: IOException) {
+                    writeLock.withLock { writeException = e }
+                } catch (e: RuntimeException) {
+                    writeLock.withLock { writeException = e }
+                }
+            }
+            writeLock.withLock {
+                completedWriteCount = sequence + 1
+                writeCondition.signalAll()
+            }
+        }
+
+        override fun awaitWrites(count: Long, exception: ParcelableException) {
+            tryRun(exception) {
+                writeLock.withLock {
+                    while (completedWriteCount < count) {
+                        try {
+                            writeCondition.await()
+                        } catch (e: InterruptedException) {
+                            throw InterruptedIOException().apply { initCause(e) }
+                        }
+                    }
+                    writeException?.let {
+                        writeException = null
+                        throw it
+                    }
+                }
+            }
         }
     }
 
@@ -162,6 +408,12 @@ class RemoteSeekableByteChannel : ForceableChannel, SeekableByteChannel, Parcela
     }
 
     companion object {
+        private const val SHARED_MEMORY_SIZE = 1024 * 1024
+
+        private const val WRITE_SLOT_COUNT = 4
+
+        private const val WRITE_SLOT_SIZE = SHARED_MEMORY_SIZE / WRITE_SLOT_COUNT
+
         @JvmField
         val CREATOR = object : Parcelable.Creator<RemoteSeekableByteChannel> {
             override fun createFromParcel(source: Parcel): RemoteSeekableByteChannel =
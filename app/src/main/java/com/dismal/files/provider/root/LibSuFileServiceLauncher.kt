@@ -10,6 +10,8 @@ import android.content.Context
 import android.content.Intent
 import android.content.ServiceConnection
 import android.os.IBinder
+import android.os.SystemClock
+import android.util.Log
 import com.topjohnwu.superuser.NoShellException
 import com.topjohnwu.superuser.Shell
 import com.topjohnwu.superuser.ipc.RootService
@@ -29,6 +31,8 @@ import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
 
 object LibSuFileServiceLauncher {
+    private val LOG_TAG = LibSuFileServiceLauncher::class.java.simpleName
+
     private val lock = Any()
 
     init {
@@ -68,7 +72,12 @@ object LibSuFileServiceLauncher {
                                 // Shell.getShell(GetShellCallback) doesn't allow handling errors.
                                 Shell.EXECUTOR.submit {
                                     try {
+                                        val startMillis = SystemClock.elapsedRealtime()
                                         Shell.getShell()
+                                        Log.i(
+                                            LOG_TAG, "Got root shell in " +
+                                                "${SystemClock.elapsedRealtime() - startMillis} ms"
+                                        )
                                         continuation.resume(Unit)
                                     } catch (e: NoShellException) {
                                         continuation.resumeWithException(
@@ -21,13 +21,7 @@ val isRunningAsRoot = Process.myUid() == 0
 lateinit var rootContext: Context private set
 
 object RootFileService : RemoteFileService(
-    RemoteInterface {
-        if (SuiFileServiceLauncher.isSuiAvailable()) {
-            SuiFileServiceLauncher.launchService()
-        } else {
-            LibSuFileServiceLauncher.launchService()
-        }
-    }
+    RemoteInterface { RootFileServiceManager.launchService() }
 ) {
     const val TIMEOUT_MILLIS = 15 * 1000L
 
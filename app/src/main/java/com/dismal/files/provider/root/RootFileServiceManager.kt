@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.root
+
+import android.os.IBinder
+import android.os.RemoteException
+import android.os.SystemClock
+import android.util.Log
+import com.dismal.files.provider.remote.IRemoteFileService
+import com.dismal.files.provider.remote.RemoteFileSystemException
+import com.dismal.files.settings.Settings
+import java.util.concurrent.Executors
+
+/**
+ * Manages the lifecycle of the root service, which takes a few seconds to launch.
+ *
+ * - When the root strategy is [RootStrategy.ALWAYS], the service is launched in the background
+ *   ahead of the first call.
+ * - When the service dies while it's still in use, i.e. within [IDLE_TIMEOUT_MILLIS] since the
+ *   last call, it's relaunched in the background instead of upon the next call.
+ * - Launch and first call latency are logged.
+ */
+object RootFileServiceManager {
+    private val LOG_TAG = RootFileServiceManager::class.java.simpleName
+
+    private const val IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000L
+
+    private val lock = Any()
+
+    private val executorService = Executors.newSingleThreadExecutor()
+
+    private var service: IRemoteFileService? = null
+
+    private var launchFinishedMillis = 0L
+
+    private var isFirstCallPending = false
+
+    private var lastCallFinishedMillis = 0L
+
+    fun initialize() {
+        if (isRunningAsRoot) {
+            return
+        }
+        Settings.ROOT_STRATEGY.observeForever {
+            if (it == RootStrategy.ALWAYS) {
+                prelaunchService()
+            }
+        }
+    }
+
+    private fun prelaunchService() {
+        executorService.execute {
+            if (RootFileService.isConnected()) {
+                return@execute
+            }
+            try {
+                RootFileService.connect()
+            } catch (e: RemoteFileSystemException) {
+                Log.w(LOG_TAG, "Failed to prelaunch root service", e)
+            }
+        }
+    }
+
+    @Throws(RemoteFileSystemException::class)
+    internal fun launchService(): IRemoteFileService {
+        val startMillis = SystemClock.elapsedRealtime()
+        val isSuiAvailable = SuiFileServiceLauncher.isSuiAvailable()
+        val service = try {
+            if (isSuiAvailable) {
+                SuiFileServiceLauncher.launchService()
+            } else {
+                LibSuFileServiceLauncher.launchService()
+            }
+        } catch (e: RemoteFileSystemException) {
+            Log.w(
+                LOG_TAG, "Failed to launch root service after " +
+                    "${SystemClock.elapsedRealtime() - startMillis} ms", e
+            )
+            throw e
+        }
+        val finishedMillis = SystemClock.elapsedRealtime()
+        Log.i(
+            LOG_TAG, "Launched root service with ${if (isSuiAvailable) "Sui" else "libsu"} in " +
+                "${finishedMillis - startMillis} ms"
+        )
+        synchronized(lock) {
+            this.service = service
+            launchFinishedMillis = finishedMillis
+            isFirstCallPending = true
+        }
+        // Each binder gets its own recipient, so that the death of a service that has already been
+        // replaced isn't taken for the death of the current one.
+        val binder = service.asBinder()
+        try {
+            binder.linkToDeath(IBinder.DeathRecipient { onServiceDied(binder) }, 0)
+        } catch (e: RemoteException) {
+            // RemoteInterface will find out as well.
+            synchronized(lock) {
+                if (this.service?.asBinder() == binder) {
+                    this.service = null
+                }
+            }
+        }
+        return service
+    }
+
+    private fun onServiceDied(binder: IBinder) {
+        val shouldRelaunch = synchronized(lock) {
+            if (service?.asBinder() != binder) {
+                return
+            }
+            service = null
+            // Don't keep relaunching a service that dies before serving any call.
+            !isFirstCallPending && SystemClock.elapsedRealtime() - lastCallFinishedMillis <
+                IDLE_TIMEOUT_MILLIS
+        }
+        Log.i(LOG_TAG, "Root service died, relaunching: $shouldRelaunch")
+        if (shouldRelaunch) {
+            prelaunchService()
+        }
+    }
+
+    fun <R> callRoot(block: () -> R): R {
+        val startMillis = SystemClock.elapsedRealtime()
+        try {
+            return block()
+        } finally {
+            val finishedMillis = SystemClock.elapsedRealtime()
+            val launchFinishedMillis = synchronized(lock) {
+                lastCallFinishedMillis = finishedMillis
+                if (isFirstCallPending) {
+                    isFirstCallPending = false
+                    launchFinishedMillis
+                } else {
+                    null
+                }
+            }
+            if (launchFinishedMillis != null) {
+                // The call may have included the launch itself if the service wasn't prelaunched.
+                Log.i(
+                    LOG_TAG, "First root call took ${finishedMillis - startMillis} ms and " +
+                        "finished ${finishedMillis - launchFinishedMillis} ms after launch"
+                )
+            }
+        }
+    }
+}
@@ -19,9 +19,11 @@ import java8.nio.file.attribute.BasicFileAttributes
 import java8.nio.file.attribute.FileAttribute
 import java8.nio.file.attribute.FileAttributeView
 import java8.nio.file.spi.FileSystemProvider
+import com.dismal.files.provider.common.DirectoryStreamWithAttributesProvider
 import com.dismal.files.provider.common.PathObservable
 import com.dismal.files.provider.common.PathObservableProvider
 import com.dismal.files.provider.common.Searchable
+import com.dismal.files.provider.remote.filesAcceptAllFilter
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
@@ -30,7 +32,8 @@ import java.net.URI
 abstract class RootableFileSystemProvider(
     localProviderCreator: (FileSystemProvider) -> FileSystemProvider,
     rootProviderCreator: (FileSystemProvider) -> FileSystemProvider
-) : FileSystemProvider(), PathObservableProvider, Searchable {
+) : FileSystemProvider(), DirectoryStreamWithAttributesProvider, PathObservableProvider,
+    Searchable {
     protected open val localProvider: FileSystemProvider = localProviderCreator(this)
     protected open val rootProvider: FileSystemProvider = rootProviderCreator(this)
 
@@ -72,6 +75,16 @@ abstract class RootableFileSystemProvider(
         filter: DirectoryStream.Filter<in Path>
     ): DirectoryStream<Path> = callRootable(directory) { newDirectoryStream(directory, filter) }
 
+    @Throws(IOException::class)
+    override fun newDirectoryStreamWithAttributes(directory: Path): DirectoryStream<Path> =
+        callRootable(directory) {
+            if (this is DirectoryStreamWithAttributesProvider) {
+                newDirectoryStreamWithAttributes(directory)
+            } else {
+                newDirectoryStream(directory, filesAcceptAllFilter)
+            }
+        }
+
     @Throws(IOException::class)
     override fun createDirectory(directory: Path, vararg attributes: FileAttribute<*>) {
         callRootable(directory) { createDirectory(directory, *attributes) }
@@ -17,6 +17,21 @@ interface RootablePath {
 private val rootStrategy: RootStrategy
     get() = if (isRunningAsRoot) RootStrategy.NEVER else Settings.ROOT_STRATEGY.valueCompat
 
+/**
+ * Whether [callRootable] would call the root object for an operation on the paths, e.g. so that a
+ * whole job on them can be done in the root service instead.
+ */
+fun isRootUsed(paths: List<Path>, isAttributeAccess: Boolean = false): Boolean =
+    when (rootStrategy) {
+        RootStrategy.NEVER -> false
+        RootStrategy.AUTOMATIC ->
+            paths.any {
+                it as? RootablePath ?: throw IllegalArgumentException("$it is not a RootablePath")
+                it.isRootRequired(isAttributeAccess)
+            }
+        RootStrategy.ALWAYS -> true
+    }
+
 @Throws(IOException::class)
 fun <T, R> callRootable(
     path: Path,
@@ -29,11 +44,11 @@ fun <T, R> callRootable(
         RootStrategy.NEVER -> localObject.block()
         RootStrategy.AUTOMATIC ->
             if (path.isRootRequired(isAttributeAccess)) {
-                rootObject.block()
+                RootFileServiceManager.callRoot { rootObject.block() }
             } else {
                 localObject.block()
             }
-        RootStrategy.ALWAYS -> rootObject.block()
+        RootStrategy.ALWAYS -> RootFileServiceManager.callRoot { rootObject.block() }
     }
 }
 
@@ -54,11 +69,11 @@ fun <T, R> callRootable(
         RootStrategy.AUTOMATIC ->
             if (path1.isRootRequired(isAttributeAccess)
                 || path2.isRootRequired(isAttributeAccess)) {
-                rootObject.block()
+                RootFileServiceManager.callRoot { rootObject.block() }
             } else {
                 localObject.block()
             }
         RootStrategy.ALWAYS ->
-            rootObject.block()
+            RootFileServiceManager.callRoot { rootObject.block() }
     }
 }
@@ -10,6 +10,8 @@ import android.content.ServiceConnection
 import android.content.pm.PackageManager
 import android.os.Build
 import android.os.IBinder
+import android.os.SystemClock
+import android.util.Log
 import androidx.annotation.ChecksSdkIntAtLeast
 import androidx.annotation.Keep
 import androidx.annotation.RequiresApi
@@ -28,6 +30,8 @@ import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
 
 object SuiFileServiceLauncher {
+    private val LOG_TAG = SuiFileServiceLauncher::class.java.simpleName
+
     private val lock = Any()
 
     private var isSuiIntialized = false
@@ -54,6 +58,7 @@ object SuiFileServiceLauncher {
                 throw RemoteFileSystemException("Sui isn't available")
             }
             if (Shizuku.checkSelfPermission() != PackageManager.PERMISSION_GRANTED) {
+                val startMillis = SystemClock.elapsedRealtime()
                 val granted = try {
                     runBlocking<Boolean> {
                         suspendCancellableCoroutine { continuation ->
@@ -77,6 +82,10 @@ object SuiFileServiceLauncher {
                 } catch (e: InterruptedException) {
                     throw RemoteFileSystemException(e)
                 }
+                Log.i(
+                    LOG_TAG, "Requested Sui permission in " +
+                        "${SystemClock.elapsedRealtime() - startMillis} ms"
+                )
                 if (!granted) {
                     throw RemoteFileSystemException("Sui permission isn't granted")
                 }
@@ -83,48 +83,60 @@ internal object SftpCopyMove {
                         }
                     }
                 }
-                val sourceInputStream = try {
-                    Client.openByteChannel(source, enumSetOf(OpenMode.READ), FileAttributes.EMPTY)
+                val targetFlags = enumSetOf(OpenMode.WRITE, OpenMode.TRUNC, OpenMode.CREAT)
+                if (!copyOptions.replaceExisting) {
+                    targetFlags += OpenMode.EXCL
+                }
+                val isCopiedOnServer = try {
+                    Client.copyFileOnServer(
+                        source, target, targetFlags, sourceModeAttributes,
+                        copyOptions.progressIntervalMillis, copyOptions.progressListener
+                    )
                 } catch (e: ClientException) {
-                    throw e.toFileSystemException(source.toString())
-                }.newInputStream()
-                try {
-                    val targetFlags = enumSetOf(OpenMode.WRITE, OpenMode.TRUNC, OpenMode.CREAT)
-                    if (!copyOptions.replaceExisting) {
-                        targetFlags += OpenMode.EXCL
-                    }
-                    val targetOutputStream = try {
-                        Client.openByteChannel(target, targetFlags, sourceModeAttributes)
+                    throw e.toFileSystemException(source.toString(), target.toString())
+                }
+                if (!isCopiedOnServer) {
+                    val sourceInputStream = try {
+                        Client.openByteChannel(
+                            source, enumSetOf(OpenMode.READ), FileAttributes.EMPTY
+                        )
                     } catch (e: ClientException) {
-                        throw e.toFileSystemException(target.toString())
-                    }.newOutputStream()
-                    var successful = false
+                        throw e.toFileSystemException(source.toString())
+                    }.newInputStream()
                     try {
-                        sourceInputStream.copyTo(
-                            targetOutputStream, copyOptions.progressIntervalMillis,
-                            copyOptions.progressListener
-                        )
-                        successful = true
-                    } finally {
+                        val targetOutputStream = try {
+                            Client.openByteChannel(target, targetFlags, sourceModeAttributes)
+                        } catch (e: ClientException) {
+                            throw e.toFileSystemException(target.toString())
+                        }.newOutputStream()
+                        var successful = false
                         try {
-                            targetOutputStream.close()
-                        } catch (e: IOException) {
-                            throw ClientException(e).toFileSystemException(target.toString())
+                            sourceInputStream.copyTo(
+                                targetOutputStream, copyOptions.progressIntervalMillis,
+                                copyOptions.progressListener
+                            )
+                            successful = true
                         } finally {
-                            if (!successful) {
-                                try {
-                                    Client.remove(target)
-                                } catch (e: ClientException) {
-                                    e.printStackTrace()
+                            try {
+                                targetOutputStream.close()
+                            } catch (e: IOException) {
+                                throw ClientException(e).toFileSystemException(target.toString())
+                            } finally {
+                                if (!successful) {
+                                    try {
+                                        Client.remove(target)
+                                    } catch (e: ClientException) {
+                                        e.printStackTrace()
+                                    }
                                 }
                             }
                         }
-                    }
-                } finally {
-                    try {
-                        sourceInputStream.close()
-                    } catch (e: IOException) {
-                        throw ClientException(e).toFileSystemException(source.toString())
+                    } finally {
+                        try {
+                            sourceInputStream.close()
+                        } catch (e: IOException) {
+                            throw ClientException(e).toFileSystemException(source.toString())
+                        }
                     }
                 }
             }
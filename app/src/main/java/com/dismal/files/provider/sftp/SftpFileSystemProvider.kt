@@ -23,10 +23,14 @@ import java8.nio.file.attribute.FileAttribute
 import java8.nio.file.attribute.FileAttributeView
 import java8.nio.file.spi.FileSystemProvider
 import com.dismal.files.provider.common.ByteStringPath
-import com.dismal.files.provider.common.PathListDirectoryStream
+import com.dismal.files.provider.common.CloseableIterator
+import com.dismal.files.provider.common.HashAlgorithm
+import com.dismal.files.provider.common.Hashable
+import com.dismal.files.provider.common.PathIteratorDirectoryStream
 import com.dismal.files.provider.common.PathObservable
 import com.dismal.files.provider.common.PathObservableProvider
 import com.dismal.files.provider.common.PosixFileMode
+import com.dismal.files.provider.common.RecursiveDeletable
 import com.dismal.files.provider.common.Searchable
 import com.dismal.files.provider.common.WalkFileTreeSearchable
 import com.dismal.files.provider.common.WatchServicePathObservable
@@ -40,12 +44,15 @@ import com.dismal.files.provider.sftp.client.Authority
 import com.dismal.files.provider.sftp.client.Client
 import com.dismal.files.provider.sftp.client.ClientException
 import com.dismal.files.provider.sftp.client.SecurityProviderHelper
+import com.dismal.files.settings.ServerSettings
 import com.dismal.files.util.enumSetOf
+import com.dismal.files.util.valueCompat
 import net.schmizz.sshj.sftp.OpenMode
 import java.io.IOException
 import java.net.URI
 
-object SftpFileSystemProvider : FileSystemProvider(), PathObservableProvider, Searchable {
+object SftpFileSystemProvider : FileSystemProvider(), PathObservableProvider, Searchable,
+    Hashable, RecursiveDeletable {
     private const val SCHEME = "sftp"
 
     private val HIDDEN_FILE_NAME_PREFIX = ".".toByteString()
@@ -146,13 +153,13 @@ object SftpFileSystemProvider : FileSystemProvider(), PathObservableProvider, Se
         filter: DirectoryStream.Filter<in Path>
     ): DirectoryStream<Path> {
         directory as? SftpPath ?: throw ProviderMismatchException(directory.toString())
-        val paths = try {
+        val iterator = try {
             @Suppress("UNCHECKED_CAST")
-            Client.scandir(directory) as List<Path>
+            Client.openDirectoryIterator(directory) as CloseableIterator<Path>
         } catch (e: ClientException) {
             throw e.toFileSystemException(directory.toString())
         }
-        return PathListDirectoryStream(paths, filter)
+        return PathIteratorDirectoryStream(iterator, iterator, filter)
     }
 
     @Throws(IOException::class)
@@ -331,6 +338,56 @@ object SftpFileSystemProvider : FileSystemProvider(), PathObservableProvider, Se
         listener: (List<Path>) -> Unit
     ) {
         directory as? SftpPath ?: throw ProviderMismatchException(directory.toString())
-        WalkFileTreeSearchable.search(directory, query, intervalMillis, listener)
+        val paths = mutableListOf<Path>()
+        var lastProgressMillis = System.currentTimeMillis()
+        val isSearched = try {
+            Client.find(directory, query) { relativePath ->
+                paths += directory.resolve(relativePath)
+                val currentTimeMillis = System.currentTimeMillis()
+                if (currentTimeMillis >= lastProgressMillis + intervalMillis) {
+                    listener(paths)
+                    lastProgressMillis = currentTimeMillis
+                    paths.clear()
+                }
+            }
+        } catch (e: ClientException) {
+            throw e.toFileSystemException(directory.toString())
+        }
+        if (!isSearched) {
+            WalkFileTreeSearchable.search(directory, query, intervalMillis, listener)
+            return
+        }
+        if (paths.isNotEmpty()) {
+            listener(paths)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun hash(path: Path, algorithms: Set<HashAlgorithm>): Map<HashAlgorithm, String> {
+        path as? SftpPath ?: throw ProviderMismatchException(path.toString())
+        return try {
+            Client.hash(path, algorithms)
+        } catch (e: ClientException) {
+            throw e.toFileSystemException(path.toString())
+        }
+    }
+
+    // Only where enabled for the server, because rm -rf is too destructive for a mistake here.
+    @Throws(IOException::class)
+    override fun deleteRecursively(
+        path: Path,
+        intervalMillis: Long,
+        listener: (Int) -> Unit
+    ): Boolean {
+        path as? SftpPath ?: throw ProviderMismatchException(path.toString())
+        if (!ServerSettings.getSftpDeleteRecursivelyOnServer(path.authority.toString())
+                .valueCompat) {
+            return false
+        }
+        return try {
+            Client.deleteRecursively(path)
+        } catch (e: ClientException) {
+            throw e.toFileSystemException(path.toString())
+        }
     }
 }
@@ -6,78 +6,382 @@
 package com.dismal.files.provider.sftp.client
 
 import java8.nio.channels.SeekableByteChannel
+import java8.nio.file.DirectoryIteratorException
+import com.dismal.files.provider.common.ByteString
+import com.dismal.files.provider.common.CloseableIterator
+import com.dismal.files.provider.common.FileMetadataCache
+import com.dismal.files.provider.common.HashAlgorithm
 import com.dismal.files.provider.common.LocalWatchService
 import com.dismal.files.provider.common.NotifyEntryModifiedSeekableByteChannel
+import com.dismal.files.provider.common.toByteString
 import com.dismal.files.util.closeSafe
+import com.dismal.files.util.enumSetOf
+import com.dismal.files.util.toHexString
 import net.schmizz.sshj.SSHClient
+import net.schmizz.sshj.connection.ConnectionException
+import net.schmizz.sshj.connection.channel.direct.Session
 import net.schmizz.sshj.sftp.FileAttributes
 import net.schmizz.sshj.sftp.FileMode
 import net.schmizz.sshj.sftp.OpenMode
-import net.schmizz.sshj.sftp.RemoteFile
+import net.schmizz.sshj.sftp.RemoteDirectoryAccessor
+import net.schmizz.sshj.sftp.RemoteFileAccessor
 import net.schmizz.sshj.sftp.Response
 import net.schmizz.sshj.sftp.SFTPClient
 import net.schmizz.sshj.sftp.SFTPException
 import net.schmizz.sshj.transport.TransportException
 import net.schmizz.sshj.transport.verification.PromiscuousVerifier
 import net.schmizz.sshj.userauth.UserAuthException
+import java.io.ByteArrayOutputStream
 import java.io.IOException
-import java.util.Collections
-import java.util.WeakHashMap
+import java.io.InterruptedIOException
+import java.util.concurrent.TimeUnit
 import java8.nio.file.Path as Java8Path
 
 object Client {
+    private const val CACHE_TTL_MILLIS = 10 * 1000L
+
+    // Bounds how long a single request takes, so that progress can be reported.
+    private const val COPY_DATA_CHUNK_SIZE = 16 * 1024 * 1024L
+
+    private const val EXEC_EXIT_TIMEOUT_MILLIS = 5 * 1000L
+    private const val EXEC_SUCCESS_MARKER = "ok"
+    private const val EXIT_STATUS_NOT_EXECUTABLE = 126
+    private const val EXIT_STATUS_NOT_FOUND = 127
+
+    private val CURRENT_DIRECTORY_NAME = byteArrayOf('.'.code.toByte())
+    private val CURRENT_DIRECTORY_PREFIX = byteArrayOf('.'.code.toByte(), '/'.code.toByte())
+
+    private val GLOB_SPECIAL_CHARACTERS_REGEX = Regex("""[*?\[\\]""")
+
     @Volatile
     lateinit var authenticator: Authenticator
 
-    private val clients = mutableMapOf<Authority, SFTPClient>()
+    private val clientPools = mutableMapOf<Authority, ClientPool>()
+
+    // Holds the attributes from lstat(), which are also what come along with a directory listing.
+    private val fileAttributesCache = FileMetadataCache<FileAttributes>(CACHE_TTL_MILLIS)
 
-    private val directoryFileAttributesCache =
-        Collections.synchronizedMap(WeakHashMap<Path, FileAttributes>())
+    // Authorities where running commands has failed, e.g. SFTP-only accounts.
+    private val execUnavailableAuthorities = mutableSetOf<Authority>()
 
     @Throws(ClientException::class)
     fun access(path: Path, flags: Set<OpenMode>) {
-        val file = open(path, flags, FileAttributes.EMPTY)
+        useClient(path.authority) { client ->
+            try {
+                client.open(path.remotePath, flags, FileAttributes.EMPTY).close()
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
+        }
+    }
+
+    /**
+     * Copies a regular file on the server with the "copy-data" extension, so that the data doesn't
+     * go through the network. The target is opened with [targetFlags] and [targetAttributes], and
+     * removed if the copy fails.
+     *
+     * @return `false` if the server doesn't support copying files on its own, in which case
+     * nothing has been done
+     */
+    @Throws(ClientException::class, InterruptedIOException::class)
+    fun copyFileOnServer(
+        source: Path,
+        target: Path,
+        targetFlags: Set<OpenMode>,
+        targetAttributes: FileAttributes,
+        intervalMillis: Long,
+        listener: ((Long) -> Unit)?
+    ): Boolean {
+        if (target.authority != source.authority) {
+            return false
+        }
+        useClient(source.authority) { client ->
+            if (!RemoteFileAccessor.supportsCopyData(client.sftpEngine)) {
+                return false
+            }
+            val sourceFile = try {
+                client.open(source.remotePath, enumSetOf(OpenMode.READ))
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
+            sourceFile.use {
+                val targetFile = try {
+                    client.open(target.remotePath, targetFlags, targetAttributes)
+                } catch (e: IOException) {
+                    throw ClientException(e)
+                }
+                var successful = false
+                try {
+                    targetFile.use {
+                        val length = sourceFile.length()
+                        var lastProgressMillis = System.currentTimeMillis()
+                        var copiedSize = 0L
+                        var offset = 0L
+                        while (offset < length) {
+                            val chunkSize = COPY_DATA_CHUNK_SIZE.coerceAtMost(length - offset)
+                            RemoteFileAccessor.copyData(
+                                sourceFile, offset, chunkSize, targetFile, offset
+                            )
+                            offset += chunkSize
+                            copiedSize += chunkSize
+                            if (Thread.interrupted()) {
+                                throw InterruptedIOException()
+                            }
+                            val currentTimeMillis = System.currentTimeMillis()
+                            if (listener != null
+                                && currentTimeMillis >= lastProgressMillis + intervalMillis) {
+                                listener(copiedSize)
+                                lastProgressMillis = currentTimeMillis
+                                copiedSize = 0
+                            }
+                        }
+                        listener?.invoke(copiedSize)
+                    }
+                    successful = true
+                } catch (e: InterruptedIOException) {
+                    throw e
+                } catch (e: IOException) {
+                    throw ClientException(e)
+                } finally {
+                    if (!successful) {
+                        try {
+                            client.rm(target.remotePath)
+                        } catch (e: IOException) {
+                            e.printStackTrace()
+                        }
+                    }
+                }
+            }
+        }
+        LocalWatchService.onEntryCreated(target as Java8Path)
+        return true
+    }
+
+    /**
+     * Deletes a directory with everything in it by running `rm -rf` on the server over the same
+     * SSH connection.
+     *
+     * The shell may see a different file system than SFTP, e.g. for a chrooted `internal-sftp` or
+     * the share roots of a NAS, so `rm` only runs if the shell sees a directory with the same
+     * size, modification time and owner as SFTP does, and the directory must be gone for SFTP
+     * afterwards.
+     *
+     * @return `false` if running `rm` isn't available on the server or it failed, in which case
+     * some files may have been deleted and the caller should delete the rest itself
+     */
+    @Throws(ClientException::class, InterruptedIOException::class)
+    fun deleteRecursively(path: Path): Boolean {
+        val remotePath = path.remotePath
+        // Never let a path that doesn't name a file reach rm -rf.
+        if (!remotePath.startsWith("/") || remotePath.trimEnd('/').isEmpty()) {
+            return false
+        }
+        val attributes = useClient(path.authority) { client ->
+            try {
+                client.lstat(remotePath)
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
+        }
+        if (attributes.type != FileMode.Type.DIRECTORY) {
+            return false
+        }
+        val expectedStat = "${attributes.size} ${attributes.mtime} ${attributes.uid} " +
+            "${attributes.gid}"
+        // The marker tells that rm has actually run and succeeded. stat -c is for GNU and BusyBox,
+        // and stat -f is for BSD.
+        val command = "p=${remotePath.shellQuote()};" +
+            " [ -d \"\$p\" ] && [ ! -h \"\$p\" ]" +
+            " && s=\$( (stat -c '%s %Y %u %g' -- \"\$p\" || stat -f '%z %m %u %g' -- \"\$p\")" +
+            " 2>/dev/null) && [ \"\$s\" = ${expectedStat.shellQuote()} ]" +
+            " && rm -rf -- \"\$p\" 2>/dev/null && echo $EXEC_SUCCESS_MARKER"
         try {
-            file.close()
-        } catch (e: IOException) {
-            throw ClientException(e)
+            val output = exec(path.authority, command) { execCommand ->
+                try {
+                    execCommand.readOutput().toString(Charsets.UTF_8)
+                } catch (e: InterruptedIOException) {
+                    throw e
+                } catch (e: IOException) {
+                    throw ClientException(e)
+                }
+            }
+            if (output?.trim() != EXEC_SUCCESS_MARKER) {
+                return false
+            }
+            return useClient(path.authority) { client ->
+                try {
+                    client.lstat(remotePath)
+                    false
+                } catch (e: IOException) {
+                    if (!e.isNoSuchFile()) {
+                        throw ClientException(e)
+                    }
+                    true
+                }
+            }
+        } finally {
+            // Some files may have been deleted even if rm failed.
+            LocalWatchService.onEntryDeleted(path as Java8Path)
         }
     }
 
-    @Throws(ClientException::class)
-    fun lstat(path: Path): FileAttributes {
-        val client = getClient(path.authority)
-        synchronized(directoryFileAttributesCache) {
-            directoryFileAttributesCache[path]?.let {
-                return it.also { directoryFileAttributesCache -= path }
+    /**
+     * Finds the files under [directory] whose names contain [query] case-insensitively, by running
+     * `find` on the server over the same SSH connection.
+     *
+     * @param listener called with the path of each file relative to [directory], as the bytes
+     * from the server since names may not be valid UTF-8
+     * @return `false` if running `find` isn't available on the server, in which case the caller
+     * should walk the file tree itself
+     */
+    @Throws(ClientException::class, InterruptedIOException::class)
+    fun find(directory: Path, query: String, listener: (ByteString) -> Unit): Boolean {
+        val pattern = "*${query.replace(GLOB_SPECIAL_CHARACTERS_REGEX, "\\\\$0")}*"
+        // "." is printed first to tell that find is actually running, e.g. instead of an SFTP
+        // server forced for the account. Standard error is discarded so that it can't fill up the
+        // channel window.
+        val command = "cd -- ${directory.remotePath.shellQuote()} &&" +
+            " find . -name . -print0 -o -iname ${pattern.shellQuote()} -print0 2>/dev/null"
+        return exec(directory.authority, command) { execCommand ->
+            var hasStarted = false
+            try {
+                val inputStream = execCommand.inputStream.buffered()
+                val nameStream = ByteArrayOutputStream()
+                while (true) {
+                    if (Thread.interrupted()) {
+                        throw InterruptedIOException()
+                    }
+                    val byte = inputStream.read()
+                    if (byte == -1) {
+                        break
+                    }
+                    if (byte != 0) {
+                        nameStream.write(byte)
+                        continue
+                    }
+                    val name = nameStream.toByteArray()
+                    nameStream.reset()
+                    if (!hasStarted) {
+                        if (!name.contentEquals(CURRENT_DIRECTORY_NAME)) {
+                            break
+                        }
+                        hasStarted = true
+                        continue
+                    }
+                    val start = if (name.startsWith(CURRENT_DIRECTORY_PREFIX)) {
+                        CURRENT_DIRECTORY_PREFIX.size
+                    } else {
+                        0
+                    }
+                    listener(name.toByteString(start))
+                }
+                execCommand.joinAfterOutput()
+            } catch (e: InterruptedIOException) {
+                throw e
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
+            // A non-zero status may just come from unreadable directories.
+            hasStarted
+        } ?: false
+    }
+
+    /**
+     * Computes hashes of a file on the server with the "check-file" extension, or by running
+     * commands like `sha256sum` over the same SSH connection.
+     *
+     * @return the hashes as lowercase hexadecimal, without the algorithms that the server can't
+     * compute
+     */
+    @Throws(ClientException::class, InterruptedIOException::class)
+    fun hash(path: Path, algorithms: Set<HashAlgorithm>): Map<HashAlgorithm, String> {
+        val hashes = mutableMapOf<HashAlgorithm, String>()
+        useClient(path.authority) { client ->
+            val engine = client.sftpEngine
+            if (!RemoteFileAccessor.supportsCheckFile(engine)) {
+                return@useClient
+            }
+            for (algorithm in algorithms) {
+                val hash = try {
+                    RemoteFileAccessor.checkFileName(
+                        engine, path.remotePath, algorithm.checkFileName
+                    )
+                } catch (e: SFTPException) {
+                    // E.g. SSH_FX_OP_UNSUPPORTED for an algorithm that the server doesn't have.
+                    e.printStackTrace()
+                    continue
+                } catch (e: IOException) {
+                    throw ClientException(e)
+                }
+                if (hash != null && hash.size == algorithm.size) {
+                    hashes[algorithm] = hash.toHexString()
+                }
             }
         }
-        return try {
-            client.lstat(path.remotePath)
-        } catch (e: IOException) {
-            throw ClientException(e)
+        val commandAlgorithms = algorithms.filter { it !in hashes && it.commandName != null }
+        if (commandAlgorithms.isEmpty()) {
+            return hashes
+        }
+        // All the sums are computed by a single command, and each is printed on a line of its own
+        // after the name of its algorithm. The file is given as standard input so that its name
+        // doesn't appear in the output.
+        val quotedPath = path.remotePath.shellQuote()
+        val command = commandAlgorithms.joinToString("; ") {
+            "echo ${it.name}:\$(${it.commandName} < $quotedPath 2>/dev/null)"
+        }
+        val output = exec(path.authority, command) { execCommand ->
+            try {
+                execCommand.readOutput().toString(Charsets.UTF_8)
+            } catch (e: InterruptedIOException) {
+                throw e
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
+        } ?: return hashes
+        for (line in output.lineSequence()) {
+            val algorithm = commandAlgorithms.firstOrNull { it.name == line.substringBefore(':') }
+                ?: continue
+            // The hash is followed by the file name, which GNU coreutils escapes by prefixing the
+            // line with a backslash, and it's validated in case something else has run instead.
+            val hash = line.substringAfter(':').trim().removePrefix("\\").substringBefore(' ')
+                .lowercase()
+            val isHash = hash.length == 2 * algorithm.size
+                && hash.all { it in '0'..'9' || it in 'a'..'f' }
+            if (isHash) {
+                hashes[algorithm] = hash
+            }
         }
+        return hashes
     }
 
     @Throws(ClientException::class)
-    fun mkdir(path: Path, attributes: FileAttributes) {
-        val client = getClient(path.authority)
-        try {
-            client.sftpEngine.makeDir(path.remotePath, attributes)
-        } catch (e: IOException) {
-            throw ClientException(e)
+    fun lstat(path: Path): FileAttributes {
+        fileAttributesCache[path as Java8Path]?.let { return it.getOrThrow() }
+        val attributes = useClient(path.authority) { client ->
+            try {
+                client.lstat(path.remotePath)
+            } catch (e: IOException) {
+                val exception = ClientException(e)
+                if (e.isNoSuchFile()) {
+                    fileAttributesCache.putNotFound(path, exception)
+                }
+                throw exception
+            }
         }
-        LocalWatchService.onEntryCreated(path as Java8Path)
+        fileAttributesCache[path] = attributes
+        return attributes
     }
 
     @Throws(ClientException::class)
-    private fun open(path: Path, flags: Set<OpenMode>, attributes: FileAttributes): RemoteFile {
-        val client = getClient(path.authority)
-        return try {
-            client.open(path.remotePath, flags, attributes)
-        } catch (e: IOException) {
-            throw ClientException(e)
+    fun mkdir(path: Path, attributes: FileAttributes) {
+        useClient(path.authority) { client ->
+            try {
+                client.sftpEngine.makeDir(path.remotePath, attributes)
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
         }
+        LocalWatchService.onEntryCreated(path as Java8Path)
     }
 
     @Throws(ClientException::class)
@@ -86,29 +390,40 @@ object Client {
         flags: Set<OpenMode>,
         attributes: FileAttributes
     ): SeekableByteChannel {
-        val file = open(path, flags, attributes)
+        val clientPool = getClientPool(path.authority)
+        val client = clientPool.acquire()
+        val file = try {
+            client.open(path.remotePath, flags, attributes)
+        } catch (e: IOException) {
+            clientPool.release(client)
+            throw ClientException(e)
+        }
+        // The channel keeps the client leased until it's closed.
         return NotifyEntryModifiedSeekableByteChannel(
-            FileByteChannel(file, flags.contains(OpenMode.APPEND)), path as Java8Path
+            FileByteChannel(file, { clientPool.release(client) }, flags.contains(OpenMode.APPEND)),
+            path as Java8Path
         )
     }
 
     @Throws(ClientException::class)
     fun readlink(path: Path): String {
-        val client = getClient(path.authority)
-        return try {
-            client.readlink(path.remotePath)
-        } catch (e: IOException) {
-            throw ClientException(e)
+        return useClient(path.authority) { client ->
+            try {
+                client.readlink(path.remotePath)
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
         }
     }
 
     @Throws(ClientException::class)
     fun realpath(path: Path): Path {
-        val client = getClient(path.authority)
-        val realPath = try {
-            client.canonicalize(path.remotePath)
-        } catch (e: IOException) {
-            throw ClientException(e)
+        val realPath = useClient(path.authority) { client ->
+            try {
+                client.canonicalize(path.remotePath)
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
         }
         return path.resolve(realPath)
     }
@@ -132,133 +447,277 @@ object Client {
                 SFTPException(Response.StatusCode.FAILURE, "Paths aren't on the same authority")
             )
         }
-        val client = getClient(path.authority)
-        try {
-            client.rename(path.remotePath, newPath.remotePath)
-        } catch (e: IOException) {
-            throw ClientException(e)
+        useClient(path.authority) { client ->
+            try {
+                client.rename(path.remotePath, newPath.remotePath)
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
         }
-        directoryFileAttributesCache -= path
-        directoryFileAttributesCache -= newPath
         LocalWatchService.onEntryDeleted(path as Java8Path)
         LocalWatchService.onEntryCreated(newPath as Java8Path)
     }
 
     @Throws(ClientException::class)
     fun rmdir(path: Path) {
-        val client = getClient(path.authority)
-        try {
-            client.rmdir(path.remotePath)
-        } catch (e: IOException) {
-            throw ClientException(e)
+        useClient(path.authority) { client ->
+            try {
+                client.rmdir(path.remotePath)
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
         }
-        directoryFileAttributesCache -= path
         LocalWatchService.onEntryDeleted(path as Java8Path)
     }
 
+    // Entries are read one READDIR batch at a time, so that they can be shown as they arrive.
     @Throws(ClientException::class)
-    fun scandir(path: Path): List<Path> {
-        val client = getClient(path.authority)
-        val files = try {
-            client.ls(path.remotePath)
+    fun openDirectoryIterator(path: Path): CloseableIterator<Path> {
+        val clientPool = getClientPool(path.authority)
+        val client = clientPool.acquire()
+        val directory = try {
+            client.sftpEngine.openDir(path.remotePath)
         } catch (e: IOException) {
+            clientPool.release(client)
             throw ClientException(e)
         }
-        return files.map { file ->
-            // The attributes here are from lstat().
-            // https://github.com/openssh/openssh-portable/blob/71241fc05db4bbb11bb29340b44b92e2575373d8/sftp-server.c#L1110
-            path.resolve(file.name).also { directoryFileAttributesCache[it] = file.attributes }
+        val directoryIterator = generateSequence {
+            try {
+                RemoteDirectoryAccessor.readBatch(directory)
+            } catch (e: IOException) {
+                throw DirectoryIteratorException(e)
+            }
+        }
+            .flatten()
+            .map { file ->
+                // The attributes here are from lstat().
+                // https://github.com/openssh/openssh-portable/blob/71241fc05db4bbb11bb29340b44b92e2575373d8/sftp-server.c#L1110
+                path.resolve(file.name).also {
+                    fileAttributesCache[it as Java8Path] = file.attributes
+                }
+            }
+            .iterator()
+        return object : CloseableIterator<Path>, Iterator<Path> by directoryIterator {
+            override fun close() {
+                try {
+                    directory.close()
+                } finally {
+                    clientPool.release(client)
+                }
+            }
         }
     }
 
     @Throws(ClientException::class)
     fun setstat(path: Path, attributes: FileAttributes) {
-        val client = getClient(path.authority)
-        try {
-            client.setattr(path.remotePath, attributes)
-        } catch (e: IOException) {
-            throw ClientException(e)
+        useClient(path.authority) { client ->
+            try {
+                client.setattr(path.remotePath, attributes)
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
         }
-        directoryFileAttributesCache -= path
         LocalWatchService.onEntryModified(path as Java8Path)
     }
 
     @Throws(ClientException::class)
     fun stat(path: Path): FileAttributes {
-        val client = getClient(path.authority)
-        synchronized(directoryFileAttributesCache) {
-            directoryFileAttributesCache[path]?.let {
-                if (it.type != FileMode.Type.SYMLINK) {
-                    return it.also { directoryFileAttributesCache -= path }
-                }
+        fileAttributesCache[path as Java8Path]?.let {
+            // A file not found by lstat() won't be found by stat() either.
+            val attributes = it.getOrThrow()
+            if (attributes.type != FileMode.Type.SYMLINK) {
+                return attributes
             }
         }
-        return try {
-            client.stat(path.remotePath)
-        } catch (e: IOException) {
-            throw ClientException(e)
+        return useClient(path.authority) { client ->
+            try {
+                client.stat(path.remotePath)
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
         }
     }
 
     @Throws(ClientException::class)
     fun symlink(link: Path, target: String) {
-        val client = getClient(link.authority)
-        try {
-            client.symlink(link.remotePath, target)
-        } catch (e: IOException) {
-            throw ClientException(e)
+        useClient(link.authority) { client ->
+            try {
+                client.symlink(link.remotePath, target)
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
         }
         LocalWatchService.onEntryCreated(link as Java8Path)
     }
 
     @Throws(ClientException::class)
     fun unlink(path: Path) {
-        val client = getClient(path.authority)
+        useClient(path.authority) { client ->
+            try {
+                client.rm(path.remotePath)
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
+        }
+        LocalWatchService.onEntryDeleted(path as Java8Path)
+    }
+
+    /**
+     * Runs a command on the server over the same SSH connection as SFTP, with its standard input
+     * closed so that it can't wait for input.
+     *
+     * @return `null` if the server doesn't allow running commands
+     */
+    @Throws(ClientException::class, InterruptedIOException::class)
+    private inline fun <R> exec(
+        authority: Authority,
+        command: String,
+        block: (Session.Command) -> R
+    ): R? {
+        if (synchronized(execUnavailableAuthorities) { authority in execUnavailableAuthorities }) {
+            return null
+        }
+        val clientPool = getClientPool(authority)
+        val client = clientPool.acquire()
+        try {
+            val sshClient = clientPool.getSshClient(client)
+                ?: throw ClientException("SFTP channel is broken")
+            val session = try {
+                sshClient.startSession()
+            } catch (e: ConnectionException) {
+                e.printStackTrace()
+                return null
+            } catch (e: IOException) {
+                throw ClientException(e)
+            }
+            session.use {
+                val execCommand = try {
+                    session.exec(command).apply { outputStream.close() }
+                } catch (e: ConnectionException) {
+                    // E.g. the exec request is refused for an SFTP-only account.
+                    e.printStackTrace()
+                    synchronized(execUnavailableAuthorities) {
+                        execUnavailableAuthorities += authority
+                    }
+                    return null
+                } catch (e: IOException) {
+                    throw ClientException(e)
+                }
+                val result = block(execCommand)
+                val exitStatus = execCommand.exitStatus
+                if (exitStatus == EXIT_STATUS_NOT_EXECUTABLE
+                    || exitStatus == EXIT_STATUS_NOT_FOUND) {
+                    return null
+                }
+                return result
+            }
+        } finally {
+            clientPool.release(client)
+        }
+    }
+
+    private fun getClientPool(authority: Authority): ClientPool =
+        // Only look up the pool under the lock, so that connecting to one authority doesn't block
+        // the others.
+        synchronized(clientPools) {
+            clientPools.getOrPut(authority) { ClientPool { connect(authority) } }
+        }
+
+    @Throws(ClientException::class)
+    private inline fun <R> useClient(authority: Authority, block: (SFTPClient) -> R): R {
+        val clientPool = getClientPool(authority)
+        val client = clientPool.acquire()
+        try {
+            return block(client)
+        } finally {
+            clientPool.release(client)
+        }
+    }
+
+    @Throws(ClientException::class)
+    private fun connect(authority: Authority): SSHClient {
+        val authentication = authenticator.getAuthentication(authority)
+            ?: throw ClientException("No authentication found for $authority")
+        val sshClient = SSHClient().apply { addHostKeyVerifier(PromiscuousVerifier()) }
         try {
-            client.rm(path.remotePath)
+            sshClient.connect(authority.host, authority.port)
         } catch (e: IOException) {
+            sshClient.closeSafe()
             throw ClientException(e)
         }
-        directoryFileAttributesCache -= path
-        LocalWatchService.onEntryDeleted(path as Java8Path)
+        try {
+            sshClient.auth(authority.username, authentication.toAuthMethod())
+        } catch (e: UserAuthException) {
+            sshClient.closeSafe()
+            throw ClientException(e)
+        } catch (e: TransportException) {
+            sshClient.closeSafe()
+            throw ClientException(e)
+        }
+        return sshClient
     }
 
-    @Throws(ClientException::class)
-    private fun getClient(authority: Authority): SFTPClient {
-        synchronized(clients) {
-            var client = clients[authority]
-            if (client != null) {
-                if (client.sftpEngine.subsystem.isOpen) {
-                    return client
-                } else {
-                    client.closeSafe()
-                    clients -= authority
-                }
+    private val HashAlgorithm.checkFileName: String
+        get() =
+            when (this) {
+                HashAlgorithm.CRC32 -> "crc32"
+                HashAlgorithm.MD5 -> "md5"
+                HashAlgorithm.SHA1 -> "sha1"
+                HashAlgorithm.SHA256 -> "sha256"
+                HashAlgorithm.SHA512 -> "sha512"
             }
-            val authentication = authenticator.getAuthentication(authority)
-                ?: throw ClientException("No authentication found for $authority")
-            val sshClient = SSHClient().apply { addHostKeyVerifier(PromiscuousVerifier()) }
-            try {
-                sshClient.connect(authority.host, authority.port)
-            } catch (e: IOException) {
-                sshClient.closeSafe()
-                throw ClientException(e)
+
+    // The checksum of cksum isn't CRC-32.
+    private val HashAlgorithm.commandName: String?
+        get() =
+            when (this) {
+                HashAlgorithm.CRC32 -> null
+                HashAlgorithm.MD5 -> "md5sum"
+                HashAlgorithm.SHA1 -> "sha1sum"
+                HashAlgorithm.SHA256 -> "sha256sum"
+                HashAlgorithm.SHA512 -> "sha512sum"
             }
-            try {
-                sshClient.auth(authority.username, authentication.toAuthMethod())
-            } catch (e: UserAuthException) {
-                sshClient.closeSafe()
-                throw ClientException(e)
-            } catch (e: TransportException) {
-                sshClient.closeSafe()
-                throw ClientException(e)
+
+    private fun ByteArray.startsWith(prefix: ByteArray): Boolean =
+        size >= prefix.size && prefix.indices.all { this[it] == prefix[it] }
+
+    private fun String.shellQuote(): String = "'${replace("'", "'\\''")}'"
+
+    // Unlike readBytes(), stops between reads upon interruption, and doesn't fail just because the
+    // channel hasn't closed yet after all of the output.
+    @Throws(IOException::class)
+    private fun Session.Command.readOutput(): ByteArray {
+        val outputStream = ByteArrayOutputStream()
+        val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+        while (true) {
+            if (Thread.interrupted()) {
+                throw InterruptedIOException()
+            }
+            val length = inputStream.read(buffer)
+            if (length == -1) {
+                break
             }
-            client = sshClient.newSFTPClient()
-            clients[authority] = client
-            return client
+            outputStream.write(buffer, 0, length)
         }
+        joinAfterOutput()
+        return outputStream.toByteArray()
     }
 
+    // The output has ended, so the command has finished or is about to, and a timeout waiting for
+    // the exit status only means that the status won't be known.
+    @Throws(IOException::class)
+    private fun Session.Command.joinAfterOutput() {
+        try {
+            join(EXEC_EXIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+        } catch (e: ConnectionException) {
+            e.printStackTrace()
+        }
+    }
+
+    private fun IOException.isNoSuchFile(): Boolean =
+        this is SFTPException && (statusCode == Response.StatusCode.NO_SUCH_FILE
+            || statusCode == Response.StatusCode.NO_SUCH_PATH)
+
     interface Path {
         val authority: Authority
         val remotePath: String
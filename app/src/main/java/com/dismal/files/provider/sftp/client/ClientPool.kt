@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.sftp.client
+
+import android.os.SystemClock
+import com.dismal.files.util.closeSafe
+import net.schmizz.sshj.SSHClient
+import net.schmizz.sshj.sftp.SFTPClient
+import java.io.Closeable
+import java.io.IOException
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * A pool of SFTP channels to a server, over up to [MAX_CONNECTION_COUNT] SSH connections.
+ *
+ * Requests are pipelined within a channel so a channel can be shared, but anything on a channel
+ * has to wait behind the data of a transfer on it. So each operation leases the least busy
+ * channel, and another channel is opened whenever all of them are busy and the limits allow.
+ *
+ * Channels and connections are opened outside the lock, so that opening them doesn't block
+ * operations on the existing ones. Broken channels are dropped upon the next lease, and channels
+ * that have been idle for [IDLE_TIMEOUT_MILLIS] are closed except for the last one.
+ */
+internal class ClientPool(
+    // @Throws(ClientException::class)
+    private val connect: () -> SSHClient
+) {
+    private val lock = ReentrantLock()
+    private val condition = lock.newCondition()
+
+    private val connections = mutableListOf<PooledConnection>()
+    private var pendingConnectionCount = 0
+
+    @Throws(ClientException::class)
+    fun acquire(): SFTPClient {
+        while (true) {
+            var connectionForChannel: PooledConnection? = null
+            var shouldConnect = false
+            val closeables = mutableListOf<Closeable>()
+            try {
+                lock.withLock {
+                    removeBrokenAndIdleLocked(closeables)
+                    val channel = connections.flatMap { it.channels }.minByOrNull { it.leaseCount }
+                    val connectionWithRoom = connections.firstOrNull {
+                        it.channels.size + it.pendingChannelCount < MAX_CHANNEL_COUNT_PER_CONNECTION
+                    }
+                    val canConnect =
+                        connections.size + pendingConnectionCount < MAX_CONNECTION_COUNT
+                    if (channel != null && (channel.leaseCount == 0
+                            || (connectionWithRoom == null && !canConnect))) {
+                        ++channel.leaseCount
+                        return channel.client
+                    }
+                    when {
+                        connectionWithRoom != null -> {
+                            ++connectionWithRoom.pendingChannelCount
+                            connectionForChannel = connectionWithRoom
+                        }
+                        canConnect -> {
+                            ++pendingConnectionCount
+                            shouldConnect = true
+                        }
+                        // Wait for the channel or connection being opened.
+                        else -> {
+                            condition.await()
+                            return@withLock
+                        }
+                    }
+                }
+            } finally {
+                closeables.forEach { it.closeSafe() }
+            }
+            val connection = connectionForChannel
+            if (connection != null) {
+                openChannel(connection)?.let { return it }
+            } else if (shouldConnect) {
+                return openConnection()
+            }
+        }
+    }
+
+    @Throws(ClientException::class)
+    private fun openConnection(): SFTPClient {
+        val sshClient = try {
+            connect()
+        } catch (e: ClientException) {
+            lock.withLock {
+                --pendingConnectionCount
+                condition.signalAll()
+            }
+            throw e
+        }
+        val client = try {
+            sshClient.newSFTPClient()
+        } catch (e: IOException) {
+            sshClient.closeSafe()
+            lock.withLock {
+                --pendingConnectionCount
+                condition.signalAll()
+            }
+            throw ClientException(e)
+        }
+        lock.withLock {
+            --pendingConnectionCount
+            val connection = PooledConnection(sshClient)
+            connection.channels += PooledChannel(client).apply { leaseCount = 1 }
+            connections += connection
+            condition.signalAll()
+        }
+        return client
+    }
+
+    // Returns null if opening another channel failed but there are others to share.
+    @Throws(ClientException::class)
+    private fun openChannel(connection: PooledConnection): SFTPClient? {
+        val client = try {
+            connection.sshClient.newSFTPClient()
+        } catch (e: IOException) {
+            val hasChannels = lock.withLock {
+                --connection.pendingChannelCount
+                condition.signalAll()
+                connections.any { it.channels.isNotEmpty() }
+            }
+            if (!hasChannels) {
+                throw ClientException(e)
+            }
+            e.printStackTrace()
+            return null
+        }
+        lock.withLock {
+            --connection.pendingChannelCount
+            connection.channels += PooledChannel(client).apply { leaseCount = 1 }
+            condition.signalAll()
+        }
+        return client
+    }
+
+    fun release(client: SFTPClient) {
+        lock.withLock {
+            for (connection in connections) {
+                val channel = connection.channels.firstOrNull { it.client === client } ?: continue
+                --channel.leaseCount
+                channel.lastReleaseMillis = SystemClock.elapsedRealtime()
+                return
+            }
+        }
+        // The channel was removed from the pool because it was broken.
+        client.closeSafe()
+    }
+
+    /**
+     * Returns the SSH connection of a leased channel, e.g. to run a command over the same
+     * connection. The connection stays open as long as the channel is leased.
+     *
+     * @return `null` if the channel has been dropped from the pool because it was broken
+     */
+    fun getSshClient(client: SFTPClient): SSHClient? =
+        lock.withLock {
+            connections
+                .firstOrNull { connection -> connection.channels.any { it.client === client } }
+                ?.sshClient
+        }
+
+    private fun removeBrokenAndIdleLocked(closeables: MutableList<Closeable>) {
+        val currentTimeMillis = SystemClock.elapsedRealtime()
+        val connectionIterator = connections.iterator()
+        while (connectionIterator.hasNext()) {
+            val connection = connectionIterator.next()
+            val isConnected = connection.sshClient.isConnected
+            val channelIterator = connection.channels.iterator()
+            while (channelIterator.hasNext()) {
+                val channel = channelIterator.next()
+                val isBroken = !isConnected || !channel.client.sftpEngine.subsystem.isOpen
+                val isIdle = channel.leaseCount == 0
+                    && currentTimeMillis - channel.lastReleaseMillis >= IDLE_TIMEOUT_MILLIS
+                    && connections.sumOf { it.channels.size } > 1
+                if (isBroken || isIdle) {
+                    channelIterator.remove()
+                    // Leased channels are closed upon release instead.
+                    if (channel.leaseCount == 0) {
+                        closeables += channel.client
+                    }
+                }
+            }
+            if (connection.channels.isEmpty() && connection.pendingChannelCount == 0) {
+                connectionIterator.remove()
+                closeables += connection.sshClient
+            }
+        }
+    }
+
+    private class PooledConnection(val sshClient: SSHClient) {
+        val channels = mutableListOf<PooledChannel>()
+        var pendingChannelCount = 0
+    }
+
+    private class PooledChannel(val client: SFTPClient) {
+        var leaseCount = 0
+        var lastReleaseMillis = SystemClock.elapsedRealtime()
+    }
+
+    companion object {
+        private const val MAX_CONNECTION_COUNT = 2
+        private const val MAX_CHANNEL_COUNT_PER_CONNECTION = 2
+        private const val IDLE_TIMEOUT_MILLIS = 60 * 1000L
+    }
+}
@@ -7,6 +7,7 @@ package com.dismal.files.provider.sftp.client
 
 import com.dismal.files.provider.common.AbstractFileByteChannel
 import com.dismal.files.provider.common.EMPTY
+import com.dismal.files.provider.common.allAsList
 import com.dismal.files.provider.common.asFuture
 import com.dismal.files.provider.common.map
 import com.dismal.files.util.closeSafe
@@ -25,8 +26,14 @@ import java.util.concurrent.Future
 
 class FileByteChannel(
     private val file: RemoteFile,
+    private val releaseClient: () -> Unit,
     isAppend: Boolean
-) : AbstractFileByteChannel(isAppend) {
+) : AbstractFileByteChannel(
+    isAppend, maxReadAheadCount = MAX_READ_AHEAD_COUNT,
+    maxPendingWriteCount = MAX_PENDING_WRITE_COUNT
+) {
+    private var isClientReleased = false
+
     override fun onReadAsync(position: Long, size: Int, timeoutMillis: Long): Future<ByteBuffer> =
         try {
             RemoteFileAccessor.asyncRead(file, position, size)
@@ -72,6 +79,34 @@ class FileByteChannel(
         source.position(source.limit())
     }
 
+    @Throws(IOException::class)
+    override fun onWriteAsync(position: Long, source: ByteBuffer): Future<Unit> {
+        val size = source.remaining()
+        val futures = mutableListOf<Future<Unit>>()
+        var offset = 0
+        while (offset < size) {
+            val length = (size - offset).coerceAtMost(MAX_WRITE_SIZE)
+            futures += try {
+                RemoteFileAccessor.asyncWrite(
+                    file, position + offset, source.array(),
+                    source.arrayOffset() + source.position() + offset, length
+                )
+            } catch (e: IOException) {
+                throw e.maybeToSpecificException()
+            }
+                .asFuture()
+                .map(
+                    { response -> response.ensureStatusPacketIsOK() },
+                    { e ->
+                        ((e as? ExecutionException)?.cause as? IOException)
+                            ?.maybeToSpecificException()?.let { ExecutionException(it) } ?: e
+                    }
+                )
+            offset += length
+        }
+        return futures.allAsList().map({})
+    }
+
     @Throws(IOException::class)
     override fun onTruncate(size: Long) {
         try {
@@ -93,6 +128,7 @@ class FileByteChannel(
         when {
             this is SFTPException && statusCode == Response.StatusCode.INVALID_HANDLE -> {
                 setClosed()
+                releaseClientOnce()
                 AsynchronousCloseException().apply { initCause(this@maybeToSpecificException) }
             }
             findCauseByClass<InterruptedException>() != null -> {
@@ -111,6 +147,25 @@ class FileByteChannel(
             if (e.statusCode != Response.StatusCode.NO_SUCH_FILE) {
                 throw e
             }
+        } finally {
+            releaseClientOnce()
         }
     }
+
+    private fun releaseClientOnce() {
+        synchronized(this) {
+            if (isClientReleased) {
+                return
+            }
+            isClientReleased = true
+        }
+        releaseClient()
+    }
+
+    companion object {
+        private const val MAX_READ_AHEAD_COUNT = 8
+        private const val MAX_PENDING_WRITE_COUNT = 8
+        // Well below the 256 KiB message size limit of OpenSSH.
+        private const val MAX_WRITE_SIZE = 64 * 1024
+    }
 }
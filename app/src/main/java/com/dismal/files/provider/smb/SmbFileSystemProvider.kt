@@ -29,6 +29,7 @@ import com.dismal.files.provider.common.InvalidFileNameException
 import com.dismal.files.provider.common.PathIteratorDirectoryStream
 import com.dismal.files.provider.common.PathObservable
 import com.dismal.files.provider.common.PathObservableProvider
+import com.dismal.files.provider.common.RecursiveDeletable
 import com.dismal.files.provider.common.Searchable
 import com.dismal.files.provider.common.WalkFileTreeSearchable
 import com.dismal.files.provider.common.WatchServicePathObservable
@@ -48,7 +49,8 @@ import com.dismal.files.util.takeIfNotEmpty
 import java.io.IOException
 import java.net.URI
 
-object SmbFileSystemProvider : FileSystemProvider(), PathObservableProvider, Searchable {
+object SmbFileSystemProvider : FileSystemProvider(), PathObservableProvider, Searchable,
+    RecursiveDeletable {
     private const val SCHEME = "smb"
 
     private val HIDDEN_FILE_NAME_PREFIX = ".".toByteString()
@@ -399,4 +401,23 @@ object SmbFileSystemProvider : FileSystemProvider(), PathObservableProvider, Sea
         directory as? SmbPath ?: throw ProviderMismatchException(directory.toString())
         WalkFileTreeSearchable.search(directory, query, intervalMillis, listener)
     }
+
+    @Throws(IOException::class)
+    override fun deleteRecursively(
+        path: Path,
+        intervalMillis: Long,
+        listener: (Int) -> Unit
+    ): Boolean {
+        path as? SmbPath ?: throw ProviderMismatchException(path.toString())
+        // Shares can't be deleted.
+        if (path.sharePath?.path.isNullOrEmpty()) {
+            return false
+        }
+        try {
+            Client.deleteRecursively(path, intervalMillis, listener)
+        } catch (e: ClientException) {
+            throw e.toFileSystemException(path.toString())
+        }
+        return true
+    }
 }
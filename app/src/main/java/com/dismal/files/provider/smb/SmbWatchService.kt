@@ -16,6 +16,7 @@ import java8.nio.file.StandardWatchEventKinds
 import java8.nio.file.WatchEvent
 import com.dismal.files.provider.FileSystemProviders
 import com.dismal.files.provider.common.AbstractWatchService
+import com.dismal.files.provider.common.FileMetadataCache
 import com.dismal.files.provider.smb.client.Client
 import com.dismal.files.provider.smb.client.ClientException
 import com.dismal.files.util.closeSafe
@@ -125,9 +126,16 @@ internal class SmbWatchService : AbstractWatchService<SmbWatchKey>() {
                 loop@ while (true) {
                     val response = future.get()
                     when (response.header.statusCode) {
-                        NtStatus.STATUS_NOTIFY_ENUM_DIR.value ->
+                        NtStatus.STATUS_NOTIFY_ENUM_DIR.value -> {
+                            FileMetadataCache.invalidateAll(key.watchable())
                             key.addEvent(StandardWatchEventKinds.OVERFLOW, null)
+                        }
                         NtStatus.STATUS_SUCCESS.value -> {
+                            for (fileNotifyInfo in response.fileNotifyInfoList) {
+                                FileMetadataCache.invalidateAll(
+                                    key.watchable().resolve(fileNotifyInfo.fileName)
+                                )
+                            }
                             if (FileSystemProviders.overflowWatchEvents) {
                                 key.addEvent(StandardWatchEventKinds.OVERFLOW, null)
                             } else {
@@ -22,19 +22,24 @@ import com.hierynomus.mssmb2.messages.SMB2ChangeNotifyResponse
 import com.hierynomus.protocol.commons.EnumWithValue
 import com.hierynomus.smbj.ProgressListener
 import com.hierynomus.smbj.SMBClient
+import com.hierynomus.smbj.SmbConfig
 import com.hierynomus.smbj.auth.AuthenticationContext
 import com.hierynomus.smbj.common.SMBRuntimeException
 import com.hierynomus.smbj.session.Session
 import com.hierynomus.smbj.share.Directory
+import com.hierynomus.smbj.share.DiskEntry
 import com.hierynomus.smbj.share.DiskShare
 import com.hierynomus.smbj.share.PipeShare
 import com.hierynomus.smbj.share.PrinterShare
 import com.hierynomus.smbj.share.Share
+import com.hierynomus.smbj.share.ShareAccessor
 import com.rapid7.client.dcerpc.mssrvs.ServerService
 import com.rapid7.client.dcerpc.transport.SMBTransportFactories
 import java8.nio.channels.SeekableByteChannel
 import jcifs.context.SingletonContext
 import com.dismal.files.provider.common.CloseableIterator
+import com.dismal.files.provider.common.FileMetadataCache
+import com.dismal.files.provider.common.NotifyEntryModifiedSeekableByteChannel
 import com.dismal.files.provider.common.copyTo
 import com.dismal.files.provider.common.newInputStream
 import com.dismal.files.provider.common.newOutputStream
@@ -43,22 +48,37 @@ import com.dismal.files.util.enumSetOf
 import com.dismal.files.util.hasBits
 import java.io.Closeable
 import java.io.IOException
+import java.io.InterruptedIOException
 import java.net.Inet4Address
 import java.net.UnknownHostException
-import java.util.Collections
-import java.util.WeakHashMap
 import java.util.concurrent.Future
+import java8.nio.file.Path as Java8Path
 
 object Client {
+    private const val CACHE_TTL_MILLIS = 10 * 1000L
+
+    private const val MAX_BUFFER_SIZE = 8 * 1024 * 1024
+
+    // Bounded by the credits that servers usually grant, which are 512 for Windows and Samba.
+    private const val DELETE_BATCH_SIZE = 64
+
     @Volatile
     lateinit var authenticator: Authenticator
 
-    private val client = SMBClient()
+    // The default buffer sizes of 1 MiB would cap the maximum read and write sizes that servers
+    // negotiate, which are 8 MiB for recent Windows and Samba.
+    private val client = SMBClient(
+        SmbConfig.builder()
+            .withReadBufferSize(MAX_BUFFER_SIZE)
+            .withWriteBufferSize(MAX_BUFFER_SIZE)
+            .build()
+    )
 
     private val sessions = mutableMapOf<Authority, Session>()
 
-    private val directoryFileInformationCache =
-        Collections.synchronizedMap(WeakHashMap<Path, FileInformation>())
+    // Holds the information of files opened as reparse points, which is also what comes along
+    // with a directory listing.
+    private val fileInformationCache = FileMetadataCache<FileInformation>(CACHE_TTL_MILLIS)
 
     @Throws(ClientException::class)
     fun openByteChannel(
@@ -81,7 +101,9 @@ object Client {
         } catch (e: SMBRuntimeException) {
             throw ClientException(e)
         }
-        return FileByteChannel(file, isAppend)
+        fileInformationCache.invalidate(path as Java8Path)
+        // SMB has its own watch service so this only drops cached information upon writes.
+        return NotifyEntryModifiedSeekableByteChannel(FileByteChannel(file, isAppend), path)
     }
 
     @Throws(ClientException::class)
@@ -135,7 +157,7 @@ object Client {
                 }
                 .map { fileInformation ->
                     path.resolve(fileInformation.fileName).also {
-                        directoryFileInformationCache[it] = fileInformation.toFileInformation()
+                        fileInformationCache[it as Java8Path] = fileInformation.toFileInformation()
                     }
                 }
                 .iterator()
@@ -168,6 +190,7 @@ object Client {
         } catch (e: SMBRuntimeException) {
             throw ClientException(e)
         }
+        fileInformationCache.invalidate(path as Java8Path)
     }
 
     // @see https://gitlab.com/samba-team/devel/samba/-/blob/master/source3/libsmb/clisymlink.c
@@ -220,6 +243,7 @@ object Client {
         } catch (e: SMBRuntimeException) {
             throw ClientException(e)
         }
+        fileInformationCache.invalidate(path as Java8Path)
     }
 
     // @see https://gitlab.com/samba-team/devel/samba/-/blob/master/source3/libsmb/clifile.c
@@ -259,6 +283,9 @@ object Client {
         } catch (e: SMBRuntimeException) {
             throw ClientException(e)
         }
+        // The link count of the file changes as well.
+        fileInformationCache.invalidate(path as Java8Path)
+        fileInformationCache.invalidate(link as Java8Path)
     }
 
     @Throws(ClientException::class)
@@ -285,7 +312,115 @@ object Client {
         } catch (e: SMBRuntimeException) {
             throw ClientException(e)
         }
-        directoryFileInformationCache -= path
+        fileInformationCache.invalidate(path as Java8Path)
+    }
+
+    /**
+     * Deletes a directory with everything in it. The CREATE requests with FILE_DELETE_ON_CLOSE for
+     * the entries of a directory are sent in batches without waiting for each response, followed
+     * by their CLOSE requests, so that a batch takes about two round trips instead of two per
+     * entry.
+     *
+     * @param listener called with the number of entries deleted since the last call
+     */
+    @Throws(ClientException::class, InterruptedIOException::class)
+    fun deleteRecursively(path: Path, intervalMillis: Long, listener: (Int) -> Unit) {
+        val sharePath = path.sharePath ?: throw ClientException("$path does not have a share path")
+        val session = getSession(path.authority)
+        val share = getDiskShare(session, sharePath.name)
+        var lastProgressMillis = System.currentTimeMillis()
+        var deletedCount = 0
+        try {
+            deleteDirectoryContents(share, sharePath.path) { count ->
+                deletedCount += count
+                val currentTimeMillis = System.currentTimeMillis()
+                if (currentTimeMillis >= lastProgressMillis + intervalMillis) {
+                    listener(deletedCount)
+                    lastProgressMillis = currentTimeMillis
+                    deletedCount = 0
+                }
+            }
+        } catch (e: SMBRuntimeException) {
+            throw ClientException(e)
+        } finally {
+            fileInformationCache.invalidate(path as Java8Path)
+        }
+        delete(path)
+        listener(deletedCount + 1)
+    }
+
+    @Throws(InterruptedIOException::class, SMBRuntimeException::class)
+    private fun deleteDirectoryContents(
+        share: DiskShare,
+        directoryPath: String,
+        onDeleted: (Int) -> Unit
+    ) {
+        val entries = share.openDirectory(
+            directoryPath, enumSetOf(
+                AccessMask.FILE_LIST_DIRECTORY, AccessMask.FILE_READ_ATTRIBUTES
+            ), null, SMB2ShareAccess.ALL, SMB2CreateDisposition.FILE_OPEN, null
+        ).use { directory ->
+            directory.iterator(FileIdFullDirectoryInformation::class.java)
+                .asSequence()
+                .filter { fileInformation ->
+                    !fileInformation.fileName.let { it == "." || it == ".." }
+                }
+                .toList()
+        }
+        val entryPaths = entries.map { entry ->
+            val entryPath = if (directoryPath.isNotEmpty()) {
+                "$directoryPath\\${entry.fileName}"
+            } else {
+                entry.fileName
+            }
+            // Links are deleted themselves instead of what they point to.
+            val fileAttributes = entry.fileAttributes
+            if (fileAttributes.hasBits(FileAttributes.FILE_ATTRIBUTE_DIRECTORY.value)
+                && !fileAttributes.hasBits(FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT.value)) {
+                deleteDirectoryContents(share, entryPath, onDeleted)
+            }
+            entryPath
+        }
+        for (batchPaths in entryPaths.chunked(DELETE_BATCH_SIZE)) {
+            deleteBatch(share, batchPaths)
+            onDeleted(batchPaths.size)
+            if (Thread.interrupted()) {
+                throw InterruptedIOException()
+            }
+        }
+    }
+
+    @Throws(SMBRuntimeException::class)
+    private fun deleteBatch(share: DiskShare, paths: List<String>) {
+        val createFutures = paths.map {
+            ShareAccessor.createAsync(
+                share, it, enumSetOf(AccessMask.DELETE), null, SMB2ShareAccess.ALL,
+                SMB2CreateDisposition.FILE_OPEN, enumSetOf(
+                    SMB2CreateOptions.FILE_DELETE_ON_CLOSE,
+                    SMB2CreateOptions.FILE_OPEN_REPARSE_POINT
+                )
+            )
+        }
+        var exception: SMBRuntimeException? = null
+        val closeFutures = paths.zip(createFutures).mapNotNull { (path, createFuture) ->
+            val fileId = try {
+                ShareAccessor.receiveCreate(share, createFuture, path).fileId
+            } catch (e: SMBRuntimeException) {
+                if (!(e is SMBApiException && e.status == NtStatus.STATUS_DELETE_PENDING)) {
+                    exception?.addSuppressed(e) ?: run { exception = e }
+                }
+                return@mapNotNull null
+            }
+            fileId to ShareAccessor.closeAsync(share, fileId)
+        }
+        for ((fileId, closeFuture) in closeFutures) {
+            try {
+                ShareAccessor.receiveClose(share, closeFuture, fileId)
+            } catch (e: SMBRuntimeException) {
+                exception?.addSuppressed(e) ?: run { exception = e }
+            }
+        }
+        exception?.let { throw it }
     }
 
     // @see https://gitlab.com/samba-team/devel/samba/-/blob/master/source3/libsmb/clisymlink.c
@@ -372,17 +507,23 @@ object Client {
                 targetFile.use {
                     var successful = false
                     try {
-                        if (sourceSession == targetSession) {
+                        val isCopiedOnServer = if (sourceSession == targetSession) {
                             val length = try {
                                 sourceFile.getFileInformation(FileStandardInformation::class.java)
                             } catch (e: SMBRuntimeException) {
                                 throw ClientException(e)
                             }.endOfFile
                             val progressListener = listener?.let {
+                                var lastProgressMillis = System.currentTimeMillis()
                                 var lastCopiedSize = 0L
-                                ProgressListener { copiedSize, _ ->
-                                    it(copiedSize - lastCopiedSize)
-                                    lastCopiedSize = copiedSize
+                                ProgressListener { copiedSize, totalSize ->
+                                    val currentTimeMillis = System.currentTimeMillis()
+                                    if (currentTimeMillis >= lastProgressMillis + intervalMillis
+                                        || copiedSize >= totalSize) {
+                                        it(copiedSize - lastCopiedSize)
+                                        lastProgressMillis = currentTimeMillis
+                                        lastCopiedSize = copiedSize
+                                    }
                                 }
                             }
                             try {
@@ -391,6 +532,10 @@ object Client {
                                 throw ClientException(e)
                             }
                         } else {
+                            false
+                        }
+                        // Fall back to copying through the client.
+                        if (!isCopiedOnServer) {
                             val sourceInputStream = FileByteChannel(sourceFile, false)
                                 .newInputStream()
                             val targetOutputStream = FileByteChannel(targetFile, false)
@@ -412,6 +557,7 @@ object Client {
         } catch (e: SMBRuntimeException) {
             throw ClientException(e)
         }
+        fileInformationCache.invalidate(target as Java8Path)
     }
 
     // @see https://gitlab.com/samba-team/devel/samba/-/blob/master/source3/libsmb/cli_smb2_fnum.c
@@ -445,8 +591,8 @@ object Client {
         } catch (e: SMBRuntimeException) {
             throw ClientException(e)
         }
-        directoryFileInformationCache -= path
-        directoryFileInformationCache -= newPath
+        fileInformationCache.invalidate(path as Java8Path)
+        fileInformationCache.invalidate(newPath as Java8Path)
     }
 
     @Throws(ClientException::class)
@@ -473,13 +619,13 @@ object Client {
                 else -> throw AssertionError(share)
             }
         } else {
-            synchronized(directoryFileInformationCache) {
-                directoryFileInformationCache[path]?.let {
-                    if (openReparsePoint || !it.fileAttributes.hasBits(
-                            FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT.value
-                        )) {
-                        return it.also { directoryFileInformationCache -= path }
-                    }
+            fileInformationCache[path as Java8Path]?.let {
+                // A file not found as a reparse point won't be found by following it either.
+                val fileInformation = it.getOrThrow()
+                if (openReparsePoint || !fileInformation.fileAttributes.hasBits(
+                        FileAttributes.FILE_ATTRIBUTE_REPARSE_POINT.value
+                    )) {
+                    return fileInformation
                 }
             }
             val share = getDiskShare(session, sharePath.name)
@@ -495,14 +641,23 @@ object Client {
                     }
                 )
             } catch (e: SMBRuntimeException) {
-                throw ClientException(e)
+                val exception = ClientException(e)
+                if (openReparsePoint && e.isNotFound()) {
+                    fileInformationCache.putNotFound(path, exception)
+                }
+                throw exception
             }
             val fileAllInformation = try {
-                diskEntry.use { it.fileInformation }
+                diskEntry.useWithoutWaitingForClose(share) { it.fileInformation }
             } catch (e: SMBRuntimeException) {
                 throw ClientException(e)
             }
-            return fileAllInformation.toFileInformation()
+            val fileInformation = fileAllInformation.toFileInformation()
+            // Following a reparse point returns the information of its target instead.
+            if (openReparsePoint) {
+                fileInformationCache[path] = fileInformation
+            }
+            return fileInformation
         }
     }
 
@@ -530,11 +685,12 @@ object Client {
             throw ClientException(e)
         }
         try {
+            // Wait for the CLOSE, since a mutation usually follows.
             diskEntry.use { it.setFileInformation(fileInformation) }
         } catch (e: SMBRuntimeException) {
             throw ClientException(e)
         }
-        directoryFileInformationCache -= path
+        fileInformationCache.invalidate(path as Java8Path)
     }
 
     @Throws(ClientException::class)
@@ -554,6 +710,7 @@ object Client {
         } catch (e: SMBRuntimeException) {
             throw ClientException(e)
         }
+        // Wait for the CLOSE, since the access is usually checked before a write or delete.
         try {
             diskEntry.close()
         } catch (e: SMBRuntimeException) {
@@ -561,6 +718,30 @@ object Client {
         }
     }
 
+    /**
+     * Like [use], but sends the CLOSE request without waiting for its response, which saves a
+     * round trip for handles that were only opened to read something.
+     *
+     * smbj doesn't support compounding the CLOSE with the requests before it, and such a handle is
+     * useless after the block anyway, so a failure to close it is only logged. SMB2 doesn't
+     * guarantee that requests are processed in order, so a later request may still see the handle
+     * open. Only use this where that is harmless, and never before a mutation.
+     */
+    private inline fun <R> DiskEntry.useWithoutWaitingForClose(
+        share: DiskShare,
+        block: (DiskEntry) -> R
+    ): R {
+        try {
+            return block(this)
+        } finally {
+            try {
+                ShareAccessor.closeAsync(share, fileId)
+            } catch (e: SMBRuntimeException) {
+                e.printStackTrace()
+            }
+        }
+    }
+
     // @see https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-smb2/05869c32-39f0-4726-afc9-671b76ae5ca7
     @Throws(ClientException::class)
     fun openDirectoryForChangeNotification(path: Path): Directory {
@@ -655,6 +836,10 @@ object Client {
         getShare(session, shareName) as? DiskShare
             ?: throw ClientException("$shareName is not a DiskShare")
 
+    private fun SMBRuntimeException.isNotFound(): Boolean =
+        this is SMBApiException && (status == NtStatus.STATUS_OBJECT_NAME_NOT_FOUND
+            || status == NtStatus.STATUS_OBJECT_PATH_NOT_FOUND)
+
     interface Path {
         val authority: Authority
         val sharePath: SharePath?
@@ -14,6 +14,7 @@ import com.hierynomus.smbj.share.File
 import com.hierynomus.smbj.share.FileAccessor
 import com.dismal.files.provider.common.AbstractFileByteChannel
 import com.dismal.files.provider.common.EMPTY
+import com.dismal.files.provider.common.allAsList
 import com.dismal.files.provider.common.map
 import com.dismal.files.util.closeSafe
 import com.dismal.files.util.findCauseByClass
@@ -29,7 +30,12 @@ class FileByteChannel(
     private val file: File,
     isAppend: Boolean
 // Cancelling reads leads to TransportException: Received response with unknown sequence number
-) : AbstractFileByteChannel(isAppend, shouldCancelRead = false) {
+) : AbstractFileByteChannel(
+    isAppend, shouldCancelRead = false,
+    maxReadAheadCount = getMaxInFlightCount(getReadSize(file)),
+    maxPendingWriteCount = getMaxInFlightCount(getWriteSize(file)),
+    maxReadBlockSize = getReadSize(file), writeBlockSize = getWriteSize(file)
+) {
     @Throws(IOException::class)
     override fun onReadAsync(position: Long, size: Int, timeoutMillis: Long): Future<ByteBuffer> =
         try {
@@ -69,6 +75,43 @@ class FileByteChannel(
         source.position(sourcePosition + bytesWritten)
     }
 
+    @Throws(IOException::class)
+    override fun onWriteAsync(position: Long, source: ByteBuffer): Future<Unit> {
+        // A single request can only write up to the negotiated maximum write size.
+        val writeBufferSize = FileAccessor.getWriteBufferSize(file)
+        val size = source.remaining()
+        val futures = mutableListOf<Future<Unit>>()
+        var offset = 0
+        while (offset < size) {
+            val length = (size - offset).coerceAtMost(writeBufferSize)
+            futures += try {
+                FileAccessor.writeAsync(
+                    file, position + offset, source.array(),
+                    source.arrayOffset() + source.position() + offset, length
+                )
+            } catch (e: SMBRuntimeException) {
+                throw e.toIOException()
+            }
+                .map(
+                    { response ->
+                        if (response.header.statusCode != NtStatus.STATUS_SUCCESS.value) {
+                            throw SMBApiException(response.header, "Write failed for $this")
+                                .toIOException()
+                        }
+                        if (response.bytesWritten != length.toLong()) {
+                            throw IOException(
+                                "Wrote ${response.bytesWritten} bytes instead of $length for $this"
+                            )
+                        }
+                    }, { e ->
+                        ExecutionException(SMBRuntimeException(e).toIOException())
+                    }
+                )
+            offset += length
+        }
+        return futures.allAsList().map({})
+    }
+
     @Throws(IOException::class)
     override fun onTruncate(size: Long) {
         try {
@@ -142,4 +185,23 @@ class FileByteChannel(
             return length
         }
     }
+
+    companion object {
+        // A request costs one credit per 64 KiB, so the requests in flight are bounded by size
+        // to leave credits for the other channel of a copy and everything else on the session.
+        private const val MAX_IN_FLIGHT_SIZE = 8 * 1024 * 1024
+        // Keeps a few requests in flight even for servers that negotiate 8 MiB.
+        private const val MAX_REQUEST_SIZE = 2 * 1024 * 1024
+        // For servers without large MTU, which accept only 64 KiB per request.
+        private const val MAX_IN_FLIGHT_COUNT = 16
+
+        private fun getReadSize(file: File): Int =
+            FileAccessor.getReadBufferSize(file).coerceAtMost(MAX_REQUEST_SIZE)
+
+        private fun getWriteSize(file: File): Int =
+            FileAccessor.getWriteBufferSize(file).coerceAtMost(MAX_REQUEST_SIZE)
+
+        private fun getMaxInFlightCount(requestSize: Int): Int =
+            (MAX_IN_FLIGHT_SIZE / requestSize).coerceIn(1, MAX_IN_FLIGHT_COUNT)
+    }
 }
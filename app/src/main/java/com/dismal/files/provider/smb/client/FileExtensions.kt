@@ -19,6 +19,10 @@ import com.hierynomus.smbj.share.ShareAccessor
 import com.hierynomus.smbj.share.StatusHandler
 import java.io.InterruptedIOException
 
+/**
+ * @return `false` if the server doesn't support server-side copy, in which case nothing has been
+ * written
+ */
 // @see https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-smb2/cd0162e4-7650-4293-8a2a-d696923203ef
 @Throws(InterruptedIOException::class, SMBRuntimeException::class)
 internal fun File.serverCopy(
@@ -27,8 +31,15 @@ internal fun File.serverCopy(
     targetOffset: Long,
     length: Long,
     listener: ProgressListener?
-) {
-    val resumeKey = requestResumeKey()
+): Boolean {
+    val resumeKey = try {
+        requestResumeKey()
+    } catch (e: SMBApiException) {
+        if (e.status in SERVER_COPY_UNSUPPORTED_STATUSES) {
+            return false
+        }
+        throw e
+    }
     var maxChunkSize = 1024 * 1024L
     var maxNumberOfChunks = 16L
     var maxRequestSize = maxNumberOfChunks * maxChunkSize
@@ -42,7 +53,14 @@ internal fun File.serverCopy(
             maxRequestSize
         )
         val request = CopyChunkRequest(resumeKey, chunks)
-        val (responseHeader, response) = target.serverCopyChunk(request)
+        val (responseHeader, response) = try {
+            target.serverCopyChunk(request)
+        } catch (e: SMBApiException) {
+            if (totalBytesWritten == 0L && e.status in SERVER_COPY_UNSUPPORTED_STATUSES) {
+                return false
+            }
+            throw e
+        }
         if (responseHeader.statusCode == NtStatus.STATUS_INVALID_PARAMETER.value) {
             // @see https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-smb2/a1935898-6a86-4491-a8a3-942ec83b75a4
             maxNumberOfChunks = response.chunksWritten
@@ -52,13 +70,18 @@ internal fun File.serverCopy(
             totalBytesWritten += response.totalBytesWritten
             listener?.onProgressChanged(totalBytesWritten, length)
             if (totalBytesWritten >= length) {
-                break
+                return true
             }
         }
         throwIfInterrupted()
     }
 }
 
+// Samba without server-side copy support and some NAS servers reply with these.
+private val SERVER_COPY_UNSUPPORTED_STATUSES = listOf(
+    NtStatus.STATUS_NOT_SUPPORTED, NtStatus.STATUS_INVALID_DEVICE_REQUEST
+)
+
 @Throws(InterruptedIOException::class)
 private fun throwIfInterrupted() {
     if (Thread.interrupted()) {
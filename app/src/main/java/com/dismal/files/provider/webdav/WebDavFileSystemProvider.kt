@@ -30,8 +30,11 @@ import java8.nio.file.attribute.FileAttributeView
 import java8.nio.file.spi.FileSystemProvider
 import com.dismal.files.provider.common.ByteString
 import com.dismal.files.provider.common.ByteStringPath
+import com.dismal.files.provider.common.CloseableIterator
 import com.dismal.files.provider.common.DelegateSchemeFileSystemProvider
-import com.dismal.files.provider.common.PathListDirectoryStream
+import com.dismal.files.provider.common.HashAlgorithm
+import com.dismal.files.provider.common.Hashable
+import com.dismal.files.provider.common.PathIteratorDirectoryStream
 import com.dismal.files.provider.common.PathObservable
 import com.dismal.files.provider.common.PathObservableProvider
 import com.dismal.files.provider.common.Searchable
@@ -52,7 +55,8 @@ import java.io.InputStream
 import java.io.OutputStream
 import java.net.URI
 
-object WebDavFileSystemProvider : FileSystemProvider(), PathObservableProvider, Searchable {
+object WebDavFileSystemProvider : FileSystemProvider(), PathObservableProvider, Searchable,
+    Hashable {
     private val HIDDEN_FILE_NAME_PREFIX = ".".toByteString()
 
     private val fileSystems = mutableMapOf<Authority, WebDavFileSystem>()
@@ -257,13 +261,13 @@ object WebDavFileSystemProvider : FileSystemProvider(), PathObservableProvider,
         filter: DirectoryStream.Filter<in Path>
     ): DirectoryStream<Path> {
         directory as? WebDavPath ?: throw ProviderMismatchException(directory.toString())
-        val paths = try {
+        val iterator = try {
             @Suppress("UNCHECKED_CAST")
-            Client.findCollectionMembers(directory) as List<Path>
+            Client.openCollectionMemberIterator(directory) as CloseableIterator<Path>
         } catch (e: DavException) {
             throw e.toFileSystemException(directory.toString())
         }
-        return PathListDirectoryStream(paths, filter)
+        return PathIteratorDirectoryStream(iterator, iterator, filter)
     }
 
     @Throws(IOException::class)
@@ -439,6 +443,21 @@ object WebDavFileSystemProvider : FileSystemProvider(), PathObservableProvider,
         directory as? WebDavPath ?: throw ProviderMismatchException(directory.toString())
         WalkFileTreeSearchable.search(directory, query, intervalMillis, listener)
     }
+
+    @Throws(IOException::class)
+    override fun hash(path: Path, algorithms: Set<HashAlgorithm>): Map<HashAlgorithm, String> {
+        path as? WebDavPath ?: throw ProviderMismatchException(path.toString())
+        val checksums = try {
+            Client.getChecksums(path)
+        } catch (e: DavException) {
+            throw e.toFileSystemException(path.toString())
+        }
+        return algorithms.mapNotNull { algorithm ->
+            // The types are named like "SHA1" and "MD5", with "ADLER32" that we don't have.
+            val checksum = checksums[algorithm.name] ?: return@mapNotNull null
+            if (checksum.length == 2 * algorithm.size) algorithm to checksum else null
+        }.toMap()
+    }
 }
 
 val WebDavsFileSystemProvider =
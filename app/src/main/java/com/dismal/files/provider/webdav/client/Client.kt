@@ -24,26 +24,38 @@ import at.bitfire.dav4jvm.property.webdav.GetLastModified
 import at.bitfire.dav4jvm.property.webdav.ResourceType
 import java8.nio.channels.SeekableByteChannel
 import com.dismal.files.app.okHttpClient
+import com.dismal.files.provider.common.CloseableIterator
+import com.dismal.files.provider.common.FileMetadataCache
 import com.dismal.files.provider.common.LocalWatchService
 import com.dismal.files.provider.common.NotifyEntryModifiedOutputStream
 import com.dismal.files.provider.common.NotifyEntryModifiedSeekableByteChannel
+import okhttp3.ConnectionPool
 import okhttp3.HttpUrl
 import okhttp3.Interceptor
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.Route
 import org.threeten.bp.Instant
+import java.io.Closeable
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
 import java.net.HttpURLConnection
-import java.util.Collections
-import java.util.WeakHashMap
+import java.util.concurrent.TimeUnit
 import java8.nio.file.Path as Java8Path
 import okhttp3.Response as OkHttpResponse
 
 // See also https://github.com/miquels/webdavfs/blob/master/fuse.go
 object Client {
+    private const val CACHE_TTL_MILLIS = 10 * 1000L
+
+    // Enough for the read-aheads of a file being read along with the other requests of a job, so
+    // that parallel reads keep reusing their connections.
+    private const val MAX_IDLE_CONNECTION_COUNT = 12
+    // Servers usually close idle connections within a minute, e.g. Apache after 5 seconds and
+    // nginx after 75 seconds, so keeping them longer would mostly leave stale connections.
+    private const val KEEP_ALIVE_DURATION_SECONDS = 60L
+
     private val FILE_PROPERTIES = arrayOf(
         ResourceType.NAME,
         CreationDate.NAME,
@@ -56,7 +68,7 @@ object Client {
 
     private val clients = mutableMapOf<Authority, OkHttpClient>()
 
-    private val collectionMemberCache = Collections.synchronizedMap(WeakHashMap<Path, Response>())
+    private val responseCache = FileMetadataCache<Response>(CACHE_TTL_MILLIS)
 
     @Throws(IOException::class)
     private fun getClient(authority: Authority): OkHttpClient {
@@ -71,6 +83,14 @@ object Client {
                     .cookieJar(MemoryCookieJar())
                     .addNetworkInterceptor(authenticatorInterceptor)
                     .authenticator(authenticatorInterceptor)
+                    // Each server has its own pool, so that the idle connections to one server
+                    // don't evict those to another.
+                    .connectionPool(
+                        ConnectionPool(
+                            MAX_IDLE_CONNECTION_COUNT, KEEP_ALIVE_DURATION_SECONDS,
+                            TimeUnit.SECONDS
+                        )
+                    )
                     .build()
                 clients[authority] = client
             }
@@ -105,7 +125,6 @@ object Client {
         } catch (e: IOException) {
             throw e.toDavException()
         }
-        collectionMemberCache -= path
         LocalWatchService.onEntryDeleted(path as Java8Path)
     }
 
@@ -119,8 +138,6 @@ object Client {
         } catch (e: IOException) {
             throw e.toDavException()
         }
-        collectionMemberCache -= source
-        collectionMemberCache -= target
         LocalWatchService.onEntryDeleted(source as Java8Path)
         LocalWatchService.onEntryCreated(target as Java8Path)
     }
@@ -133,26 +150,61 @@ object Client {
             throw e.toDavException()
         }
 
+    /**
+     * Returns the checksums that ownCloud and Nextcloud keep for files uploaded by their clients,
+     * e.g. `SHA1:...` in the `OC-Checksum` header.
+     *
+     * @return the checksums as lowercase hexadecimal by their uppercase type, e.g. `SHA1`
+     */
     @Throws(DavException::class)
-    fun findCollectionMembers(path: Path): List<Path> =
-        buildList {
-            try {
-                DavCollection(getClient(path.authority), path.url)
-                    .propfind(1, *FILE_PROPERTIES) { response, relation ->
-                        if (relation != Response.HrefRelation.MEMBER) {
-                            return@propfind
-                        }
-                        this += path.resolve(response.hrefName())
-                            .also {
-                                if (response.isSuccess()) {
-                                    collectionMemberCache[it] = response
-                                }
-                            }
+    fun getChecksums(path: Path): Map<String, String> {
+        val checksums = mutableMapOf<String, String>()
+        try {
+            DavResource(getClient(path.authority), path.url).headCompat { response ->
+                val header = response.header("OC-Checksum") ?: return@headCompat
+                for (checksum in header.split(',', ' ').filter { it.isNotEmpty() }) {
+                    val type = checksum.substringBefore(':', "")
+                    val value = checksum.substringAfter(':', "")
+                    if (type.isNotEmpty() && value.isNotEmpty()) {
+                        checksums[type.uppercase()] = value.lowercase()
                     }
-            } catch (e: IOException) {
-                throw e.toDavException()
+                }
             }
+        } catch (e: IOException) {
+            throw e.toDavException()
+        }
+        return checksums
+    }
+
+    // Members are returned while the multistatus is still being parsed, so that they can be shown
+    // as they arrive.
+    @Throws(DavException::class)
+    fun openCollectionMemberIterator(path: Path): CloseableIterator<Path> {
+        val client = try {
+            getClient(path.authority)
+        } catch (e: IOException) {
+            throw e.toDavException()
         }
+        val memberIterator = CollectionMemberIterator(client) { cancelableClient, onMember ->
+            DavCollection(cancelableClient, path.url)
+                .propfind(1, *FILE_PROPERTIES) { response, relation ->
+                    if (relation == Response.HrefRelation.MEMBER) {
+                        onMember(response)
+                    }
+                }
+        }
+        val directoryIterator = memberIterator.asSequence()
+            .map { response ->
+                path.resolve(response.hrefName()).also {
+                    if (response.isSuccess()) {
+                        responseCache[it as Java8Path] = response
+                    }
+                }
+            }
+            .iterator()
+        return object : CloseableIterator<Path>, Iterator<Path> by directoryIterator,
+            Closeable by memberIterator {}
+    }
 
     @Throws(DavException::class)
     fun findPropertiesOrNull(path: Path, noFollowLinks: Boolean): Response? =
@@ -167,16 +219,17 @@ object Client {
     // TODO: Support noFollowLinks.
     @Throws(DavException::class)
     fun findProperties(path: Path, noFollowLinks: Boolean): Response {
-        synchronized(collectionMemberCache) {
-            collectionMemberCache.remove(path)?.let { return it }
-        }
-        try {
-            return findProperties(
-                DavResource(getClient(path.authority), path.url), *FILE_PROPERTIES
-            )
+        responseCache[path as Java8Path]?.let { return it.getOrThrow() }
+        val response = try {
+            findProperties(DavResource(getClient(path.authority), path.url), *FILE_PROPERTIES)
+        } catch (e: NotFoundException) {
+            responseCache.putNotFound(path, e)
+            throw e
         } catch (e: IOException) {
             throw e.toDavException()
         }
+        responseCache[path] = response
+        return response
     }
 
     @Throws(DavException::class, IOException::class)
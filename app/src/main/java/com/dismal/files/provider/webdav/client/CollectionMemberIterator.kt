@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.provider.webdav.client
+
+import at.bitfire.dav4jvm.Response
+import at.bitfire.dav4jvm.exception.DavException
+import com.dismal.files.provider.common.CloseableIterator
+import okhttp3.Call
+import okhttp3.OkHttpClient
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Iterates over the members of a collection while the PROPFIND multistatus is still being parsed
+ * on another thread, so that the first members are available before the whole response arrives.
+ *
+ * Errors before the first member are thrown upon construction, and later errors are thrown from
+ * [hasNext] as [DavException], like SMB directory iterators throw their runtime exceptions.
+ *
+ * Closing cancels the ongoing call, because interrupting the thread doesn't unblock a read from
+ * the network.
+ */
+internal class CollectionMemberIterator @Throws(DavException::class) constructor(
+    client: OkHttpClient,
+    // @Throws(DavException::class, IOException::class)
+    propfind: (OkHttpClient, (Response) -> Unit) -> Unit
+) : CloseableIterator<Response> {
+    private val queue = ArrayBlockingQueue<Any>(CAPACITY)
+
+    @Volatile
+    private var isClosed = false
+
+    private val callLock = Any()
+
+    private var call: Call? = null
+
+    private val client = client.newBuilder()
+        .addInterceptor { chain ->
+            val call = chain.call()
+            synchronized(callLock) {
+                if (isClosed) {
+                    call.cancel()
+                }
+                this.call = call
+            }
+            chain.proceed(chain.request())
+        }
+        .build()
+
+    private val thread = Thread("CollectionMemberIterator-${id.getAndIncrement()}") {
+        val end = try {
+            propfind(client) { response ->
+                if (isClosed) {
+                    throw InterruptedIOException()
+                }
+                queue.put(response)
+            }
+            END
+        } catch (e: InterruptedException) {
+            return@Thread
+        } catch (e: DavException) {
+            e
+        } catch (e: IOException) {
+            e.toDavException()
+        }
+        if (isClosed) {
+            return@Thread
+        }
+        try {
+            queue.put(end)
+        } catch (e: InterruptedException) {
+            // Closed.
+        }
+    }.apply {
+        isDaemon = true
+        start()
+    }
+
+    private var next: Any? = null
+
+    init {
+        try {
+            hasNext()
+        } catch (e: DavException) {
+            close()
+            throw e
+        }
+    }
+
+    override fun hasNext(): Boolean {
+        val next = next ?: try {
+            queue.take()
+        } catch (e: InterruptedException) {
+            throw DavIOException(InterruptedIOException().apply { initCause(e) })
+        }.also { next = it }
+        if (next is DavException) {
+            throw next
+        }
+        return next !== END
+    }
+
+    override fun next(): Response {
+        if (!hasNext()) {
+            throw NoSuchElementException()
+        }
+        return (next as Response).also { next = null }
+    }
+
+    override fun close() {
+        synchronized(callLock) {
+            isClosed = true
+            call?.cancel()
+        }
+        thread.interrupt()
+    }
+
+    companion object {
+        private const val CAPACITY = 256
+
+        private val END = Any()
+
+        private val id = AtomicInteger()
+    }
+}
@@ -204,6 +204,16 @@ fun DavResource.putRangeCompat(
     }
 }
 
+@Throws(DavException::class, IOException::class)
+fun DavResource.headCompat(callback: ResponseCallback) {
+    followRedirects {
+        httpClient.newCall(Request.Builder().head().url(location).build()).execute()
+    }.use { response ->
+        checkStatus(response)
+        callback.onResponse(response)
+    }
+}
+
 @Throws(HttpException::class)
 private fun DavResource.checkStatus(response: Response) {
     DavResourceAccessor.checkStatus(this, response)
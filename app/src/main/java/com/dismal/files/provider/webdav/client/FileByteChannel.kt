@@ -21,7 +21,7 @@ class FileByteChannel(
     private val resource: DavResource,
     private val patchSupport: PatchSupport,
     isAppend: Boolean
-) : AbstractFileByteChannel(isAppend) {
+) : AbstractFileByteChannel(isAppend, maxReadAheadCount = MAX_READ_AHEAD_COUNT) {
     private var nextSequentialWritePosition = 0L
     private var sequentialWriteOutputStream: OutputStream? = null
 
@@ -92,5 +92,10 @@ class FileByteChannel(
 
     companion object {
         private const val HTTP_RANGE_NOT_SATISFIABLE = 416
+
+        // Each read-ahead is a Range request of its own, on a connection of its own for HTTP/1.1
+        // or a stream of its own for HTTP/2, so that a high-latency link is kept busy. OkHttp only
+        // limits the requests per host for asynchronous calls, which these aren't.
+        private const val MAX_READ_AHEAD_COUNT = 8
     }
 }
@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package com.dismal.files.settings
+
+import com.dismal.files.R
+
+// Servers are stored as parcels in Settings.STORAGES, which can't gain fields without dropping
+// the saved servers, so options of a server are stored separately by its authority.
+object ServerSettings {
+    private const val NAME_SUFFIX = "server"
+
+    fun getSftpDeleteRecursivelyOnServer(authority: String): SettingLiveData<Boolean> =
+        BooleanSettingLiveData(
+            NAME_SUFFIX, R.string.pref_key_sftp_server_delete_recursively_on_server, authority,
+            R.bool.pref_default_value_sftp_server_delete_recursively_on_server
+        )
+}
@@ -164,6 +164,13 @@ object Settings {
             R.string.pref_default_value_archive_file_name_encoding
         )
 
+    // 0 for the number of processors.
+    val ARCHIVE_THREAD_COUNT: SettingLiveData<String> =
+        StringSettingLiveData(
+            R.string.pref_key_archive_thread_count,
+            R.string.pref_default_value_archive_thread_count
+        )
+
     val OPEN_APK_DEFAULT_ACTION: SettingLiveData<OpenApkDefaultAction> =
         EnumSettingLiveData(
             R.string.pref_key_open_apk_default_action,
@@ -181,4 +188,10 @@ object Settings {
             R.string.pref_key_read_remote_files_for_thumbnail,
             R.bool.pref_default_value_read_remote_files_for_thumbnail
         )
+
+    val CACHE_REMOTE_FILE_LISTS: SettingLiveData<Boolean> =
+        BooleanSettingLiveData(
+            R.string.pref_key_cache_remote_file_lists,
+            R.bool.pref_default_value_cache_remote_file_lists
+        )
 }
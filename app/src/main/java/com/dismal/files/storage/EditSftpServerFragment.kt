@@ -28,6 +28,7 @@ import com.dismal.files.provider.sftp.client.Authority
 import com.dismal.files.provider.sftp.client.PasswordAuthentication
 import com.dismal.files.provider.sftp.client.PublicKeyAuthentication
 import com.dismal.files.ui.UnfilteredArrayAdapter
+import com.dismal.files.settings.ServerSettings
 import com.dismal.files.util.ActionState
 import com.dismal.files.util.ParcelableArgs
 import com.dismal.files.util.args
@@ -39,6 +40,7 @@ import com.dismal.files.util.isReady
 import com.dismal.files.util.launchSafe
 import com.dismal.files.util.showToast
 import com.dismal.files.util.takeIfNotEmpty
+import com.dismal.files.util.valueCompat
 import com.dismal.files.util.viewModels
 import java.net.URI
 
@@ -161,6 +163,8 @@ class EditSftpServerFragment : Fragment() {
                 }
                 binding.pathEdit.setText(server.relativePath)
                 binding.nameEdit.setText(server.customName)
+                binding.deleteRecursivelyOnServerCheck.isChecked = ServerSettings
+                    .getSftpDeleteRecursivelyOnServer(authority.toString()).valueCompat
             }
         }
     }
@@ -237,6 +241,7 @@ class EditSftpServerFragment : Fragment() {
 
     private fun saveOrAdd() {
         val server = getServerOrSetError() ?: return
+        saveServerSettings(server)
         Storages.addOrReplace(server)
         finish()
     }
@@ -259,6 +264,7 @@ class EditSftpServerFragment : Fragment() {
                 binding.removeOrAddButton.isEnabled = !isConnecting
             }
             is ActionState.Success -> {
+                saveServerSettings(state.argument)
                 Storages.addOrReplace(state.argument)
                 finish()
             }
@@ -271,6 +277,11 @@ class EditSftpServerFragment : Fragment() {
         }
     }
 
+    private fun saveServerSettings(server: SftpServer) {
+        ServerSettings.getSftpDeleteRecursivelyOnServer(server.authority.toString())
+            .putValue(binding.deleteRecursivelyOnServerCheck.isChecked)
+    }
+
     private fun remove() {
         Storages.remove(args.server!!)
         finish()
@@ -6,7 +6,9 @@
 package com.hierynomus.smbj.share;
 
 import com.hierynomus.mssmb2.messages.SMB2ReadResponse;
+import com.hierynomus.mssmb2.messages.SMB2WriteResponse;
 import com.hierynomus.smbj.common.SMBRuntimeException;
+import com.hierynomus.smbj.io.ArrayByteChunkProvider;
 
 import java.util.concurrent.Future;
 
@@ -23,4 +25,31 @@ public class FileAccessor {
             throws SMBRuntimeException {
         return file.readAsync(offset, length);
     }
+
+    /**
+     * Writes at most {@link #getWriteBufferSize(File)} bytes in a single request.
+     *
+     * @see Share#writeAsync(com.hierynomus.mssmb2.SMB2FileId, com.hierynomus.smbj.io.ByteChunkProvider)
+     */
+    @NonNull
+    public static Future<SMB2WriteResponse> writeAsync(@NonNull File file, long fileOffset,
+                                                       @NonNull byte[] buffer, int offset,
+                                                       int length) throws SMBRuntimeException {
+        return file.share.writeAsync(file.fileId, new ArrayByteChunkProvider(buffer, offset, length,
+                fileOffset));
+    }
+
+    /**
+     * @see Share#getReadBufferSize()
+     */
+    public static int getReadBufferSize(@NonNull File file) {
+        return file.share.getReadBufferSize();
+    }
+
+    /**
+     * @see Share#getWriteBufferSize()
+     */
+    public static int getWriteBufferSize(@NonNull File file) {
+        return file.share.getWriteBufferSize();
+    }
 }
@@ -6,12 +6,28 @@
 package com.hierynomus.smbj.share;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.hierynomus.msdtyp.AccessMask;
+import com.hierynomus.msfscc.FileAttributes;
+import com.hierynomus.mssmb2.SMB2CreateDisposition;
+import com.hierynomus.mssmb2.SMB2CreateOptions;
 import com.hierynomus.mssmb2.SMB2FileId;
+import com.hierynomus.mssmb2.SMB2ImpersonationLevel;
+import com.hierynomus.mssmb2.SMB2Packet;
+import com.hierynomus.mssmb2.SMB2ShareAccess;
+import com.hierynomus.mssmb2.messages.SMB2Close;
+import com.hierynomus.mssmb2.messages.SMB2CreateRequest;
+import com.hierynomus.mssmb2.messages.SMB2CreateResponse;
 import com.hierynomus.mssmb2.messages.SMB2IoctlResponse;
+import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smbj.common.SMBRuntimeException;
+import com.hierynomus.smbj.common.SmbPath;
 import com.hierynomus.smbj.io.ArrayByteChunkProvider;
 import com.hierynomus.smbj.io.ByteChunkProvider;
+import com.hierynomus.smbj.session.Session;
 
+import java.util.Set;
 import java.util.concurrent.Future;
 
 public class ShareAccessor {
@@ -33,4 +49,75 @@ public class ShareAccessor {
                 inputData, -1);
         return share.receive(future, "IOCTL", fileId, statusHandler, timeout);
     }
+
+    /**
+     * Sends a CREATE request without waiting for its response, so that requests for many files
+     * can be in flight at once.
+     *
+     * @see #receiveCreate(Share, Future, String)
+     */
+    @NonNull
+    public static Future<SMB2CreateResponse> createAsync(
+            @NonNull Share share, @NonNull String path, @NonNull Set<AccessMask> accessMask,
+            @Nullable Set<FileAttributes> attributes, @NonNull Set<SMB2ShareAccess> shareAccess,
+            @NonNull SMB2CreateDisposition createDisposition,
+            @Nullable Set<SMB2CreateOptions> createOptions) {
+        final TreeConnect treeConnect = share.getTreeConnect();
+        final Session session = treeConnect.getSession();
+        final SMB2CreateRequest request = new SMB2CreateRequest(
+                session.getConnection().getNegotiatedProtocol().getDialect(),
+                session.getSessionId(), treeConnect.getTreeId(),
+                SMB2ImpersonationLevel.Impersonation, accessMask, attributes, shareAccess,
+                createDisposition, createOptions, new SmbPath(share.getSmbPath(), path));
+        return send(session, request);
+    }
+
+    /**
+     * @throws com.hierynomus.mssmb2.SMBApiException if the status isn't success
+     * @see #createAsync(Share, String, Set, Set, Set, SMB2CreateDisposition, Set)
+     */
+    @NonNull
+    public static SMB2CreateResponse receiveCreate(
+            @NonNull Share share, @NonNull Future<SMB2CreateResponse> future,
+            @NonNull String path) {
+        return share.receive(future, "Create", path, StatusHandler.SUCCESS,
+                share.getTreeConnect().getConfig().getTransactTimeout());
+    }
+
+    /**
+     * Sends a CLOSE request without waiting for its response.
+     *
+     * @see #receiveClose(Share, Future, SMB2FileId)
+     */
+    @NonNull
+    public static Future<SMB2Close> closeAsync(@NonNull Share share,
+                                               @NonNull SMB2FileId fileId) {
+        final TreeConnect treeConnect = share.getTreeConnect();
+        final Session session = treeConnect.getSession();
+        final SMB2Close request = new SMB2Close(
+                session.getConnection().getNegotiatedProtocol().getDialect(),
+                session.getSessionId(), treeConnect.getTreeId(), fileId);
+        return send(session, request);
+    }
+
+    /**
+     * @throws com.hierynomus.mssmb2.SMBApiException if the status isn't success
+     * @see #closeAsync(Share, SMB2FileId)
+     */
+    @NonNull
+    public static SMB2Close receiveClose(@NonNull Share share, @NonNull Future<SMB2Close> future,
+                                         @NonNull SMB2FileId fileId) {
+        return share.receive(future, "Close", fileId, StatusHandler.SUCCESS,
+                share.getTreeConnect().getConfig().getTransactTimeout());
+    }
+
+    @NonNull
+    private static <T extends SMB2Packet> Future<T> send(@NonNull Session session,
+                                                         @NonNull SMB2Packet request) {
+        try {
+            return session.send(request);
+        } catch (TransportException e) {
+            throw new SMBRuntimeException(e);
+        }
+    }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package net.schmizz.sshj.sftp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+public class RemoteDirectoryAccessor {
+    private RemoteDirectoryAccessor() {}
+
+    /**
+     * Reads the next batch of entries with a single READDIR, unlike
+     * {@link RemoteDirectory#scan(RemoteResourceFilter)} which reads until the end.
+     *
+     * @return the entries excluding "." and "..", or {@code null} at the end of the directory
+     * @see RemoteDirectory#scan(RemoteResourceFilter)
+     */
+    @Nullable
+    public static List<RemoteResourceInfo> readBatch(@NonNull RemoteDirectory directory)
+            throws IOException {
+        final SFTPEngine requester = directory.requester;
+        final Response response = requester.request(directory.newRequest(PacketType.READDIR))
+                .retrieve(requester.getTimeoutMs(), TimeUnit.MILLISECONDS);
+        switch (response.getType()) {
+            case NAME: {
+                final int count = response.readUInt32AsInt();
+                final List<RemoteResourceInfo> infos = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    final String name = response.readString(
+                            requester.getSubsystem().getRemoteCharset());
+                    // Long name, which shouldn't have been in the protocol.
+                    response.readString();
+                    final FileAttributes attributes = response.readFileAttributes();
+                    if (".".equals(name) || "..".equals(name)) {
+                        continue;
+                    }
+                    final PathComponents components = requester.getPathHelper().getComponents(
+                            directory.path, name);
+                    infos.add(new RemoteResourceInfo(components, attributes));
+                }
+                return infos;
+            }
+            case STATUS:
+                response.ensureStatusIs(Response.StatusCode.EOF);
+                return null;
+            default:
+                throw new SFTPException("Unexpected packet: " + response.getType());
+        }
+    }
+}
@@ -8,8 +8,10 @@ package net.schmizz.sshj.sftp;
 import net.schmizz.concurrent.Promise;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 public class RemoteFileAccessor {
     private RemoteFileAccessor() {}
@@ -20,8 +22,90 @@ public class RemoteFileAccessor {
         return file.asyncRead(offset, length);
     }
 
+    @NonNull
+    public static Promise<Response, SFTPException> asyncWrite(@NonNull RemoteFile file,
+                                                              long fileOffset, @NonNull byte[] data,
+                                                              int offset, int length)
+            throws IOException {
+        return file.asyncWrite(fileOffset, data, offset, length);
+    }
+
     @NonNull
     public static SFTPEngine getRequester(@NonNull RemoteFile file) {
         return file.requester;
     }
+
+    /**
+     * Returns whether the server supports the "copy-data" extension, which OpenSSH advertises
+     * without a domain so that {@link SFTPEngine#supportsServerExtension(String, String)} can't
+     * be used.
+     *
+     * @see <a href="https://datatracker.ietf.org/doc/html/draft-ietf-secsh-filexfer-extensions-00#section-7">
+     *      draft-ietf-secsh-filexfer-extensions-00 Section 7</a>
+     */
+    public static boolean supportsCopyData(@NonNull SFTPEngine engine) {
+        return engine.serverExtensions.containsKey("copy-data");
+    }
+
+    /**
+     * Copies data between two open files on the server with the "copy-data" extension.
+     *
+     * @see #supportsCopyData(SFTPEngine)
+     */
+    public static void copyData(@NonNull RemoteFile source, long sourceOffset, long length,
+                                @NonNull RemoteFile target, long targetOffset)
+            throws IOException {
+        final SFTPEngine requester = source.requester;
+        final Request request = requester.newExtendedRequest("copy-data")
+                .putString(source.handle)
+                .putUInt64(sourceOffset)
+                .putUInt64(length)
+                .putString(target.handle)
+                .putUInt64(targetOffset);
+        requester.request(request)
+                .retrieve(requester.getTimeoutMs(), TimeUnit.MILLISECONDS)
+                .ensureStatusPacketIsOK();
+    }
+
+    /**
+     * Returns whether the server supports the "check-file" extension.
+     *
+     * @see <a href="https://datatracker.ietf.org/doc/html/draft-ietf-secsh-filexfer-extensions-00#section-3">
+     *      draft-ietf-secsh-filexfer-extensions-00 Section 3</a>
+     */
+    public static boolean supportsCheckFile(@NonNull SFTPEngine engine) {
+        return engine.serverExtensions.containsKey("check-file");
+    }
+
+    /**
+     * Computes the hash of an entire file on the server with the "check-file-name" request.
+     *
+     * @param algorithm the name of the hash algorithm, e.g. "sha256"
+     * @return the hash, or {@code null} if the server used another algorithm
+     * @see #supportsCheckFile(SFTPEngine)
+     */
+    @Nullable
+    public static byte[] checkFileName(@NonNull SFTPEngine engine, @NonNull String path,
+                                       @NonNull String algorithm) throws IOException {
+        final Request request = engine.newExtendedRequest("check-file-name")
+                .putString(path, engine.getSubsystem().getRemoteCharset())
+                .putString(algorithm)
+                .putUInt64(0)
+                // A length of 0 means the entire file.
+                .putUInt64(0)
+                // A block size of 0 means a single hash.
+                .putUInt32(0);
+        final Response response = engine.request(request)
+                .retrieve(engine.getTimeoutMs(), TimeUnit.MILLISECONDS);
+        response.ensurePacketTypeIs(PacketType.EXTENDED_REPLY);
+        // Some servers, e.g. ProFTPD, prefix the reply with the extension name.
+        String algorithmUsed = response.readString();
+        if (algorithmUsed.equals("check-file")) {
+            algorithmUsed = response.readString();
+        }
+        if (!algorithm.equals(algorithmUsed)) {
+            return null;
+        }
+        return response.readRawBytes(response.available());
+    }
 }
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2024 Hai Zhang <dreaming.in.code.zh@gmail.com>
+ * All Rights Reserved.
+ */
+
+package org.apache.commons.net.ftp;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+public class FTPClientAccessor {
+    private FTPClientAccessor() {}
+
+    /**
+     * Opens a data connection for a command, so that a listing can be read as it arrives instead
+     * of being buffered entirely like {@link FTPClient#mlistDir(String)} does.
+     *
+     * @return the data connection, or {@code null} if the command was rejected
+     */
+    @Nullable
+    public static Socket openDataConnection(@NonNull FTPClient client, @NonNull FTPCmd command,
+                                            @Nullable String arg) throws IOException {
+        return client._openDataConnection_(command, arg);
+    }
+}